@@ -0,0 +1,400 @@
+package com.cosc3p97.calculator;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * A persistent history of evaluated expressions and their results, kept in
+ * an append-only log file so it survives the app's process being killed.
+ * <p>
+ * Each entry is one record: its length, a CRC32 checksum, and the UTF-8
+ * bytes of the expression and the result. Adding an entry appends one
+ * record in a single write, so the file is never rewritten in place. If the
+ * process dies partway through a write, loading stops at the torn record
+ * and cuts it off. A write that fails while the process lives on, on a full
+ * disk for example, is cut off at once, and if that fails too, before the
+ * next record is appended, so no record is ever written after torn bytes.
+ * Once the file holds twice as many records as the history
+ * keeps, it is compacted by writing the kept entries to a new file and
+ * renaming it over the old one.
+ * <p>
+ * Nothing is read until the history is first used, so creating one costs
+ * nothing at startup; call {@link #load()} on a background thread to have
+ * it ready. An index of the expressions, sorted by text, answers prefix
+ * searches by visiting only the matching expressions, so searches stay fast
+ * with tens of thousands of entries.
+ * <p>
+ * Every method is synchronized, and methods that may read or write the file
+ * should be called off the UI thread.
+ */
+public final class CalculationHistory {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int HEADER_SIZE = 8; // Length and checksum before each record
+
+    // Orders entries from oldest to newest
+    private static final Comparator<Entry> BY_SEQUENCE = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry a, Entry b) {
+            return a.sequence < b.sequence ? -1 : a.sequence == b.sequence ? 0 : 1;
+        }
+    };
+
+    private final File file;      // The log file
+    private final int maxEntries; // Most entries kept
+
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>(); // Kept entries, oldest first
+    private final TreeMap<String, Entry> index = new TreeMap<>(); // Newest entry of each expression
+    private boolean loaded;    // True once the file has been read
+    private int fileRecords;   // Records in the file, including ones no longer kept
+    private long fileLength;   // Length of the file up to the end of its last whole record
+    private long nextSequence; // Sequence number of the next entry
+
+    /**
+     * Constructor for a history stored in the given file. The file is not
+     * read until the history is first used, and is created by the first
+     * entry added.
+     *
+     * @param file       The log file.
+     * @param maxEntries The maximum number of entries to keep.
+     */
+    public CalculationHistory(File file, int maxEntries) {
+        if (maxEntries <= 0)
+            throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+
+        this.file = file;
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Reads the log file if it has not been read yet. A torn record at the
+     * end of the file, left by a write that was interrupted, is cut off.
+     *
+     * @throws IOException If the file cannot be read.
+     */
+    public synchronized void load() throws IOException {
+        if (this.loaded)
+            return;
+
+        long valid = 0; // Length of the file up to the last whole record
+        long fileLength = this.file.length();
+        if (this.file.exists()) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.file)));
+            try {
+                byte[] payload = new byte[64];
+                CRC32 crc = new CRC32();
+                while (true) {
+                    int length;
+                    int checksum;
+                    try {
+                        length = in.readInt();
+                        checksum = in.readInt();
+                        if (length < 4 || valid + HEADER_SIZE + length > fileLength)
+                            break; // Torn or corrupt record
+                        if (length > payload.length)
+                            payload = new byte[Math.max(length, payload.length * 2)];
+                        in.readFully(payload, 0, length);
+                    } catch (EOFException e) {
+                        break; // Torn record
+                    }
+
+                    crc.reset();
+                    crc.update(payload, 0, length);
+                    if ((int) crc.getValue() != checksum)
+                        break;
+
+                    this.keep(decode(payload, length));
+                    this.fileRecords++;
+                    valid += HEADER_SIZE + length;
+                }
+            } finally {
+                in.close();
+            }
+
+            if (valid < fileLength)
+                truncate(this.file, valid); // Appends must start after the last whole record
+        }
+        this.fileLength = valid;
+        this.loaded = true;
+    }
+
+    /**
+     * Adds an entry to the history and appends it to the log file,
+     * compacting the file if it has grown to twice the kept size.
+     *
+     * @param expression The expression that was evaluated.
+     * @param result     The result of the expression as displayed.
+     * @throws IOException If the file cannot be read or written.
+     */
+    public synchronized void add(String expression, String result) throws IOException {
+        this.load();
+        if (this.file.length() != this.fileLength)
+            this.repair(); // An earlier append failed and could not be cut off
+
+        byte[] record = encode(expression, result);
+        try {
+            OutputStream out = new FileOutputStream(this.file, true);
+            try {
+                out.write(record); // One write, so a record is never interleaved
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            try {
+                truncate(this.file, this.fileLength); // Part of the record may have been written
+            } catch (IOException ignored) {
+                // Repaired before the next append instead
+            }
+            throw e;
+        }
+        this.keep(new Entry(expression, result, 0));
+        this.fileRecords++;
+        this.fileLength += record.length;
+
+        if (this.fileRecords >= 2 * this.maxEntries)
+            this.compact();
+    }
+
+    /**
+     * Rewrites the log file with only the kept entries. The new file is
+     * written beside the old one and renamed over it, so the history is
+     * intact if the process dies partway through.
+     *
+     * @throws IOException If the file cannot be read or written.
+     */
+    public synchronized void compact() throws IOException {
+        this.load();
+
+        File compacted = new File(this.file.getPath() + ".compact");
+        FileOutputStream out = new FileOutputStream(compacted);
+        long length = 0;
+        try {
+            OutputStream data = new BufferedOutputStream(out);
+            for (Entry entry : this.entries) {
+                byte[] record = encode(entry.expression, entry.result);
+                data.write(record);
+                length += record.length;
+            }
+            data.flush();
+            out.getFD().sync(); // On disk before it replaces the old file
+        } finally {
+            out.close();
+        }
+
+        if (!compacted.renameTo(this.file))
+            throw new IOException("Cannot replace " + this.file + " with " + compacted);
+        this.fileRecords = this.entries.size();
+        this.fileLength = length;
+    }
+
+    /**
+     * Makes the file hold exactly the records this history wrote to it:
+     * bytes after the last whole record, left by a failed append, are cut
+     * off, and a file that lost records is rewritten with the kept entries.
+     *
+     * @throws IOException If the file cannot be written.
+     */
+    private void repair() throws IOException {
+        if (this.file.length() > this.fileLength)
+            truncate(this.file, this.fileLength);
+        else
+            this.compact();
+    }
+
+    /**
+     * Removes every entry and deletes the log file.
+     *
+     * @throws IOException If the file cannot be deleted.
+     */
+    public synchronized void clear() throws IOException {
+        if (this.file.exists() && !this.file.delete())
+            throw new IOException("Cannot delete " + this.file);
+
+        this.entries.clear();
+        this.index.clear();
+        this.fileRecords = 0;
+        this.fileLength = 0;
+        this.loaded = true; // Nothing left to read
+    }
+
+    /**
+     * Returns the most recent entries.
+     *
+     * @param limit The maximum number of entries to return.
+     * @return The entries, newest first.
+     * @throws IOException If the file cannot be read.
+     */
+    public synchronized List<Entry> recent(int limit) throws IOException {
+        this.load();
+
+        List<Entry> recent = new ArrayList<>(Math.min(limit, this.entries.size()));
+        Iterator<Entry> newestFirst = this.entries.descendingIterator();
+        while (recent.size() < limit && newestFirst.hasNext())
+            recent.add(newestFirst.next());
+        return recent;
+    }
+
+    /**
+     * Finds past expressions that start with a prefix. Each expression is
+     * returned once, with its most recent result. Only the expressions that
+     * match are visited, and only the most recent {@code limit} of them are
+     * kept while visiting.
+     *
+     * @param prefix The start of the expressions to find.
+     * @param limit  The maximum number of entries to return.
+     * @return The matching entries, newest first.
+     * @throws IOException If the file cannot be read.
+     */
+    public synchronized List<Entry> search(String prefix, int limit) throws IOException {
+        this.load();
+        if (limit <= 0)
+            return new ArrayList<>();
+
+        // Oldest match on top, so it is the one dropped when a newer match is found
+        PriorityQueue<Entry> newest = new PriorityQueue<>(Math.min(limit, 64), BY_SEQUENCE);
+        for (Map.Entry<String, Entry> match : this.index.tailMap(prefix, true).entrySet()) {
+            if (!match.getKey().startsWith(prefix))
+                break; // Sorted by text, so no later key can match
+            newest.add(match.getValue());
+            if (newest.size() > limit)
+                newest.poll();
+        }
+
+        List<Entry> found = new ArrayList<>(newest);
+        Collections.sort(found, Collections.reverseOrder(BY_SEQUENCE));
+        return found;
+    }
+
+    /**
+     * @return The number of entries kept.
+     * @throws IOException If the file cannot be read.
+     */
+    public synchronized int size() throws IOException {
+        this.load();
+        return this.entries.size();
+    }
+
+    /**
+     * Adds an entry to memory, dropping the oldest entry if there are too many.
+     *
+     * @param entry The entry, whose sequence number is assigned here.
+     */
+    private void keep(Entry entry) {
+        Entry numbered = new Entry(entry.expression, entry.result, this.nextSequence++);
+        this.entries.addLast(numbered);
+        this.index.put(numbered.expression, numbered);
+
+        if (this.entries.size() > this.maxEntries) {
+            Entry oldest = this.entries.removeFirst();
+            if (this.index.get(oldest.expression) == oldest)
+                this.index.remove(oldest.expression); // Not repeated by a newer entry
+        }
+    }
+
+    /**
+     * Encodes an entry as a record of the log file.
+     */
+    private static byte[] encode(String expression, String result) throws IOException {
+        byte[] expressionBytes = expression.getBytes(UTF_8);
+        byte[] resultBytes = result.getBytes(UTF_8);
+        int length = 4 + expressionBytes.length + resultBytes.length;
+
+        CRC32 crc = new CRC32();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_SIZE + length);
+        DataOutputStream record = new DataOutputStream(bytes);
+        record.writeInt(length);
+        record.writeInt(0); // Checksum, filled in below
+        record.writeInt(expressionBytes.length);
+        record.write(expressionBytes);
+        record.write(resultBytes);
+
+        byte[] encoded = bytes.toByteArray();
+        crc.update(encoded, HEADER_SIZE, length);
+        int checksum = (int) crc.getValue();
+        for (int i = 0; i < 4; i++)
+            encoded[4 + i] = (byte) (checksum >>> (24 - 8 * i));
+        return encoded;
+    }
+
+    /**
+     * Decodes the payload of a record, after its length and checksum.
+     */
+    private static Entry decode(byte[] payload, int length) throws IOException {
+        int expressionLength = ((payload[0] & 0xff) << 24) | ((payload[1] & 0xff) << 16)
+                | ((payload[2] & 0xff) << 8) | (payload[3] & 0xff);
+        if (expressionLength < 0 || expressionLength > length - 4)
+            throw new IOException("Corrupt history record");
+
+        String expression = new String(payload, 4, expressionLength, UTF_8);
+        String result = new String(payload, 4 + expressionLength, length - 4 - expressionLength, UTF_8);
+        return new Entry(expression, result, 0);
+    }
+
+    /**
+     * Cuts a file off at the given length.
+     */
+    private static void truncate(File file, long length) throws IOException {
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            out.setLength(length);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * One evaluated expression and its result.
+     */
+    public static final class Entry {
+
+        private final String expression; // The expression as entered
+        private final String result;     // The result as displayed
+        private final long sequence;     // Order in which entries were added
+
+        Entry(String expression, String result, long sequence) {
+            this.expression = expression;
+            this.result = result;
+            this.sequence = sequence;
+        }
+
+        /**
+         * @return The expression as entered.
+         */
+        public String getExpression() {
+            return this.expression;
+        }
+
+        /**
+         * @return The result as displayed.
+         */
+        public String getResult() {
+            return this.result;
+        }
+
+        @Override
+        public String toString() {
+            return this.expression + " = " + this.result;
+        }
+    }
+}
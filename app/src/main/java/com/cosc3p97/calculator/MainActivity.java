@@ -1,7 +1,9 @@
 package com.cosc3p97.calculator;
 
 import android.os.Bundle;
+import android.text.Editable;
 import android.text.InputType;
+import android.text.TextWatcher;
 import android.view.View;
 import android.widget.Button;
 import android.widget.EditText;
@@ -13,6 +15,19 @@ import androidx.activity.EdgeToEdge;
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * MainActivity is the entry point of the calculator application.
  * It handles user interactions, including button clicks for digits and
@@ -31,7 +46,6 @@ public class MainActivity extends AppCompatActivity {
     private Button buttonDecimal, buttonAdd, buttonSub, buttonMultiply, buttonDivide, buttonEquals, buttonSaved, buttonRetrieve, buttonLeftParen, buttonRightParen, buttonAllClear, buttonCorrect;
     private Switch toggleBasicModeBtn;
     private View.OnClickListener digitListener, memoryListener, operationListener, scientificOperationsListener, toggleModeSwitchListener, memoryRetrieveListener, allClearListener, correctListener;
-    private EquationCalculator equationCalculator;
 
     private static final String STATE_PENDING_OPERATION = "PendingOperation";
     private static final String STATE_PENDING_OPERAND = "PendingOperand";
@@ -39,6 +53,38 @@ public class MainActivity extends AppCompatActivity {
     private static final String STATE_TOGGLE_BTN = "ToggleBasicModeBtn";
     private static final String STATE_MEMORY_OPERAND = "OperandInMemory";
 
+    // Results of recently evaluated equations, shared by every screen instance
+    private static final ResultCache RESULT_CACHE = new ResultCache(256);
+
+    // Bounds on one scientific evaluation, so a huge power fails fast instead of exhausting memory
+    private static final EvaluationLimits EVALUATION_LIMITS = EvaluationLimits.NONE
+            .withMaxTokens(10_000)
+            .withMaxDepth(1_000)
+            .withMaxDigits(100_000)
+            .withTimeout(10, TimeUnit.SECONDS);
+
+    // Bounds on one preview; shorter than an evaluation, since a preview runs on every keystroke
+    private static final EvaluationLimits PREVIEW_LIMITS = EVALUATION_LIMITS.withTimeout(1, TimeUnit.SECONDS);
+
+    // Digits kept by scientific results; more than a double can display, so 1/3 has a value
+    private static final PrecisionPolicy PRECISION = PrecisionPolicy.of(MathContext.DECIMAL64);
+
+    // Live preview of the scientific expression, updated off the UI thread
+    private final ExecutorService previewExecutor = Executors.newSingleThreadExecutor();
+    private final IncrementalEvaluator previewEvaluator = new IncrementalEvaluator(PRECISION, PREVIEW_LIMITS); // Used only by previewExecutor
+    private final ConcurrentLinkedQueue<Runnable> pendingEdits = new ConcurrentLinkedQueue<>(); // Edits not yet applied to previewEvaluator
+    private final AtomicInteger latestEdit = new AtomicInteger(); // Number of the most recent text edit
+    private Future<?> pendingPreview; // The preview in progress, if any; accessed on the UI thread
+
+    // Evaluation of "=" in scientific mode, run off the UI thread
+    private final ExecutorService evaluationExecutor = Executors.newSingleThreadExecutor();
+    private final AtomicInteger latestEvaluation = new AtomicInteger(); // Number of the most recent "=" request
+    private Future<?> pendingEvaluation; // The evaluation in progress, if any; accessed on the UI thread
+
+    // Past scientific equations and their results, kept on disk across process death
+    private static final String HISTORY_FILE = "history.log";
+    private static final int MAX_HISTORY_ENTRIES = 20_000;
+    private CalculationHistory history; // Read and written only on evaluationExecutor
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -49,6 +95,24 @@ public class MainActivity extends AppCompatActivity {
         initializeViews();
         initializeListeners();
 
+        // Creating the history reads nothing; load it in the background so startup does not wait
+        history = new CalculationHistory(new File(getFilesDir(), HISTORY_FILE), MAX_HISTORY_ENTRIES);
+        evaluationExecutor.execute(() -> {
+            try {
+                history.load();
+            } catch (IOException e) {
+                // History is a convenience; the calculator works without it
+            }
+        });
+
+    }
+
+    @Override
+    protected void onDestroy() {
+        // Stop the background threads; pending results are no longer needed
+        previewExecutor.shutdownNow();
+        evaluationExecutor.shutdownNow();
+        super.onDestroy();
     }
 
     /**
@@ -138,6 +202,12 @@ public class MainActivity extends AppCompatActivity {
 
         // Assign listener for mode toggle button
         toggleBasicModeBtn.setOnClickListener(this.toggleModeSwitchListener);
+
+        // Keep the live preview in step with every change to the input
+        newNumberView.addTextChangedListener(getPreviewWatcher());
+
+        // Long-pressing "=" recalls a past equation starting with the input
+        buttonEquals.setOnLongClickListener(getHistoryRecallListener());
     }
 
 
@@ -424,13 +494,7 @@ public class MainActivity extends AppCompatActivity {
 
             // Handle evaluation when the "=" button is pressed
             if (buttonText.equals("=")) {
-                try {
-                    equationCalculator = new EquationCalculator(currentText);  // Create an equation calculator instance
-                    double result = Double.parseDouble(equationCalculator.equals());  // Evaluate the equation
-                    resultView.setText(String.valueOf(result));  // Display the result
-                } catch (Exception e) {
-                    resultView.setText("Error");  // Display error message on exception
-                }
+                evaluateInBackground(currentText);  // Evaluate without blocking the UI
                 newNumberView.setText("");  // Clear input after evaluation
                 return;  // Exit the listener
             }
@@ -453,6 +517,165 @@ public class MainActivity extends AppCompatActivity {
     }
 
 
+    /**
+     * Evaluates an equation on the background evaluation thread and posts
+     * the result to the result view. The result view shows an in-progress
+     * state until then. A previous evaluation that has not finished is
+     * cancelled, since its result would be replaced anyway; the engine
+     * checks for interruption as it works, so even a huge exponent stops
+     * promptly.
+     *
+     * @param equation The equation to evaluate.
+     */
+    private void evaluateInBackground(String equation) {
+        if (pendingEvaluation != null) {
+            pendingEvaluation.cancel(true);  // Superseded by this request
+        }
+        final int evaluation = latestEvaluation.incrementAndGet();
+        resultView.setText("...");  // Show that the result is being computed
+
+        pendingEvaluation = evaluationExecutor.submit(() -> {
+            String text;
+            try {
+                EquationCalculator equationCalculator = new EquationCalculator(equation, RESULT_CACHE, EVALUATION_LIMITS, PRECISION);  // Create an equation calculator instance
+                double result = equationCalculator.evaluate().doubleValue();  // Evaluate the equation
+                text = String.valueOf(result);
+                recordHistory(equation, text);
+            } catch (CancellationException e) {
+                return;  // A newer request replaced this one
+            } catch (Exception e) {
+                text = "Error";  // Display error message on exception
+            }
+
+            final String display = text;
+            runOnUiThread(() -> {
+                if (evaluation == latestEvaluation.get()) {
+                    resultView.setText(display);  // Display the result
+                }
+            });
+        });
+    }
+
+
+    /**
+     * Appends an evaluated equation to the history. Called on the
+     * evaluation thread, so the disk write never blocks the UI.
+     *
+     * @param equation The equation that was evaluated.
+     * @param result   The result as displayed.
+     */
+    private void recordHistory(String equation, String result) {
+        try {
+            history.add(equation, result);
+        } catch (IOException e) {
+            // History is a convenience; the result is still shown
+        }
+    }
+
+
+    /**
+     * Returns an OnLongClickListener that, in scientific mode, replaces the
+     * input with the most recent past equation that starts with it and shows
+     * that equation's result. The search runs on the evaluation thread, and
+     * the input is only replaced if it has not changed in the meantime.
+     *
+     * @return An OnLongClickListener that recalls history.
+     */
+    private View.OnLongClickListener getHistoryRecallListener() {
+        return view -> {
+            if (!toggleBasicModeBtn.isChecked()) return false;  // Basic mode has no equations
+
+            final String prefix = newNumberView.getText().toString();
+            evaluationExecutor.execute(() -> {
+                CalculationHistory.Entry match;
+                try {
+                    List<CalculationHistory.Entry> matches = history.search(prefix, 1);
+                    match = matches.isEmpty() ? null : matches.get(0);
+                } catch (IOException e) {
+                    match = null;
+                }
+
+                final CalculationHistory.Entry found = match;
+                runOnUiThread(() -> {
+                    if (found == null) {
+                        Toast.makeText(MainActivity.this, "No matching history", Toast.LENGTH_SHORT).show();
+                    } else if (prefix.equals(newNumberView.getText().toString())) {
+                        newNumberView.setText(found.getExpression());
+                        newNumberView.setSelection(found.getExpression().length());  // Keep typing at the end
+                        resultView.setText(found.getResult());
+                    }
+                });
+            });
+            return true;
+        };
+    }
+
+
+    /**
+     * Returns a TextWatcher that passes every edit of the input to the
+     * preview evaluator on a background thread. Only the edited range is
+     * copied on the UI thread, and the evaluator re-evaluates only the part
+     * of the expression after the edit, so typing stays responsive however
+     * long the expression gets. Edits are applied in order; a preview is
+     * only computed and shown if no newer edit has been made since, and a
+     * newer edit cancels the preview in progress. Edits wait in a queue
+     * until a preview task applies them, so none is lost when its own task
+     * is cancelled.
+     *
+     * @return A TextWatcher that updates the live preview.
+     */
+    private TextWatcher getPreviewWatcher() {
+        return new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {
+            }
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {
+                if (previewExecutor.isShutdown()) return;  // The activity is being destroyed
+
+                final String inserted = s.subSequence(start, start + count).toString();  // Copy before the text changes again
+                final int edit = latestEdit.incrementAndGet();
+                pendingEdits.add(() -> previewEvaluator.replace(start, before, inserted));
+                if (pendingPreview != null) {
+                    pendingPreview.cancel(true);  // Superseded by this edit
+                }
+                pendingPreview = previewExecutor.submit(() -> {
+                    try {
+                        for (Runnable pending; (pending = pendingEdits.poll()) != null; ) {
+                            pending.run();
+                        }
+                        if (edit != latestEdit.get()) return;  // A newer edit will produce the preview
+
+                        final BigDecimal preview = previewEvaluator.preview();
+                        runOnUiThread(() -> showPreview(edit, preview));
+                    } catch (CancellationException e) {
+                        // A newer edit stopped this preview; its own task applies the edits still queued
+                    }
+                });
+            }
+
+            @Override
+            public void afterTextChanged(Editable s) {
+            }
+        };
+    }
+
+
+    /**
+     * Shows a live preview in the result view while in scientific mode.
+     * Incomplete or invalid input leaves the result view unchanged, so the
+     * last result stays visible while an operator is being typed.
+     *
+     * @param edit    The number of the edit the preview belongs to.
+     * @param preview The value of the expression, or null if it has none.
+     */
+    private void showPreview(int edit, BigDecimal preview) {
+        if (edit != latestEdit.get() || preview == null || !toggleBasicModeBtn.isChecked()) return;
+        resultView.setText(String.valueOf(preview.doubleValue()));  // Same format as the "=" result
+    }
+
+
     /**
      * Helper method to determine if the last character of the given text is an operator.
      *
@@ -0,0 +1,123 @@
+package com.cosc3p97.calculator;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for CalculationHistory.
+ */
+public class CalculationHistoryTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void history_survivesReopening() throws IOException {
+        File file = new File(folder.getRoot(), "history.log");
+        CalculationHistory history = new CalculationHistory(file, 100);
+        history.add("1+2", "3.0");
+        history.add("2^10", "1024.0");
+
+        CalculationHistory reopened = new CalculationHistory(file, 100);
+        List<CalculationHistory.Entry> recent = reopened.recent(10);
+        assertEquals(2, recent.size());
+        assertEquals("2^10", recent.get(0).getExpression());
+        assertEquals("3.0", recent.get(1).getResult());
+    }
+
+    @Test
+    public void constructor_doesNotTouchTheFile() throws IOException {
+        File file = new File(folder.getRoot(), "history.log");
+        new CalculationHistory(file, 100);
+        assertFalse(file.exists());
+        assertEquals(0, new CalculationHistory(file, 100).size());
+    }
+
+    @Test
+    public void load_cutsOffATornRecord() throws IOException {
+        File file = new File(folder.getRoot(), "history.log");
+        CalculationHistory history = new CalculationHistory(file, 100);
+        history.add("1+1", "2.0");
+        history.add("2+2", "4.0");
+
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        out.setLength(file.length() - 3); // A write cut short by process death
+        out.close();
+
+        CalculationHistory reopened = new CalculationHistory(file, 100);
+        assertEquals(1, reopened.size());
+        reopened.add("3+3", "6.0");
+        assertEquals("3+3", new CalculationHistory(file, 100).recent(1).get(0).getExpression());
+    }
+
+    @Test
+    public void add_cutsOffTheBytesOfAFailedAppend() throws IOException {
+        File file = new File(folder.getRoot(), "history.log");
+        CalculationHistory history = new CalculationHistory(file, 100);
+        history.add("1+1", "2.0");
+        history.add("2+2", "4.0");
+
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        out.seek(file.length());
+        out.write(new byte[]{0, 0, 0, 20, 1, 2}); // The start of a record whose write failed
+        out.close();
+
+        history.add("3+3", "6.0");
+        history.add("4+4", "8.0");
+        List<CalculationHistory.Entry> recent = new CalculationHistory(file, 100).recent(10);
+        assertEquals(4, recent.size());
+        assertEquals("4+4", recent.get(0).getExpression());
+        assertEquals("1+1", recent.get(3).getExpression());
+    }
+
+    @Test
+    public void add_compactsTheFile() throws IOException {
+        File file = new File(folder.getRoot(), "history.log");
+        CalculationHistory history = new CalculationHistory(file, 10);
+        for (int i = 0; i < 19; i++)
+            history.add(i + "+1", String.valueOf(i + 1));
+        long beforeCompaction = file.length();
+        history.add("19+1", "20");
+
+        assertTrue(file.length() < beforeCompaction);
+        CalculationHistory reopened = new CalculationHistory(file, 10);
+        assertEquals(10, reopened.size());
+        assertEquals("10+1", reopened.recent(10).get(9).getExpression());
+    }
+
+    @Test
+    public void search_findsNewestMatchesByPrefix() throws IOException {
+        CalculationHistory history = new CalculationHistory(new File(folder.getRoot(), "history.log"), 50_000);
+        for (int i = 0; i < 20_000; i++)
+            history.add(i + "*2", String.valueOf(i * 2));
+        history.add("12*2", "24"); // Repeated, so it becomes the newest match
+
+        List<CalculationHistory.Entry> found = history.search("12", 3);
+        assertEquals(3, found.size());
+        assertEquals("12*2", found.get(0).getExpression());
+        assertEquals("12999*2", found.get(1).getExpression());
+        assertEquals("12998*2", found.get(2).getExpression());
+
+        assertEquals(1 + 10 + 100 + 1000, history.search("12", 10_000).size());
+        assertTrue(history.search("x", 5).isEmpty());
+    }
+
+    @Test
+    public void clear_removesTheFile() throws IOException {
+        File file = new File(folder.getRoot(), "history.log");
+        CalculationHistory history = new CalculationHistory(file, 100);
+        history.add("1+2", "3.0");
+        history.clear();
+
+        assertFalse(file.exists());
+        assertEquals(0, history.size());
+    }
+}
@@ -0,0 +1,285 @@
+package com.cosc3p97.calculator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * JMH benchmarks for the expression engine. Each shape of input is measured
+ * both through the full EquationCalculator pipeline (tokenize, parse and
+ * evaluate) and, where it matters, through an already compiled expression.
+ * <p>
+ * Run with {@code ./gradlew :benchmark:jmh}; the gc profiler is enabled in
+ * the build so every result includes its allocation rate.
+ */
+@State(Scope.Thread)
+public class EngineBenchmark {
+
+    private static final String SHORT = "12.5*(3+4)-8/2";
+    private static final String LARGE_EXPONENT = "7^2000*3^1500";
+    private static final String DIVISION = "1/8+3/16-5/32*7/64";
+    private static final String FORMULA = "a*b+c";
+    private static final int ROWS = 1 << 16;
+    private static final PrecisionPolicy DECIMAL64 = PrecisionPolicy.of(MathContext.DECIMAL64);
+    private static final String POLYNOMIAL = "3.5*x^3-2*x^2*y+x*y/4-y^2+7";
+    private static final String REDUNDANT = "(2^10*3)*a*1+(4*5-2)/3*b+0+c^1-(7.5-2.5)*(a-0)";
+    private static final String SCIENTIFIC = "sin(1.2)*exp(0.5)+ln(7)-sqrt(2)*cos(pi/5)";
+    private static final PrecisionPolicy DIGITS_100 = PrecisionPolicy.significantDigits(100, RoundingMode.HALF_EVEN);
+    private static final String HUGE_PRODUCTS = "7^20000*3^15000+11^9000*13^8000-(17^7000*19^6000)";
+
+    private String flatSum;          // 2000 terms joined by + and -
+    private String nestedParentheses; // 500 levels of nested groups
+
+    private ExpressionLexer lexer;
+    private CompiledExpression compiledShort;
+    private CompiledExpression compiledFlatSum;
+    private CompiledExpression compiledNested;
+    private CompiledExpression compiledFormula;
+    private double[][] columns; // Values of a, b and c for each row
+    private double[] out;       // Result of each row
+    private CompiledExpression compiledRedundant;
+    private CompiledExpression optimizedRedundant;
+    private BigDecimal[] bindings; // Values of a, b and c
+    private ClosureExpression closureShort;
+    private ClosureExpression closureFormula;
+    private CompiledExpression compiledPolynomial;
+    private ClosureExpression closurePolynomial;
+    private CompiledExpression compiledHugeProducts;
+    private BytecodeExpression bytecodeShort;
+    private BytecodeExpression bytecodePolynomial;
+    private byte[] serializedFlatSum; // The flat sum as a written bytecode program
+
+    @Setup
+    public void setUp() {
+        StringBuilder sum = new StringBuilder("1");
+        for (int i = 2; i <= 2000; i++)
+            sum.append(i % 2 == 0 ? '+' : '-').append(i).append(".25");
+        this.flatSum = sum.toString();
+
+        StringBuilder nested = new StringBuilder();
+        for (int i = 0; i < 500; i++)
+            nested.append("(1+");
+        nested.append('1');
+        for (int i = 0; i < 500; i++)
+            nested.append(")*1");
+        this.nestedParentheses = nested.toString();
+
+        this.lexer = new ExpressionLexer();
+        this.compiledShort = EquationCalculator.compile(SHORT);
+        this.compiledFlatSum = EquationCalculator.compile(this.flatSum);
+        this.compiledNested = EquationCalculator.compile(this.nestedParentheses);
+
+        this.compiledFormula = EquationCalculator.compile(FORMULA);
+        this.columns = new double[3][ROWS];
+        for (int r = 0; r < ROWS; r++) {
+            this.columns[0][r] = r * 0.5;
+            this.columns[1][r] = r % 10;
+            this.columns[2][r] = -r;
+        }
+        this.out = new double[ROWS];
+
+        this.compiledRedundant = EquationCalculator.compile(REDUNDANT);
+        this.optimizedRedundant = this.compiledRedundant.optimize();
+        this.bindings = new BigDecimal[]{new BigDecimal("1.5"), new BigDecimal("-2"), new BigDecimal("12.25")};
+
+        this.closureShort = this.compiledShort.toClosure();
+        this.closureFormula = this.compiledFormula.toClosure();
+        this.compiledPolynomial = EquationCalculator.compile(POLYNOMIAL);
+        this.closurePolynomial = this.compiledPolynomial.toClosure();
+        this.compiledHugeProducts = EquationCalculator.compile(HUGE_PRODUCTS);
+
+        this.bytecodeShort = this.compiledShort.toBytecode();
+        this.bytecodePolynomial = this.compiledPolynomial.toBytecode();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            this.compiledFlatSum.toBytecode().writeTo(bytes);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        this.serializedFlatSum = bytes.toByteArray();
+    }
+
+    @Benchmark
+    public int tokenizeFlatSum() {
+        return this.lexer.tokenize(this.flatSum);
+    }
+
+    @Benchmark
+    public String equalsShort() {
+        return new EquationCalculator(SHORT).equals();
+    }
+
+    @Benchmark
+    public String equalsShortMeasured(Measured measured) {
+        return new EquationCalculator(SHORT).equals();
+    }
+
+    @Benchmark
+    public BigDecimal evaluateCompiledShort() {
+        return this.compiledShort.evaluateDecimal();
+    }
+
+    @Benchmark
+    public double evaluateCompiledShortDouble() {
+        return this.compiledShort.evaluateDouble();
+    }
+
+    @Benchmark
+    public String equalsFlatSum() {
+        return new EquationCalculator(this.flatSum).equals();
+    }
+
+    @Benchmark
+    public BigDecimal evaluateCompiledFlatSum() {
+        return this.compiledFlatSum.evaluateDecimal();
+    }
+
+    @Benchmark
+    public String equalsNestedParentheses() {
+        return new EquationCalculator(this.nestedParentheses).equals();
+    }
+
+    @Benchmark
+    public BigDecimal evaluateCompiledNestedParentheses() {
+        return this.compiledNested.evaluateDecimal();
+    }
+
+    @Benchmark
+    public String equalsLargeExponent() {
+        return new EquationCalculator(LARGE_EXPONENT).equals();
+    }
+
+    @Benchmark
+    public String equalsLargeExponentDecimal64() {
+        return new EquationCalculator(LARGE_EXPONENT, null, EvaluationLimits.NONE, DECIMAL64).equals();
+    }
+
+    @Benchmark
+    public String equalsDivision() {
+        return new EquationCalculator(DIVISION).equals();
+    }
+
+    @Benchmark
+    public String equalsDivisionDecimal64() {
+        return new EquationCalculator(DIVISION, null, EvaluationLimits.NONE, DECIMAL64).equals();
+    }
+
+    @Benchmark
+    public String equalsScientificDecimal64() {
+        return new EquationCalculator(SCIENTIFIC, null, EvaluationLimits.NONE, DECIMAL64).equals();
+    }
+
+    @Benchmark
+    public String equalsScientific100Digits() {
+        return new EquationCalculator(SCIENTIFIC, null, EvaluationLimits.NONE, DIGITS_100).equals();
+    }
+
+    @Benchmark
+    public double[] evaluateColumnsFormula() {
+        this.compiledFormula.evaluateColumns(this.columns, this.out);
+        return this.out;
+    }
+
+    @Benchmark
+    public double evaluateRowsFormula() {
+        double last = 0;
+        for (int r = 0; r < ROWS; r++)
+            last = this.compiledFormula.evaluateDouble(this.columns[0][r], this.columns[1][r], this.columns[2][r]);
+        return last;
+    }
+
+    @Benchmark
+    public double evaluateClosureShort() {
+        return this.closureShort.evaluate();
+    }
+
+    @Benchmark
+    public double evaluateClosureRowsFormula() {
+        double last = 0;
+        for (int r = 0; r < ROWS; r++)
+            last = this.closureFormula.evaluate(this.columns[0][r], this.columns[1][r], this.columns[2][r]);
+        return last;
+    }
+
+    @Benchmark
+    public double evaluateRowsPolynomial() {
+        double sum = 0;
+        for (int r = 0; r < ROWS; r++)
+            sum += this.compiledPolynomial.evaluateDouble(this.columns[0][r], this.columns[1][r]);
+        return sum;
+    }
+
+    @Benchmark
+    public double evaluateClosureRowsPolynomial() {
+        double sum = 0;
+        for (int r = 0; r < ROWS; r++)
+            sum += this.closurePolynomial.evaluate(this.columns[0][r], this.columns[1][r]);
+        return sum;
+    }
+
+    @Benchmark
+    public double evaluateBytecodeShort() {
+        return this.bytecodeShort.evaluateDouble();
+    }
+
+    @Benchmark
+    public double evaluateBytecodeRowsPolynomial() {
+        double sum = 0;
+        for (int r = 0; r < ROWS; r++)
+            sum += this.bytecodePolynomial.evaluateDouble(this.columns[0][r], this.columns[1][r]);
+        return sum;
+    }
+
+    @Benchmark
+    public BigDecimal loadBytecodeFlatSum() throws IOException {
+        return BytecodeExpression.readFrom(new ByteArrayInputStream(this.serializedFlatSum)).evaluateDecimal();
+    }
+
+    @Benchmark
+    public BigDecimal evaluateHugeProducts() {
+        return this.compiledHugeProducts.evaluateDecimal();
+    }
+
+    @Benchmark
+    public BigDecimal evaluateParallelHugeProducts() {
+        return this.compiledHugeProducts.evaluateParallel(ForkJoinPool.commonPool());
+    }
+
+    @Benchmark
+    public BigDecimal evaluateCompiledRedundant() {
+        return this.compiledRedundant.evaluateDecimal(this.bindings);
+    }
+
+    @Benchmark
+    public BigDecimal evaluateOptimizedRedundant() {
+        return this.optimizedRedundant.evaluateDecimal(this.bindings);
+    }
+
+    /**
+     * Installs an EngineStatistics sink for the benchmarks that use it, to
+     * measure the cost of recording metrics.
+     */
+    @State(Scope.Benchmark)
+    public static class Measured {
+
+        @Setup
+        public void install() {
+            EquationCalculator.setMetrics(new EngineStatistics());
+        }
+
+        @TearDown
+        public void uninstall() {
+            EquationCalculator.setMetrics(EngineMetrics.NONE);
+        }
+    }
+}
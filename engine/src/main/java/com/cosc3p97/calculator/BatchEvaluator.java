@@ -0,0 +1,177 @@
+package com.cosc3p97.calculator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Evaluates many expressions in parallel. The input is split into chunks
+ * of consecutive expressions, several per worker thread so that a chunk of
+ * slow expressions does not leave the other threads idle, and each chunk
+ * writes its results straight into its own range of the output. Results
+ * come back in input order, and an expression that fails produces a failed
+ * {@link BatchResult} instead of stopping the batch.
+ * <p>
+ * Every expression can be evaluated within {@link EvaluationLimits}, so
+ * one hostile expression cannot hold its chunk for long. A batch whose
+ * caller is interrupted stops its chunks: each checks a shared flag before
+ * every expression, and the threads running one are interrupted, which the
+ * evaluation notices between steps. A {@link ForkJoinPool} does not
+ * interrupt a task when its future is cancelled, so the chunks record the
+ * thread they run on, and clear the interrupt before handing it back.
+ */
+public final class BatchEvaluator {
+
+    private static final int CHUNKS_PER_THREAD = 8; // Chunks queued per worker, for load balancing
+
+    private final ExecutorService executor; // Runs the chunks
+    private final int parallelism;          // Number of threads the executor runs at once
+
+    /**
+     * Constructor that evaluates on the common fork-join pool, which has
+     * one thread per available core.
+     */
+    public BatchEvaluator() {
+        this(ForkJoinPool.commonPool(), ForkJoinPool.commonPool().getParallelism());
+    }
+
+    /**
+     * Constructor that evaluates on the given executor. The executor is not
+     * shut down by this class.
+     *
+     * @param executor    The executor to run evaluations on.
+     * @param parallelism The number of threads the executor runs at once.
+     */
+    public BatchEvaluator(ExecutorService executor, int parallelism) {
+        if (parallelism <= 0)
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+
+        this.executor = executor;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Evaluates every expression of a stream.
+     *
+     * @param expressions The expressions to evaluate.
+     * @return One result per expression, in stream order.
+     * @throws InterruptedException If the calling thread is interrupted while waiting.
+     */
+    public List<BatchResult> evaluate(Stream<? extends CharSequence> expressions) throws InterruptedException {
+        return this.evaluate(expressions, EvaluationLimits.NONE);
+    }
+
+    /**
+     * Evaluates every expression of a stream, each within limits.
+     *
+     * @param expressions The expressions to evaluate.
+     * @param limits      The limits to evaluate each expression within.
+     * @return One result per expression, in stream order.
+     * @throws InterruptedException If the calling thread is interrupted while waiting.
+     */
+    public List<BatchResult> evaluate(Stream<? extends CharSequence> expressions, EvaluationLimits limits)
+            throws InterruptedException {
+        return this.evaluate(expressions.collect(Collectors.<CharSequence>toList()), limits);
+    }
+
+    /**
+     * Evaluates every expression of a list.
+     *
+     * @param expressions The expressions to evaluate.
+     * @return One result per expression, in list order.
+     * @throws InterruptedException If the calling thread is interrupted while waiting.
+     */
+    public List<BatchResult> evaluate(List<? extends CharSequence> expressions) throws InterruptedException {
+        return this.evaluate(expressions, EvaluationLimits.NONE);
+    }
+
+    /**
+     * Evaluates every expression of a list, each within limits. An
+     * expression that exceeds them produces a failed result holding the
+     * {@link EvaluationLimitException}.
+     *
+     * @param expressions The expressions to evaluate.
+     * @param limits      The limits to evaluate each expression within.
+     * @return One result per expression, in list order.
+     * @throws InterruptedException If the calling thread is interrupted while waiting.
+     */
+    public List<BatchResult> evaluate(List<? extends CharSequence> expressions, final EvaluationLimits limits)
+            throws InterruptedException {
+        final CharSequence[] inputs = expressions.toArray(new CharSequence[0]); // Constant-time access
+        final BatchResult[] results = new BatchResult[inputs.length];
+        int chunkCount = Math.min(results.length, this.parallelism * CHUNKS_PER_THREAD);
+        List<Future<?>> chunks = new ArrayList<>(chunkCount);
+        final Thread[] runners = new Thread[chunkCount]; // Thread running each chunk, guarded by runners
+        final AtomicBoolean stopped = new AtomicBoolean();
+
+        try {
+            for (int chunk = 0; chunk < chunkCount; chunk++) {
+                // Spread the remainder so chunk sizes differ by at most one
+                final int index = chunk;
+                final int from = (int) ((long) results.length * chunk / chunkCount);
+                final int to = (int) ((long) results.length * (chunk + 1) / chunkCount);
+
+                chunks.add(this.executor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (runners) {
+                            if (stopped.get())
+                                return;
+                            runners[index] = Thread.currentThread();
+                        }
+                        try {
+                            for (int i = from; i < to && !stopped.get(); i++)
+                                results[i] = evaluateOne(inputs[i], limits);
+                        } finally {
+                            synchronized (runners) {
+                                runners[index] = null;
+                                if (stopped.get())
+                                    Thread.interrupted(); // The interrupt was for this chunk, not the thread's next task
+                            }
+                        }
+                    }
+                }));
+            }
+
+            for (Future<?> chunk : chunks)
+                chunk.get();
+        } catch (InterruptedException e) {
+            // Stop the remaining work before giving up
+            synchronized (runners) {
+                stopped.set(true);
+                for (Thread runner : runners)
+                    if (runner != null)
+                        runner.interrupt();
+            }
+            for (Future<?> chunk : chunks)
+                chunk.cancel(false);
+            throw e;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Batch evaluation failed", e.getCause());
+        }
+
+        return Arrays.asList(results);
+    }
+
+    /**
+     * Evaluates a single expression, capturing any failure in the result.
+     *
+     * @param expression The expression to evaluate.
+     * @param limits     The limits to evaluate it within.
+     * @return The result of the expression.
+     */
+    static BatchResult evaluateOne(CharSequence expression, EvaluationLimits limits) {
+        try {
+            return BatchResult.success(EquationCalculator.compile(expression, limits).evaluateDecimal());
+        } catch (RuntimeException e) {
+            return BatchResult.failure(e);
+        }
+    }
+}
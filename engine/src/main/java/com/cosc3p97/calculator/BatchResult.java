@@ -0,0 +1,60 @@
+package com.cosc3p97.calculator;
+
+import java.math.BigDecimal;
+
+/**
+ * The outcome of evaluating one expression of a batch: either its exact
+ * result or the exception that stopped it.
+ */
+public final class BatchResult {
+
+    private final BigDecimal value;       // The result, null if evaluation failed
+    private final RuntimeException error; // Why evaluation failed, null on success
+
+    private BatchResult(BigDecimal value, RuntimeException error) {
+        this.value = value;
+        this.error = error;
+    }
+
+    /**
+     * @param value The result of a successful evaluation.
+     * @return A successful result.
+     */
+    static BatchResult success(BigDecimal value) {
+        return new BatchResult(value, null);
+    }
+
+    /**
+     * @param error The exception that stopped the evaluation.
+     * @return A failed result.
+     */
+    static BatchResult failure(RuntimeException error) {
+        return new BatchResult(null, error);
+    }
+
+    /**
+     * @return true if the expression was evaluated successfully.
+     */
+    public boolean isSuccess() {
+        return this.error == null;
+    }
+
+    /**
+     * @return The exact result, or null if evaluation failed.
+     */
+    public BigDecimal getValue() {
+        return this.value;
+    }
+
+    /**
+     * @return The exception that stopped evaluation, or null on success.
+     */
+    public RuntimeException getError() {
+        return this.error;
+    }
+
+    @Override
+    public String toString() {
+        return this.isSuccess() ? CompiledExpression.format(this.value) : "Error: " + this.error.getMessage();
+    }
+}
@@ -0,0 +1,555 @@
+package com.cosc3p97.calculator;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Scientific functions and constants on BigDecimal values, to any number
+ * of significant digits. Every function works with a few guard digits and
+ * rounds once at the end, so results are within one unit of the last digit.
+ * <p>
+ * The cost of a series grows with the number of terms it needs, so every
+ * argument is first reduced to a small one: {@code exp} splits off the
+ * integer part and halves the rest before summing, then squares the sum
+ * back; {@code ln} divides out powers of ten and two and takes square roots
+ * before summing; {@code sin} and {@code cos} subtract multiples of
+ * {@code pi/2} and halve the rest. The series then converge in a few terms
+ * per guard digit, and the cost grows slowly with the precision.
+ * <p>
+ * The constants pi, e, ln 2 and ln 10 are expensive, so each is computed
+ * once for every precision asked for and cached. The caches are safe to
+ * share between threads; two threads asking for a new precision at once
+ * may both compute it.
+ * <p>
+ * Every function has a form that takes {@link EvaluationLimits} and a
+ * deadline. Every loop checks the deadline and interruption of the current
+ * thread on each step, and a sine or cosine whose argument reduction needs
+ * more digits than the limit allows is rejected before any is computed.
+ */
+final class BigDecimalMath {
+
+    private static final int GUARD_DIGITS = 10;         // Extra digits every computation works with
+    private static final int MAX_CACHED_PRECISIONS = 64; // Precisions kept per constant before starting over
+    private static final long MAX_EXP_ARGUMENT = 1000000000L; // Largest exp argument whose result has a scale
+
+    private static final BigDecimal TWO = BigDecimal.valueOf(2);
+    private static final BigDecimal HALF = new BigDecimal("0.5");
+    private static final BigDecimal ONE_AND_A_HALF = new BigDecimal("1.5");
+    private static final BigDecimal NEAR_ONE = new BigDecimal("0.01"); // Distance from 1 where ln needs no roots
+
+    // Each constant to as many digits as were asked for, plus the guard digits
+    private static final ConcurrentHashMap<Integer, BigDecimal> PI = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Integer, BigDecimal> E = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Integer, BigDecimal> LN2 = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Integer, BigDecimal> LN10 = new ConcurrentHashMap<>();
+
+    private BigDecimalMath() {
+    }
+
+    /**
+     * @param context The digits to keep and how to round.
+     * @return The ratio of a circle's circumference to its diameter.
+     */
+    static BigDecimal pi(MathContext context) {
+        return pi(context, EvaluationLimits.NONE, 0);
+    }
+
+    /**
+     * @param context  The digits to keep and how to round.
+     * @param limits   The limits to compute within.
+     * @param deadline The time the computation must finish by.
+     * @return The ratio of a circle's circumference to its diameter.
+     * @throws EvaluationLimitException If the deadline passes.
+     */
+    static BigDecimal pi(MathContext context, EvaluationLimits limits, long deadline) {
+        BigDecimal pi = PI.get(context.getPrecision());
+        if (pi == null) {
+            MathContext working = widen(context, 0);
+            // Machin's formula: pi = 16 atan(1/5) - 4 atan(1/239)
+            pi = cache(PI, context, atanOfInverse(5, working, limits, deadline).multiply(BigDecimal.valueOf(16))
+                    .subtract(atanOfInverse(239, working, limits, deadline).multiply(BigDecimal.valueOf(4)), working));
+        }
+        return pi.round(context);
+    }
+
+    /**
+     * @param context The digits to keep and how to round.
+     * @return The base of the natural logarithm.
+     */
+    static BigDecimal e(MathContext context) {
+        return e(context, EvaluationLimits.NONE, 0);
+    }
+
+    /**
+     * @param context  The digits to keep and how to round.
+     * @param limits   The limits to compute within.
+     * @param deadline The time the computation must finish by.
+     * @return The base of the natural logarithm.
+     * @throws EvaluationLimitException If the deadline passes.
+     */
+    static BigDecimal e(MathContext context, EvaluationLimits limits, long deadline) {
+        BigDecimal e = E.get(context.getPrecision());
+        if (e == null)
+            e = cache(E, context, expSeries(BigDecimal.ONE, widen(context, 0), limits, deadline));
+        return e.round(context);
+    }
+
+    /**
+     * @param context The digits to keep and how to round.
+     * @return The natural logarithm of 2.
+     */
+    static BigDecimal ln2(MathContext context) {
+        return ln2(context, EvaluationLimits.NONE, 0);
+    }
+
+    /**
+     * @return The natural logarithm of 2, computed within limits.
+     */
+    private static BigDecimal ln2(MathContext context, EvaluationLimits limits, long deadline) {
+        BigDecimal ln2 = LN2.get(context.getPrecision());
+        if (ln2 == null) {
+            MathContext working = widen(context, 0);
+            ln2 = cache(LN2, context, atanhOfInverse(3, working, limits, deadline).multiply(TWO, working)); // 2 atanh(1/3)
+        }
+        return ln2.round(context);
+    }
+
+    /**
+     * @param context The digits to keep and how to round.
+     * @return The natural logarithm of 10.
+     */
+    static BigDecimal ln10(MathContext context) {
+        return ln10(context, EvaluationLimits.NONE, 0);
+    }
+
+    /**
+     * @return The natural logarithm of 10, computed within limits.
+     */
+    private static BigDecimal ln10(MathContext context, EvaluationLimits limits, long deadline) {
+        BigDecimal ln10 = LN10.get(context.getPrecision());
+        if (ln10 == null) {
+            MathContext working = widen(context, 0);
+            // ln 10 = 3 ln 2 + ln 1.25, and ln 1.25 = 2 atanh(1/9)
+            ln10 = cache(LN10, context, ln2(working, limits, deadline).multiply(BigDecimal.valueOf(3))
+                    .add(atanhOfInverse(9, working, limits, deadline).multiply(TWO), working));
+        }
+        return ln10.round(context);
+    }
+
+    /**
+     * Stores a newly computed constant, unless another thread stored it first.
+     *
+     * @param cache   The cache of the constant, by precision.
+     * @param context The precision the constant was computed for.
+     * @param value   The constant, with guard digits.
+     * @return The cached constant.
+     */
+    private static BigDecimal cache(ConcurrentHashMap<Integer, BigDecimal> cache, MathContext context,
+                                    BigDecimal value) {
+        if (cache.size() >= MAX_CACHED_PRECISIONS)
+            cache.clear(); // Precisions asked for once should not accumulate forever
+
+        BigDecimal cached = cache.putIfAbsent(context.getPrecision(), value);
+        return cached != null ? cached : value;
+    }
+
+    /**
+     * @param value   The value, at least zero.
+     * @param context The digits to keep and how to round.
+     * @return The square root of the value.
+     * @throws ArithmeticException If the value is negative.
+     */
+    static BigDecimal sqrt(BigDecimal value, MathContext context) {
+        return sqrt(value, context, EvaluationLimits.NONE, 0);
+    }
+
+    /**
+     * @param value    The value, at least zero.
+     * @param context  The digits to keep and how to round.
+     * @param limits   The limits to compute within.
+     * @param deadline The time the computation must finish by.
+     * @return The square root of the value.
+     * @throws ArithmeticException      If the value is negative.
+     * @throws EvaluationLimitException If the deadline passes.
+     */
+    static BigDecimal sqrt(BigDecimal value, MathContext context, EvaluationLimits limits, long deadline) {
+        if (value.signum() < 0)
+            throw new ArithmeticException("Square root of a negative number");
+        if (value.signum() == 0)
+            return BigDecimal.ZERO;
+
+        // value = m * 10^(2k) with m from 1 to 100, which a double holds exactly enough to start from
+        int k = (value.precision() - value.scale() - 1) >> 1;
+        BigDecimal m = value.movePointLeft(2 * k);
+        BigDecimal root = new BigDecimal(Math.sqrt(m.doubleValue()));
+
+        // Each Newton step doubles the correct digits, so the precision doubles with it
+        int target = context.getPrecision() + GUARD_DIGITS;
+        int digits = 16;
+        boolean last = false;
+        while (!last) {
+            check(limits, deadline);
+            last = digits >= target;
+            digits = Math.min(2 * digits, target);
+            MathContext working = new MathContext(digits, RoundingMode.HALF_EVEN);
+            root = root.add(m.divide(root, working)).divide(TWO, working);
+        }
+
+        BigDecimal result = root.movePointRight(k).round(context);
+        if (result.multiply(result).compareTo(value) == 0)
+            return exact(result); // A perfect square has no trailing zeros to show
+        return result;
+    }
+
+    /**
+     * @return An exact result without trailing zeros, and not in exponent form.
+     */
+    private static BigDecimal exact(BigDecimal value) {
+        BigDecimal stripped = value.stripTrailingZeros();
+        return stripped.scale() < 0 ? stripped.setScale(0) : stripped;
+    }
+
+    /**
+     * @param value   The exponent.
+     * @param context The digits to keep and how to round.
+     * @return e raised to the value.
+     * @throws ArithmeticException If the result is too large or small for a BigDecimal.
+     */
+    static BigDecimal exp(BigDecimal value, MathContext context) {
+        return exp(value, context, EvaluationLimits.NONE, 0);
+    }
+
+    /**
+     * @param value    The exponent.
+     * @param context  The digits to keep and how to round.
+     * @param limits   The limits to compute within.
+     * @param deadline The time the computation must finish by.
+     * @return e raised to the value.
+     * @throws ArithmeticException      If the result is too large or small for a BigDecimal.
+     * @throws EvaluationLimitException If the deadline passes.
+     */
+    static BigDecimal exp(BigDecimal value, MathContext context, EvaluationLimits limits, long deadline) {
+        if (value.signum() == 0)
+            return BigDecimal.ONE;
+        if (value.abs().compareTo(BigDecimal.valueOf(MAX_EXP_ARGUMENT)) > 0)
+            throw new ArithmeticException(value.signum() > 0 ? "Overflow" : "Underflow");
+        if (value.signum() < 0)
+            return BigDecimal.ONE.divide(exp(value.negate(), widen(context, 2), limits, deadline), context);
+
+        // e^x = e^n * e^f with n the integer part, and e^f from the series on f/2^k squared k times
+        int n = value.intValue();
+        BigDecimal fraction = value.subtract(BigDecimal.valueOf(n));
+        int k = halvings(context);
+        MathContext working = widen(context, Integer.toString(n).length() + k / 3 + 1);
+
+        BigDecimal result = BigDecimal.ONE;
+        if (fraction.signum() != 0) {
+            result = expSeries(fraction.divide(TWO.pow(k), working), working, limits, deadline);
+            for (int i = 0; i < k; i++) {
+                check(limits, deadline);
+                result = result.multiply(result, working);
+            }
+        }
+        if (n > 0)
+            result = result.multiply(e(working, limits, deadline).pow(n, working), working);
+        return result.round(context);
+    }
+
+    /**
+     * @param value   The value, greater than zero.
+     * @param context The digits to keep and how to round.
+     * @return The natural logarithm of the value.
+     * @throws ArithmeticException If the value is not positive.
+     */
+    static BigDecimal ln(BigDecimal value, MathContext context) {
+        return ln(value, context, EvaluationLimits.NONE, 0);
+    }
+
+    /**
+     * @param value    The value, greater than zero.
+     * @param context  The digits to keep and how to round.
+     * @param limits   The limits to compute within.
+     * @param deadline The time the computation must finish by.
+     * @return The natural logarithm of the value.
+     * @throws ArithmeticException      If the value is not positive.
+     * @throws EvaluationLimitException If the deadline passes.
+     */
+    static BigDecimal ln(BigDecimal value, MathContext context, EvaluationLimits limits, long deadline) {
+        if (value.signum() <= 0)
+            throw new ArithmeticException("Logarithm of a non-positive number");
+        if (value.compareTo(BigDecimal.ONE) == 0)
+            return BigDecimal.ZERO;
+
+        // Near 1 the result is small, so nothing is divided out that would cancel
+        long tens = 0;
+        int twos = 0;
+        BigDecimal m = value;
+        if (value.compareTo(HALF) < 0 || value.compareTo(TWO) > 0) {
+            // value = m * 2^twos * 10^tens with m from 0.75 to 1.5
+            tens = value.precision() - (long) value.scale() - 1;
+            m = value.movePointLeft((int) tens);
+            while (m.compareTo(ONE_AND_A_HALF) > 0) {
+                check(limits, deadline);
+                m = m.divide(TWO); // Exact
+                twos++;
+            }
+        }
+
+        // ln m = 2^k ln(m^(1/2^k)), and ln y = 2 atanh((y-1)/(y+1)) converges fast for y near 1
+        int k = m.subtract(BigDecimal.ONE).abs().compareTo(NEAR_ONE) < 0 ? 0 : halvings(context);
+        MathContext working = widen(context, k / 3 + Long.toString(tens).length() + 1);
+        BigDecimal y = m;
+        for (int i = 0; i < k; i++)
+            y = sqrt(y, working, limits, deadline);
+        BigDecimal z = y.subtract(BigDecimal.ONE).divide(y.add(BigDecimal.ONE), working);
+        BigDecimal result = atanh(z, working, limits, deadline).multiply(TWO.pow(k + 1), working);
+
+        if (twos != 0)
+            result = result.add(ln2(working, limits, deadline).multiply(BigDecimal.valueOf(twos)), working);
+        if (tens != 0)
+            result = result.add(ln10(working, limits, deadline).multiply(BigDecimal.valueOf(tens)), working);
+        return result.round(context);
+    }
+
+    /**
+     * @param value   The angle in radians.
+     * @param context The digits to keep and how to round.
+     * @return The sine of the angle.
+     */
+    static BigDecimal sin(BigDecimal value, MathContext context) {
+        return sin(value, context, EvaluationLimits.NONE, 0);
+    }
+
+    /**
+     * @param value    The angle in radians.
+     * @param context  The digits to keep and how to round.
+     * @param limits   The limits to compute within.
+     * @param deadline The time the computation must finish by.
+     * @return The sine of the angle.
+     * @throws EvaluationLimitException If reducing the angle needs too many
+     *                                  digits, or the deadline passes.
+     */
+    static BigDecimal sin(BigDecimal value, MathContext context, EvaluationLimits limits, long deadline) {
+        return trigonometric(value, context, true, limits, deadline);
+    }
+
+    /**
+     * @param value   The angle in radians.
+     * @param context The digits to keep and how to round.
+     * @return The cosine of the angle.
+     */
+    static BigDecimal cos(BigDecimal value, MathContext context) {
+        return cos(value, context, EvaluationLimits.NONE, 0);
+    }
+
+    /**
+     * @param value    The angle in radians.
+     * @param context  The digits to keep and how to round.
+     * @param limits   The limits to compute within.
+     * @param deadline The time the computation must finish by.
+     * @return The cosine of the angle.
+     * @throws EvaluationLimitException If reducing the angle needs too many
+     *                                  digits, or the deadline passes.
+     */
+    static BigDecimal cos(BigDecimal value, MathContext context, EvaluationLimits limits, long deadline) {
+        return trigonometric(value, context, false, limits, deadline);
+    }
+
+    /**
+     * Computes a sine or cosine. The angle is reduced to r = x - q pi/2 with
+     * |r| at most pi/4, and sin r and cos r come from the series on
+     * r/2^k, doubled k times. The quadrant q picks which of them, and the
+     * sign, is the result.
+     * <p>
+     * Reducing the angle takes pi to as many digits as the angle has
+     * integer digits, and more when the angle is close to a multiple of
+     * pi/2, so the working precision is checked against the digit limit
+     * before pi is computed to it.
+     *
+     * @param value    The angle in radians.
+     * @param context  The digits to keep and how to round.
+     * @param sine     True for the sine, false for the cosine.
+     * @param limits   The limits to compute within.
+     * @param deadline The time the computation must finish by.
+     * @return The sine or cosine of the angle.
+     * @throws EvaluationLimitException If reducing the angle needs too many
+     *                                  digits, or the deadline passes.
+     */
+    private static BigDecimal trigonometric(BigDecimal value, MathContext context, boolean sine,
+                                            EvaluationLimits limits, long deadline) {
+        if (value.signum() == 0)
+            return sine ? BigDecimal.ZERO : BigDecimal.ONE;
+
+        int k = halvings(context);
+        int integerDigits = (int) Math.min(Math.max(0, value.precision() - (long) value.scale()), Integer.MAX_VALUE / 4);
+        limits.checkDigits(integerDigits + context.getPrecision()); // The digits of pi the reduction needs at least
+        int extra = integerDigits + k / 3 + 1;
+        int mostExtra = integerDigits + 2 * context.getPrecision() + 2 * GUARD_DIGITS;
+        BigDecimal reduced;
+        int quadrant;
+        while (true) {
+            // Reducing near a multiple of pi/2 cancels digits, so pi is made longer until enough remain
+            MathContext working = widen(context, extra);
+            limits.checkDigits(working.getPrecision());
+            BigDecimal halfPi = pi(working, limits, deadline).divide(TWO, working);
+            BigInteger q = value.divide(halfPi, new MathContext(integerDigits + 3, RoundingMode.HALF_EVEN))
+                    .setScale(0, RoundingMode.HALF_EVEN).toBigIntegerExact();
+            reduced = value.subtract(halfPi.multiply(new BigDecimal(q)), working);
+            quadrant = q.intValue() & 3;
+
+            int cancelled = reduced.signum() == 0 ? mostExtra : Math.max(0, reduced.scale() - reduced.precision());
+            int needed = integerDigits + k / 3 + 1 + cancelled;
+            if (extra >= needed || extra >= mostExtra)
+                break;
+            extra = Math.min(needed, mostExtra);
+        }
+
+        MathContext working = widen(context, k / 3 + 1);
+        BigDecimal half = reduced.divide(TWO.pow(k), working);
+        BigDecimal square = half.multiply(half, working);
+        BigDecimal s = half;
+        BigDecimal c = BigDecimal.ONE;
+        BigDecimal sineTerm = half;
+        BigDecimal cosineTerm = BigDecimal.ONE;
+        for (int j = 1; ; j++) {
+            check(limits, deadline);
+            sineTerm = sineTerm.multiply(square).divide(BigDecimal.valueOf((2L * j) * (2L * j + 1)), working).negate();
+            cosineTerm = cosineTerm.multiply(square).divide(BigDecimal.valueOf((2L * j - 1) * (2L * j)), working).negate();
+            s = s.add(sineTerm, working);
+            c = c.add(cosineTerm, working);
+            if (negligible(sineTerm, s, working) && negligible(cosineTerm, c, working))
+                break;
+        }
+        for (int i = 0; i < k; i++) {
+            check(limits, deadline);
+            BigDecimal doubled = s.multiply(c).multiply(TWO, working);
+            c = BigDecimal.ONE.subtract(s.multiply(s).multiply(TWO), working);
+            s = doubled;
+        }
+
+        BigDecimal result;
+        switch (quadrant) {
+            case 0:
+                result = sine ? s : c;
+                break;
+            case 1:
+                result = sine ? c : s.negate();
+                break;
+            case 2:
+                result = sine ? s.negate() : c.negate();
+                break;
+            default:
+                result = sine ? c.negate() : s;
+        }
+        return result.round(context);
+    }
+
+    /**
+     * Sums the series of e^x, for small x.
+     */
+    private static BigDecimal expSeries(BigDecimal value, MathContext working, EvaluationLimits limits, long deadline) {
+        BigDecimal sum = BigDecimal.ONE;
+        BigDecimal term = BigDecimal.ONE;
+        for (int j = 1; ; j++) {
+            check(limits, deadline);
+            term = term.multiply(value).divide(BigDecimal.valueOf(j), working);
+            sum = sum.add(term, working);
+            if (negligible(term, sum, working))
+                return sum;
+        }
+    }
+
+    /**
+     * Sums the series of atanh(z) = z + z^3/3 + z^5/5 + ..., for small z.
+     */
+    private static BigDecimal atanh(BigDecimal value, MathContext working, EvaluationLimits limits, long deadline) {
+        BigDecimal square = value.multiply(value, working);
+        BigDecimal power = value;
+        BigDecimal sum = value;
+        for (long j = 3; ; j += 2) {
+            check(limits, deadline);
+            power = power.multiply(square, working);
+            BigDecimal term = power.divide(BigDecimal.valueOf(j), working);
+            sum = sum.add(term, working);
+            if (negligible(term, sum, working))
+                return sum;
+        }
+    }
+
+    /**
+     * @return atanh(1/n), summed with exact divisions by n^2.
+     */
+    private static BigDecimal atanhOfInverse(int n, MathContext working, EvaluationLimits limits, long deadline) {
+        return inverseSeries(n, working, false, limits, deadline);
+    }
+
+    /**
+     * @return atan(1/n), summed with exact divisions by n^2.
+     */
+    private static BigDecimal atanOfInverse(int n, MathContext working, EvaluationLimits limits, long deadline) {
+        return inverseSeries(n, working, true, limits, deadline);
+    }
+
+    /**
+     * Sums 1/n - 1/(3n^3) + 1/(5n^5) - ..., with alternating signs for atan
+     * and all positive for atanh.
+     */
+    private static BigDecimal inverseSeries(int n, MathContext working, boolean alternate,
+                                            EvaluationLimits limits, long deadline) {
+        BigDecimal squared = BigDecimal.valueOf((long) n * n);
+        BigDecimal power = BigDecimal.ONE.divide(BigDecimal.valueOf(n), working);
+        BigDecimal sum = power;
+        for (long j = 3; ; j += 2) {
+            check(limits, deadline);
+            power = power.divide(squared, working);
+            BigDecimal term = power.divide(BigDecimal.valueOf(j), working);
+            sum = alternate && (j & 2) != 0 ? sum.subtract(term, working) : sum.add(term, working);
+            if (negligible(term, sum, working))
+                return sum;
+        }
+    }
+
+    /**
+     * Stops a computation that was interrupted or has run out of time.
+     *
+     * @throws java.util.concurrent.CancellationException If the current thread was interrupted.
+     * @throws EvaluationLimitException                   If the deadline has passed.
+     */
+    private static void check(EvaluationLimits limits, long deadline) {
+        CompiledExpression.checkInterrupted();
+        limits.checkTime(deadline);
+    }
+
+    /**
+     * @return true if adding the term can no longer change the sum at the
+     * working precision.
+     */
+    private static boolean negligible(BigDecimal term, BigDecimal sum, MathContext working) {
+        if (term.signum() == 0)
+            return true;
+        if (sum.signum() == 0)
+            return false;
+        // Compare the positions of the leading digits
+        long termExponent = term.precision() - (long) term.scale();
+        long sumExponent = sum.precision() - (long) sum.scale();
+        return sumExponent - termExponent > working.getPrecision();
+    }
+
+    /**
+     * @return The number of times to halve an argument before summing a
+     * series, which grows with the square root of the precision.
+     */
+    private static int halvings(MathContext context) {
+        return (int) Math.sqrt(context.getPrecision()) + 1;
+    }
+
+    /**
+     * @return A context with the guard digits and the given extra digits.
+     */
+    private static MathContext widen(MathContext context, int extra) {
+        return new MathContext(context.getPrecision() + GUARD_DIGITS + extra, RoundingMode.HALF_EVEN);
+    }
+}
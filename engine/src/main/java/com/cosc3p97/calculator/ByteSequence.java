@@ -0,0 +1,71 @@
+package com.cosc3p97.calculator;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A reusable view of a range of ASCII bytes in a buffer as a CharSequence,
+ * so the lexer can read expressions straight from a mapped file without
+ * decoding them into Strings. Moving the view to another range with
+ * {@link #reset(ByteBuffer, int, int)} allocates nothing.
+ */
+final class ByteSequence implements CharSequence {
+
+    private ByteBuffer buffer; // Buffer holding the bytes
+    private int start;         // Index of the first byte in the buffer
+    private int length;        // Number of bytes in the view
+
+    /**
+     * Points the view at a range of a buffer.
+     *
+     * @param buffer The buffer holding the bytes.
+     * @param start  The index of the first byte.
+     * @param end    The index after the last byte.
+     * @return This view.
+     */
+    ByteSequence reset(ByteBuffer buffer, int start, int end) {
+        this.buffer = buffer;
+        this.start = start;
+        this.length = end - start;
+        return this;
+    }
+
+    @Override
+    public int length() {
+        return this.length;
+    }
+
+    @Override
+    public char charAt(int index) {
+        if (index < 0 || index >= this.length)
+            throw new IndexOutOfBoundsException("index " + index + ", length " + this.length);
+
+        return (char) (this.buffer.get(this.start + index) & 0xFF);
+    }
+
+    /**
+     * Decodes only the bytes of the range, so slicing a name out of a long
+     * line costs the length of the name, not of the line.
+     */
+    @Override
+    public CharSequence subSequence(int start, int end) {
+        if (start < 0 || end > this.length || start > end)
+            throw new IndexOutOfBoundsException("start " + start + ", end " + end + ", length " + this.length);
+
+        return this.decode(start, end);
+    }
+
+    @Override
+    public String toString() {
+        return this.decode(0, this.length);
+    }
+
+    /**
+     * @return The bytes from start to end of the view as a String.
+     */
+    private String decode(int start, int end) {
+        char[] chars = new char[end - start];
+        for (int i = 0; i < chars.length; i++)
+            chars[i] = (char) (this.buffer.get(this.start + start + i) & 0xFF);
+        return new String(chars);
+    }
+}
@@ -0,0 +1,641 @@
+package com.cosc3p97.calculator;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A compiled expression turned into a flat stack-machine program, made with
+ * {@link CompiledExpression#toBytecode()}. The program is a single
+ * {@code int[]} of opcodes, some followed by one operand, plus a pool of
+ * number constants: {@code a*b+2.5} becomes
+ * {@code VAR a, VAR b, MULTIPLY, CONST 2.5, ADD}, with the variables and
+ * constant stored as indices. Evaluation is one loop over
+ * the array with an operand stack, so it needs no recursion however deep
+ * the expression, and touches no per-node objects.
+ * <p>
+ * A subexpression used more than once is computed once: the first time,
+ * {@code STORE} copies the value on top of the stack to a register, and
+ * every later use is a {@code LOAD} of that register.
+ * <p>
+ * A program can be written with {@link #writeTo(OutputStream)} and read
+ * back with {@link #readFrom(InputStream)} without lexing or parsing, so a
+ * library of formulas can be compiled once and shipped. The format is:
+ * <ul>
+ * <li>the magic bytes {@code CALC} and a version byte;</li>
+ * <li>the number of variables, then each name as modified UTF-8;</li>
+ * <li>the number of constants, then each constant as a zig-zag varint
+ * scale, a varint length, the two's-complement bytes of its unscaled value
+ * and a flag byte, followed, when the flag is set, by the constant's double
+ * value, for constants folded with double arithmetic that differs from the
+ * exact value;</li>
+ * <li>the length of the code, then each opcode and operand as a varint.</li>
+ * </ul>
+ * Programs can be written back to back in one stream. A program read back
+ * is verified before use: opcodes, operands, registers and the stack depth
+ * are all checked, so a corrupt stream is rejected rather than evaluated.
+ * <p>
+ * Double results are identical to
+ * {@link CompiledExpression#evaluateDouble(double...)}. Exact results are
+ * identical to {@link CompiledExpression#evaluateDecimal(BigDecimal...)}
+ * with no limits and exact precision; {@link #toCompiledExpression()}
+ * rebuilds a compiled expression, again without parsing, for limits, a
+ * precision policy or the other backends.
+ * <p>
+ * Instances are immutable and can be evaluated from any number of threads.
+ */
+public final class BytecodeExpression {
+
+    static final int CONST = 0;    // Pushes the constant whose pool index follows
+    static final int VAR = 1;      // Pushes the variable whose index follows
+    static final int LOAD = 2;     // Pushes the register whose index follows
+    static final int STORE = 3;    // Copies the top of the stack to the register whose index follows
+    static final int PI = 4;       // Pushes pi
+    static final int E = 5;        // Pushes e
+    static final int ADD = 6;      // Replaces the top two values by their sum
+    static final int SUBTRACT = 7; // Replaces the top two values by their difference
+    static final int MULTIPLY = 8; // Replaces the top two values by their product
+    static final int DIVIDE = 9;   // Replaces the top two values by their quotient
+    static final int POWER = 10;   // Replaces the top two values by the first raised to the second
+    static final int NEGATE = 11;  // Negates the top value
+    static final int SQRT = 12;    // Replaces the top value by its square root
+    static final int LN = 13;      // Replaces the top value by its natural logarithm
+    static final int EXP = 14;     // Replaces the top value by e raised to it
+    static final int SIN = 15;     // Replaces the top value by its sine
+    static final int COS = 16;     // Replaces the top value by its cosine
+
+    private static final byte[] MAGIC = {'C', 'A', 'L', 'C'};
+    private static final int VERSION = 1;
+    private static final int MAX_COUNT = 1 << 24; // Largest count read, so a corrupt one cannot exhaust memory
+
+    private static final double[] NO_DOUBLES = new double[0];
+    private static final BigDecimal[] NO_DECIMALS = new BigDecimal[0];
+
+    private static final String[] MNEMONICS = {"CONST", "VAR", "LOAD", "STORE", "PI", "E", "ADD", "SUBTRACT",
+            "MULTIPLY", "DIVIDE", "POWER", "NEGATE", "SQRT", "LN", "EXP", "SIN", "COS"};
+
+    // The engine operator of each opcode from ADD on, in opcode order
+    private static final char[] OPERATORS = {'+', '-', '*', '/', '^', ExpressionNode.NEGATE,
+            MathFunctions.SQRT, MathFunctions.LN, MathFunctions.EXP, MathFunctions.SIN, MathFunctions.COS};
+
+    private final int[] code;               // Opcodes, each followed by its operand if it has one
+    private final BigDecimal[] constants;   // Exact value of each pool constant
+    private final double[] doubleConstants; // Double value of each pool constant
+    private final String[] variables;       // Distinct variable names, in order of appearance
+    private final int maxStack;             // Deepest the operand stack gets
+    private final int registerCount;        // Number of registers the program stores to
+
+    /**
+     * Constructor that verifies a program.
+     *
+     * @param code            The opcodes and operands.
+     * @param constants       The exact value of each pool constant.
+     * @param doubleConstants The double value of each pool constant.
+     * @param variables       The variable names.
+     * @throws IllegalArgumentException If the program is not valid.
+     */
+    private BytecodeExpression(int[] code, BigDecimal[] constants, double[] doubleConstants, String[] variables) {
+        this.code = code;
+        this.constants = constants;
+        this.doubleConstants = doubleConstants;
+        this.variables = variables;
+
+        // Run the program on stack depths alone: every operand must be in
+        // range, every register stored before it is loaded, variables first
+        // read in the order they are listed, and the stack must never
+        // underflow and end with exactly the result
+        int depth = 0;
+        int deepest = 0;
+        int registers = 0;
+        int seen = 0; // Variables read so far
+        int pc = 0;
+        while (pc < code.length) {
+            int opcode = code[pc++];
+            if (opcode < 0 || opcode > COS)
+                throw new IllegalArgumentException("Unknown opcode " + opcode + " at " + (pc - 1));
+            if (opcode <= STORE) {
+                if (pc == code.length)
+                    throw new IllegalArgumentException("Missing operand at " + pc);
+                int operand = code[pc++];
+                int bound = opcode == CONST ? constants.length : opcode == VAR ? variables.length
+                        : opcode == LOAD ? registers : registers + 1;
+                if (operand < 0 || operand >= bound)
+                    throw new IllegalArgumentException("Operand " + operand + " out of range at " + (pc - 1));
+                if (opcode == VAR && operand > seen)
+                    throw new IllegalArgumentException("Variable " + operand + " read before variable " + seen);
+                if (opcode == VAR && operand == seen)
+                    seen++;
+                if (opcode == STORE) {
+                    if (depth == 0)
+                        throw new IllegalArgumentException("Stack underflow at " + (pc - 2));
+                    registers = Math.max(registers, operand + 1);
+                    continue;
+                }
+                depth++;
+            } else if (opcode <= E) {
+                depth++;
+            } else if (opcode <= POWER) {
+                depth--;
+            }
+            if (depth <= 0)
+                throw new IllegalArgumentException("Stack underflow at " + (pc - 1));
+            deepest = Math.max(deepest, depth);
+        }
+        if (depth != 1)
+            throw new IllegalArgumentException("Program leaves " + depth + " values on the stack");
+        if (seen != variables.length)
+            throw new IllegalArgumentException("Variable " + seen + " is never read");
+
+        this.maxStack = deepest;
+        this.registerCount = registers;
+    }
+
+    /**
+     * Assembles the program of a compiled expression. The expression's
+     * operand graph is walked depth first, left operand first, with an
+     * explicit stack, emitting each node after its operands.
+     *
+     * @param program    The nodes of the program, operands first.
+     * @param leftSlots  The program index of each node's left operand, or
+     *                   the variable index of a variable node.
+     * @param rightSlots The program index of each node's right operand.
+     * @param variables  The variable names.
+     * @return The bytecode expression.
+     */
+    static BytecodeExpression assemble(ExpressionNode[] program, int[] leftSlots, int[] rightSlots,
+                                       String[] variables) {
+        int length = program.length;
+        int[] uses = new int[length]; // Number of nodes reading each slot
+        for (int i = 0; i < length; i++) {
+            if (program[i].isLeaf())
+                continue;
+            uses[leftSlots[i]]++;
+            if (!program[i].isUnary())
+                uses[rightSlots[i]]++;
+        }
+
+        int[] registers = new int[length]; // Register holding each shared slot, -1 until computed
+        Arrays.fill(registers, -1);
+        int registerCount = 0;
+        List<BigDecimal> constants = new ArrayList<>();
+        List<Double> doubleConstants = new ArrayList<>();
+        Map<BigDecimal, Integer> pool = new HashMap<>(); // Pool index of each literal, scale included
+
+        int[] code = new int[2 * length];
+        int size = 0;
+        int[] stack = new int[2 * length + 1]; // Slots to visit; ~slot once its operands are emitted
+        int top = 0;
+        stack[top++] = length - 1;
+        while (top > 0) {
+            int entry = stack[--top];
+            if (code.length - size < 3)
+                code = Arrays.copyOf(code, code.length * 2); // Loads of shared slots add to the length
+            if (entry < 0) {
+                int slot = ~entry;
+                code[size++] = opcode(program[slot].operator);
+                if (uses[slot] > 1) {
+                    registers[slot] = registerCount++;
+                    code[size++] = STORE;
+                    code[size++] = registers[slot];
+                }
+                continue;
+            }
+
+            ExpressionNode node = program[entry];
+            if (node.isNumber()) {
+                boolean plain = isPlain(node.value, node.doubleValue);
+                Integer index = plain ? pool.get(node.value) : null;
+                if (index == null) {
+                    index = constants.size();
+                    constants.add(node.value);
+                    doubleConstants.add(node.doubleValue);
+                    if (plain)
+                        pool.put(node.value, index);
+                }
+                code[size++] = CONST;
+                code[size++] = index;
+            } else if (node.isVariable()) {
+                code[size++] = VAR;
+                code[size++] = leftSlots[entry];
+            } else if (node.isConstant()) {
+                code[size++] = MathFunctions.PI.equals(node.name) ? PI : E;
+            } else if (registers[entry] >= 0) {
+                code[size++] = LOAD; // Computed through another path
+                code[size++] = registers[entry];
+            } else {
+                // Emit the left operand, then the right, then the node
+                stack[top++] = ~entry;
+                if (!node.isUnary())
+                    stack[top++] = rightSlots[entry];
+                stack[top++] = leftSlots[entry];
+            }
+        }
+
+        double[] doubles = new double[doubleConstants.size()];
+        for (int i = 0; i < doubles.length; i++)
+            doubles[i] = doubleConstants.get(i);
+        return new BytecodeExpression(Arrays.copyOf(code, size), constants.toArray(new BigDecimal[0]),
+                doubles, variables);
+    }
+
+    /**
+     * @param value       The exact value of a constant.
+     * @param doubleValue The double value of the constant.
+     * @return true if the double value is the exact value converted, down
+     * to the sign of zero, as it is for every literal that was not folded.
+     */
+    private static boolean isPlain(BigDecimal value, double doubleValue) {
+        return Double.doubleToLongBits(doubleValue) == Double.doubleToLongBits(value.doubleValue());
+    }
+
+    /**
+     * @param operator The operator character of a node.
+     * @return The opcode applying the operator.
+     */
+    private static int opcode(char operator) {
+        for (int i = 0; i < OPERATORS.length; i++) {
+            if (OPERATORS[i] == operator)
+                return ADD + i;
+        }
+        throw new IllegalStateException("Unknown operator: " + operator);
+    }
+
+    /**
+     * @return The names of the variables, in the order their values are passed.
+     */
+    public List<String> variables() {
+        return Collections.unmodifiableList(Arrays.asList(this.variables));
+    }
+
+    /**
+     * Evaluates the program with double arithmetic.
+     *
+     * @param variables The value of each variable, in the order of {@link #variables()}.
+     * @return The evaluated result of the expression.
+     * @throws IllegalArgumentException If the number of values does not match.
+     */
+    public double evaluateDouble(double... variables) {
+        this.checkBindings(variables.length);
+
+        EngineMetrics metrics = EquationCalculator.metrics;
+        if (metrics == EngineMetrics.NONE)
+            return this.run(variables, new double[this.maxStack], this.doubleRegisters());
+
+        long start = System.nanoTime();
+        double result = this.run(variables, new double[this.maxStack], this.doubleRegisters());
+        metrics.recordPhase(EngineMetrics.Phase.EVALUATE, System.nanoTime() - start);
+        return result;
+    }
+
+    /**
+     * @return Registers for one double evaluation, shared when there are none.
+     */
+    private double[] doubleRegisters() {
+        return this.registerCount == 0 ? NO_DOUBLES : new double[this.registerCount];
+    }
+
+    /**
+     * @return Registers for one exact evaluation, shared when there are none.
+     */
+    private BigDecimal[] decimalRegisters() {
+        return this.registerCount == 0 ? NO_DECIMALS : new BigDecimal[this.registerCount];
+    }
+
+    /**
+     * Runs the program with double arithmetic.
+     *
+     * @param variables The value of each variable.
+     * @param stack     The operand stack, with room for {@link #maxStack} values.
+     * @param registers The registers.
+     * @return The value left on the stack.
+     */
+    private double run(double[] variables, double[] stack, double[] registers) {
+        int[] code = this.code;
+        int top = -1; // Index of the top of the stack
+        int pc = 0;
+        while (pc < code.length) {
+            switch (code[pc++]) {
+                case CONST:
+                    stack[++top] = this.doubleConstants[code[pc++]];
+                    break;
+                case VAR:
+                    stack[++top] = variables[code[pc++]];
+                    break;
+                case LOAD:
+                    stack[++top] = registers[code[pc++]];
+                    break;
+                case STORE:
+                    registers[code[pc++]] = stack[top];
+                    break;
+                case PI:
+                    stack[++top] = Math.PI;
+                    break;
+                case E:
+                    stack[++top] = Math.E;
+                    break;
+                case ADD:
+                    top--;
+                    stack[top] += stack[top + 1];
+                    break;
+                case SUBTRACT:
+                    top--;
+                    stack[top] -= stack[top + 1];
+                    break;
+                case MULTIPLY:
+                    top--;
+                    stack[top] *= stack[top + 1];
+                    break;
+                case DIVIDE:
+                    top--;
+                    stack[top] /= stack[top + 1];
+                    break;
+                case POWER:
+                    top--;
+                    stack[top] = Math.pow(stack[top], stack[top + 1]);
+                    break;
+                case NEGATE:
+                    stack[top] = -stack[top];
+                    break;
+                case SQRT:
+                    stack[top] = Math.sqrt(stack[top]);
+                    break;
+                case LN:
+                    stack[top] = Math.log(stack[top]);
+                    break;
+                case EXP:
+                    stack[top] = Math.exp(stack[top]);
+                    break;
+                case SIN:
+                    stack[top] = Math.sin(stack[top]);
+                    break;
+                case COS:
+                    stack[top] = Math.cos(stack[top]);
+                    break;
+                default:
+                    throw new IllegalStateException("Unknown opcode: " + code[pc - 1]);
+            }
+        }
+        return stack[0];
+    }
+
+    /**
+     * Evaluates the program exactly.
+     *
+     * @param variables The value of each variable, in the order of {@link #variables()}.
+     * @return The evaluated result of the expression.
+     * @throws ArithmeticException      If an operation has no exact result.
+     * @throws IllegalArgumentException If the number of values does not match.
+     * @see CompiledExpression#evaluateDecimal(BigDecimal...)
+     */
+    public BigDecimal evaluateDecimal(BigDecimal... variables) {
+        this.checkBindings(variables.length);
+
+        EngineMetrics metrics = EquationCalculator.metrics;
+        if (metrics == EngineMetrics.NONE)
+            return this.run(variables, new BigDecimal[this.maxStack], this.decimalRegisters());
+
+        long start = System.nanoTime();
+        try {
+            BigDecimal result = this.run(variables, new BigDecimal[this.maxStack], this.decimalRegisters());
+            metrics.recordPhase(EngineMetrics.Phase.EVALUATE, System.nanoTime() - start);
+            return result;
+        } catch (RuntimeException e) {
+            metrics.recordError(EngineMetrics.Phase.EVALUATE, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Runs the program with exact arithmetic.
+     *
+     * @param variables The value of each variable.
+     * @param stack     The operand stack, with room for {@link #maxStack} values.
+     * @param registers The registers.
+     * @return The value left on the stack.
+     */
+    private BigDecimal run(BigDecimal[] variables, BigDecimal[] stack, BigDecimal[] registers) {
+        int[] code = this.code;
+        int top = -1; // Index of the top of the stack
+        int pc = 0;
+        while (pc < code.length) {
+            int opcode = code[pc++];
+            switch (opcode) {
+                case CONST:
+                    stack[++top] = this.constants[code[pc++]];
+                    break;
+                case VAR:
+                    stack[++top] = variables[code[pc++]];
+                    break;
+                case LOAD:
+                    stack[++top] = registers[code[pc++]];
+                    break;
+                case STORE:
+                    registers[code[pc++]] = stack[top];
+                    break;
+                case PI:
+                    stack[++top] = PrecisionPolicy.EXACT.constant(MathFunctions.PI); // Throws: pi is not exact
+                    break;
+                case E:
+                    stack[++top] = PrecisionPolicy.EXACT.constant(MathFunctions.E);
+                    break;
+                case NEGATE:
+                    stack[top] = stack[top].negate();
+                    break;
+                default:
+                    CompiledExpression.checkInterrupted(); // Operations on BigDecimal values can be slow
+                    char operator = OPERATORS[opcode - ADD];
+                    if (opcode > NEGATE) {
+                        stack[top] = PrecisionPolicy.EXACT.function(operator, stack[top]);
+                    } else {
+                        top--;
+                        stack[top] = CompiledExpression.apply(operator, stack[top], stack[top + 1]);
+                    }
+            }
+        }
+        return stack[0];
+    }
+
+    /**
+     * Rebuilds a compiled expression from the program, without parsing,
+     * for the evaluation options only a compiled expression has: limits,
+     * a precision policy, columnar and closure evaluation.
+     *
+     * @return The compiled expression.
+     */
+    public CompiledExpression toCompiledExpression() {
+        ExpressionNode[] stack = new ExpressionNode[this.maxStack];
+        ExpressionNode[] registers = new ExpressionNode[this.registerCount];
+        ExpressionNode[] names = new ExpressionNode[this.variables.length]; // One node per variable
+        int top = -1;
+        int pc = 0;
+        while (pc < this.code.length) {
+            int opcode = this.code[pc++];
+            switch (opcode) {
+                case CONST:
+                    int index = this.code[pc++];
+                    BigDecimal value = this.constants[index];
+                    stack[++top] = isPlain(value, this.doubleConstants[index])
+                            ? ExpressionNode.number(value)
+                            : ExpressionNode.folded(value, this.doubleConstants[index]);
+                    break;
+                case VAR:
+                    int variable = this.code[pc++];
+                    if (names[variable] == null)
+                        names[variable] = ExpressionNode.variable(this.variables[variable]);
+                    stack[++top] = names[variable];
+                    break;
+                case LOAD:
+                    stack[++top] = registers[this.code[pc++]];
+                    break;
+                case STORE:
+                    registers[this.code[pc++]] = stack[top];
+                    break;
+                case PI:
+                    stack[++top] = ExpressionNode.constant(MathFunctions.PI);
+                    break;
+                case E:
+                    stack[++top] = ExpressionNode.constant(MathFunctions.E);
+                    break;
+                default:
+                    char operator = OPERATORS[opcode - ADD];
+                    if (opcode >= NEGATE) {
+                        stack[top] = ExpressionNode.unary(operator, stack[top]);
+                    } else {
+                        top--;
+                        stack[top] = ExpressionNode.binary(operator, stack[top], stack[top + 1]);
+                    }
+            }
+        }
+        return new CompiledExpression(stack[0]);
+    }
+
+    /**
+     * Writes the program in its binary format.
+     *
+     * @param out The stream to write to. It is not closed.
+     * @throws IOException If the stream cannot be written.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.write(MAGIC);
+        data.write(VERSION);
+
+        StreamingEvaluator.writeVarint(data, this.variables.length);
+        for (String variable : this.variables)
+            data.writeUTF(variable);
+
+        StreamingEvaluator.writeVarint(data, this.constants.length);
+        for (int i = 0; i < this.constants.length; i++) {
+            StreamingEvaluator.writeDecimal(data, this.constants[i]);
+            boolean folded = !isPlain(this.constants[i], this.doubleConstants[i]);
+            data.write(folded ? 1 : 0);
+            if (folded)
+                data.writeDouble(this.doubleConstants[i]);
+        }
+
+        StreamingEvaluator.writeVarint(data, this.code.length);
+        for (int word : this.code)
+            StreamingEvaluator.writeVarint(data, word);
+        data.flush();
+    }
+
+    /**
+     * Reads a program written by {@link #writeTo(OutputStream)}. Exactly
+     * the bytes of one program are read, so programs written back to back
+     * can be read one after another.
+     *
+     * @param in The stream to read from. It is not closed.
+     * @return The program, verified.
+     * @throws IOException If the stream cannot be read, ends early or does
+     *                     not hold a valid program.
+     */
+    public static BytecodeExpression readFrom(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        byte[] magic = new byte[MAGIC.length];
+        data.readFully(magic);
+        if (!Arrays.equals(magic, MAGIC))
+            throw new IOException("Not a compiled expression");
+        int version = data.readUnsignedByte();
+        if (version != VERSION)
+            throw new IOException("Unsupported compiled expression version " + version);
+
+        String[] variables = new String[readCount(data)];
+        for (int i = 0; i < variables.length; i++)
+            variables[i] = data.readUTF();
+
+        BigDecimal[] constants = new BigDecimal[readCount(data)];
+        double[] doubleConstants = new double[constants.length];
+        for (int i = 0; i < constants.length; i++) {
+            constants[i] = StreamingEvaluator.readDecimal(data);
+            doubleConstants[i] = data.readUnsignedByte() != 0 ? data.readDouble() : constants[i].doubleValue();
+        }
+
+        int[] code = new int[readCount(data)];
+        for (int i = 0; i < code.length; i++)
+            code[i] = StreamingEvaluator.readVarint(data);
+
+        try {
+            return new BytecodeExpression(code, constants, doubleConstants, variables);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid compiled expression: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Reads a count, rejecting negative or huge ones a corrupt stream might hold.
+     */
+    private static int readCount(DataInputStream in) throws IOException {
+        int count = StreamingEvaluator.readVarint(in);
+        if (count < 0 || count > MAX_COUNT)
+            throw new IOException("Invalid count " + count);
+        return count;
+    }
+
+    /**
+     * @return The number of ints in the code, opcodes and operands.
+     */
+    int codeLength() {
+        return this.code.length;
+    }
+
+    /**
+     * Lists the program's instructions, such as
+     * {@code VAR a, VAR b, MULTIPLY, CONST 2.5, ADD}.
+     */
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        int pc = 0;
+        while (pc < this.code.length) {
+            if (pc > 0)
+                text.append(", ");
+            int opcode = this.code[pc++];
+            text.append(MNEMONICS[opcode]);
+            if (opcode == CONST)
+                text.append(' ').append(this.constants[this.code[pc++]].toPlainString());
+            else if (opcode == VAR)
+                text.append(' ').append(this.variables[this.code[pc++]]);
+            else if (opcode <= STORE)
+                text.append(' ').append(this.code[pc++]);
+        }
+        return text.toString();
+    }
+
+    /**
+     * Checks that the number of values given matches the variables.
+     */
+    private void checkBindings(int count) {
+        if (count != this.variables.length)
+            throw new IllegalArgumentException("Expected values for " + this.variables.length
+                    + " variables " + Arrays.toString(this.variables) + " but got " + count);
+    }
+}
@@ -0,0 +1,483 @@
+package com.cosc3p97.calculator;
+
+import java.util.List;
+
+/**
+ * A compiled expression turned into a tree of small function objects for
+ * double evaluation, made with {@link CompiledExpression#toClosure()}.
+ * Instead of looking up the operator of every node on every evaluation, as
+ * {@link CompiledExpression#evaluateDouble(double...)} does, each node is an
+ * object of its own class that knows its operation: {@code a*b+c} becomes
+ * an addition object holding a multiplication object and a variable
+ * object. Operations with a constant operand get their own classes with the
+ * constant stored in a field, so {@code x*2.5} is one object. A formula
+ * evaluated in a hot loop can then be inlined by the JIT as a whole.
+ * <p>
+ * Results are identical to {@link CompiledExpression#evaluateDouble(double...)}:
+ * every node does the same double operation in the same order. A
+ * subexpression that appears more than once is evaluated each time it is
+ * used. Evaluating a node calls its operands, so an expression nested more
+ * than {@value #MAX_DEPTH} levels deep is evaluated by the interpreter
+ * instead, rather than risk overflowing the stack.
+ * <p>
+ * Instances are immutable and can be evaluated from any number of threads.
+ */
+public final class ClosureExpression {
+
+    static final int MAX_DEPTH = 1000; // Deepest tree evaluated by nested calls
+
+    private final CompiledExpression source; // The expression, for its variables and deep trees
+    private final Node root;                 // Root of the function objects, or null if too deep
+
+    /**
+     * Constructor that builds the function objects of a compiled program,
+     * operands first, so building needs no recursion.
+     *
+     * @param source     The compiled expression.
+     * @param program    The nodes of the program, operands first.
+     * @param leftSlots  The program index of each node's left operand, or
+     *                   the variable index of a variable node.
+     * @param rightSlots The program index of each node's right operand.
+     */
+    ClosureExpression(CompiledExpression source, ExpressionNode[] program, int[] leftSlots, int[] rightSlots) {
+        this.source = source;
+
+        Node[] nodes = new Node[program.length];
+        int[] depths = new int[program.length];
+        for (int i = 0; i < program.length; i++) {
+            ExpressionNode node = program[i];
+            if (node.isNumber() || node.isConstant()) {
+                nodes[i] = new Constant(node.doubleValue);
+            } else if (node.isVariable()) {
+                nodes[i] = new Variable(leftSlots[i]);
+            } else if (node.isFunction()) {
+                nodes[i] = function(node.operator, nodes[leftSlots[i]]);
+                depths[i] = depths[leftSlots[i]] + 1;
+            } else if (node.isUnary()) {
+                nodes[i] = nodes[leftSlots[i]] instanceof Constant
+                        ? new Constant(-((Constant) nodes[leftSlots[i]]).value)
+                        : new Negate(nodes[leftSlots[i]]);
+                depths[i] = depths[leftSlots[i]] + 1;
+            } else {
+                nodes[i] = binary(node.operator, nodes[leftSlots[i]], nodes[rightSlots[i]]);
+                depths[i] = Math.max(depths[leftSlots[i]], depths[rightSlots[i]]) + 1;
+            }
+        }
+
+        this.root = depths[program.length - 1] <= MAX_DEPTH ? nodes[program.length - 1] : null;
+    }
+
+    /**
+     * Chooses the function object for a function call.
+     *
+     * @param function The marker of the function.
+     * @param operand  The argument.
+     * @return The function object.
+     */
+    private static Node function(char function, Node operand) {
+        if (operand instanceof Constant) // The interpreter would compute the same value every time
+            return new Constant(MathFunctions.apply(function, ((Constant) operand).value));
+
+        switch (function) {
+            case MathFunctions.SQRT:
+                return new Sqrt(operand);
+            case MathFunctions.LN:
+                return new Ln(operand);
+            case MathFunctions.EXP:
+                return new Exp(operand);
+            case MathFunctions.SIN:
+                return new Sin(operand);
+            case MathFunctions.COS:
+                return new Cos(operand);
+            default:
+                throw new IllegalStateException("Unknown function: " + function);
+        }
+    }
+
+    /**
+     * Chooses the function object for a binary operation, specialized for a
+     * constant operand.
+     *
+     * @param operator The operator character.
+     * @param left     The left operand.
+     * @param right    The right operand.
+     * @return The function object.
+     */
+    private static Node binary(char operator, Node left, Node right) {
+        boolean leftConstant = left instanceof Constant;
+        boolean rightConstant = right instanceof Constant;
+
+        if (leftConstant && rightConstant) // The interpreter would compute the same value every time
+            return new Constant(CompiledExpression.apply(operator,
+                    ((Constant) left).value, ((Constant) right).value));
+
+        switch (operator) {
+            case '+':
+                // Addition and multiplication of doubles are commutative, so one
+                // class serves a constant on either side
+                if (rightConstant)
+                    return new AddConstant(left, ((Constant) right).value);
+                return leftConstant ? new AddConstant(right, ((Constant) left).value) : new Add(left, right);
+            case '-':
+                if (rightConstant)
+                    return new SubtractConstant(left, ((Constant) right).value);
+                return leftConstant ? new ConstantSubtract(((Constant) left).value, right) : new Subtract(left, right);
+            case '*':
+                if (rightConstant)
+                    return new MultiplyConstant(left, ((Constant) right).value);
+                return leftConstant ? new MultiplyConstant(right, ((Constant) left).value) : new Multiply(left, right);
+            case '/':
+                if (rightConstant)
+                    return new DivideConstant(left, ((Constant) right).value);
+                return leftConstant ? new ConstantDivide(((Constant) left).value, right) : new Divide(left, right);
+            case '^':
+                if (rightConstant)
+                    return new PowerConstant(left, ((Constant) right).value);
+                return leftConstant ? new ConstantPower(((Constant) left).value, right) : new Power(left, right);
+            default:
+                throw new IllegalStateException("Unknown operator: " + operator);
+        }
+    }
+
+    /**
+     * @return The names of the variables in the expression, in the order
+     * their values are given when evaluating.
+     */
+    public List<String> variables() {
+        return this.source.variables();
+    }
+
+    /**
+     * Evaluates the expression with double arithmetic.
+     *
+     * @param variables The value of each variable, in the order of {@link #variables()}.
+     * @return The evaluated result of the expression.
+     * @throws IllegalArgumentException If the number of values does not match.
+     */
+    public double evaluate(double... variables) {
+        if (this.root == null)
+            return this.source.evaluateDouble(variables);
+
+        this.source.checkBindings(variables.length);
+        return this.root.evaluate(variables);
+    }
+
+    /**
+     * @return true if the expression is evaluated through function objects,
+     * false if it is too deep and is interpreted.
+     */
+    boolean isCompiled() {
+        return this.root != null;
+    }
+
+    /**
+     * A function object computing one node of the expression.
+     */
+    private abstract static class Node {
+
+        /**
+         * @param variables The value of each variable.
+         * @return The value of the node.
+         */
+        abstract double evaluate(double[] variables);
+    }
+
+    private static final class Constant extends Node {
+        private final double value;
+
+        Constant(double value) {
+            this.value = value;
+        }
+
+        @Override
+        double evaluate(double[] variables) {
+            return this.value;
+        }
+    }
+
+    private static final class Variable extends Node {
+        private final int index;
+
+        Variable(int index) {
+            this.index = index;
+        }
+
+        @Override
+        double evaluate(double[] variables) {
+            return variables[this.index];
+        }
+    }
+
+    private static final class Negate extends Node {
+        private final Node operand;
+
+        Negate(Node operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        double evaluate(double[] variables) {
+            return -this.operand.evaluate(variables);
+        }
+    }
+
+    private static final class Add extends Node {
+        private final Node left;
+        private final Node right;
+
+        Add(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        double evaluate(double[] variables) {
+            return this.left.evaluate(variables) + this.right.evaluate(variables);
+        }
+    }
+
+    private static final class AddConstant extends Node {
+        private final Node operand;
+        private final double constant;
+
+        AddConstant(Node operand, double constant) {
+            this.operand = operand;
+            this.constant = constant;
+        }
+
+        @Override
+        double evaluate(double[] variables) {
+            return this.operand.evaluate(variables) + this.constant;
+        }
+    }
+
+    private static final class Subtract extends Node {
+        private final Node left;
+        private final Node right;
+
+        Subtract(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        double evaluate(double[] variables) {
+            return this.left.evaluate(variables) - this.right.evaluate(variables);
+        }
+    }
+
+    private static final class SubtractConstant extends Node {
+        private final Node operand;
+        private final double constant;
+
+        SubtractConstant(Node operand, double constant) {
+            this.operand = operand;
+            this.constant = constant;
+        }
+
+        @Override
+        double evaluate(double[] variables) {
+            return this.operand.evaluate(variables) - this.constant;
+        }
+    }
+
+    private static final class ConstantSubtract extends Node {
+        private final double constant;
+        private final Node operand;
+
+        ConstantSubtract(double constant, Node operand) {
+            this.constant = constant;
+            this.operand = operand;
+        }
+
+        @Override
+        double evaluate(double[] variables) {
+            return this.constant - this.operand.evaluate(variables);
+        }
+    }
+
+    private static final class Multiply extends Node {
+        private final Node left;
+        private final Node right;
+
+        Multiply(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        double evaluate(double[] variables) {
+            return this.left.evaluate(variables) * this.right.evaluate(variables);
+        }
+    }
+
+    private static final class MultiplyConstant extends Node {
+        private final Node operand;
+        private final double constant;
+
+        MultiplyConstant(Node operand, double constant) {
+            this.operand = operand;
+            this.constant = constant;
+        }
+
+        @Override
+        double evaluate(double[] variables) {
+            return this.operand.evaluate(variables) * this.constant;
+        }
+    }
+
+    private static final class Divide extends Node {
+        private final Node left;
+        private final Node right;
+
+        Divide(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        double evaluate(double[] variables) {
+            return this.left.evaluate(variables) / this.right.evaluate(variables);
+        }
+    }
+
+    private static final class DivideConstant extends Node {
+        private final Node operand;
+        private final double constant;
+
+        DivideConstant(Node operand, double constant) {
+            this.operand = operand;
+            this.constant = constant;
+        }
+
+        @Override
+        double evaluate(double[] variables) {
+            return this.operand.evaluate(variables) / this.constant;
+        }
+    }
+
+    private static final class ConstantDivide extends Node {
+        private final double constant;
+        private final Node operand;
+
+        ConstantDivide(double constant, Node operand) {
+            this.constant = constant;
+            this.operand = operand;
+        }
+
+        @Override
+        double evaluate(double[] variables) {
+            return this.constant / this.operand.evaluate(variables);
+        }
+    }
+
+    private static final class Power extends Node {
+        private final Node left;
+        private final Node right;
+
+        Power(Node left, Node right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        double evaluate(double[] variables) {
+            return Math.pow(this.left.evaluate(variables), this.right.evaluate(variables));
+        }
+    }
+
+    private static final class PowerConstant extends Node {
+        private final Node operand;
+        private final double exponent;
+
+        PowerConstant(Node operand, double exponent) {
+            this.operand = operand;
+            this.exponent = exponent;
+        }
+
+        @Override
+        double evaluate(double[] variables) {
+            return Math.pow(this.operand.evaluate(variables), this.exponent);
+        }
+    }
+
+    private static final class ConstantPower extends Node {
+        private final double base;
+        private final Node operand;
+
+        ConstantPower(double base, Node operand) {
+            this.base = base;
+            this.operand = operand;
+        }
+
+        @Override
+        double evaluate(double[] variables) {
+            return Math.pow(this.base, this.operand.evaluate(variables));
+        }
+    }
+
+    private static final class Sqrt extends Node {
+        private final Node operand;
+
+        Sqrt(Node operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        double evaluate(double[] variables) {
+            return Math.sqrt(this.operand.evaluate(variables));
+        }
+    }
+
+    private static final class Ln extends Node {
+        private final Node operand;
+
+        Ln(Node operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        double evaluate(double[] variables) {
+            return Math.log(this.operand.evaluate(variables));
+        }
+    }
+
+    private static final class Exp extends Node {
+        private final Node operand;
+
+        Exp(Node operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        double evaluate(double[] variables) {
+            return Math.exp(this.operand.evaluate(variables));
+        }
+    }
+
+    private static final class Sin extends Node {
+        private final Node operand;
+
+        Sin(Node operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        double evaluate(double[] variables) {
+            return Math.sin(this.operand.evaluate(variables));
+        }
+    }
+
+    private static final class Cos extends Node {
+        private final Node operand;
+
+        Cos(Node operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        double evaluate(double[] variables) {
+            return Math.cos(this.operand.evaluate(variables));
+        }
+    }
+}
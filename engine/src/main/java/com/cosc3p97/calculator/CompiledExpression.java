@@ -0,0 +1,1052 @@
+package com.cosc3p97.calculator;
+
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * A mathematical expression that has already been tokenized and parsed.
+ * The expression tree is flattened into a program in which every node
+ * comes after its operands, so evaluating it is a single loop over the
+ * program with no re-parsing. Identical subexpressions share one place in
+ * the program, so {@code (a+b)*(a+b)} computes {@code a+b} once per
+ * evaluation. Instances are immutable and can be
+ * evaluated any number of times, from any number of threads.
+ * <p>
+ * An expression may contain named variables. Their values are given in the
+ * order of {@link #variables()}, either one row at a time or as whole
+ * columns with {@link #evaluateColumns(double[][], double[])}, which
+ * evaluates the expression over every row in one call.
+ * <p>
+ * Exact evaluation checks whether its thread has been interrupted before
+ * every operation on BigDecimal values and between the steps of a large
+ * power, and stops with a {@link CancellationException} if it has, so work
+ * cancelled through a {@link java.util.concurrent.Future} ends promptly.
+ * The interrupt status is left set.
+ * <p>
+ * Exact evaluation can be bounded with {@link #withLimits(EvaluationLimits)}
+ * for input that cannot be trusted, and rounded with
+ * {@link #withPrecision(PrecisionPolicy)} instead of computed exactly. An
+ * expression that will be evaluated
+ * many times can first be simplified with {@link #optimize()}, and
+ * {@link #toString()} shows the expression as it will be evaluated.
+ */
+public final class CompiledExpression {
+
+    private static final BigDecimal[] NO_DECIMALS = new BigDecimal[0];
+    private static final double[] NO_DOUBLES = new double[0];
+    private static final int BLOCK_SIZE = 256; // Rows evaluated per step by evaluateColumns
+
+    private final ExpressionNode[] program; // Nodes ordered so operands come first
+    private final int[] leftSlots;          // Program index of each node's left operand,
+                                            // or the variable index of a variable node
+    private final int[] rightSlots;         // Program index of each node's right operand
+    private final String[] variables;       // Distinct variable names, in order of appearance
+    private final EvaluationLimits limits;  // Bounds checked by exact evaluation
+    private final PrecisionPolicy precision; // Rounding applied by exact evaluation
+    private final CompiledExpression unoptimized; // Expression this one was simplified from, or null
+
+    /**
+     * Constructor that flattens a parsed expression tree into a program.
+     *
+     * @param root The root node of the parsed expression.
+     */
+    CompiledExpression(ExpressionNode root) {
+        List<ExpressionNode> ordered = new ArrayList<>();
+        Map<ExpressionNode, Integer> slots = new IdentityHashMap<>();
+        flatten(root, ordered, slots);
+
+        this.program = ordered.toArray(new ExpressionNode[0]);
+        this.leftSlots = new int[this.program.length];
+        this.rightSlots = new int[this.program.length];
+        Map<String, Integer> names = new LinkedHashMap<>(); // Variable index of each name
+        for (int i = 0; i < this.program.length; i++) {
+            ExpressionNode node = this.program[i];
+            if (node.isVariable()) {
+                Integer index = names.get(node.name);
+                if (index == null) {
+                    index = names.size();
+                    names.put(node.name, index);
+                }
+                this.leftSlots[i] = index;
+            } else if (!node.isLeaf()) {
+                this.leftSlots[i] = slots.get(node.left);
+            }
+            if (node.right != null)
+                this.rightSlots[i] = slots.get(node.right);
+        }
+        this.variables = names.keySet().toArray(new String[0]);
+        this.limits = EvaluationLimits.NONE;
+        this.precision = PrecisionPolicy.EXACT;
+        this.unoptimized = null;
+    }
+
+    /**
+     * Constructor for a copy of a compiled expression with other limits or
+     * precision. The program is shared, not copied.
+     *
+     * @param source    The compiled expression to copy.
+     * @param limits    The limits for the copy.
+     * @param precision The precision for the copy.
+     */
+    private CompiledExpression(CompiledExpression source, EvaluationLimits limits, PrecisionPolicy precision) {
+        this(source, limits, precision, source.unoptimized);
+    }
+
+    /**
+     * Constructor for a copy of a compiled expression that remembers the
+     * expression it was simplified from.
+     *
+     * @param source      The compiled expression to copy.
+     * @param limits      The limits for the copy.
+     * @param precision   The precision for the copy.
+     * @param unoptimized The expression before simplifying, or null.
+     */
+    private CompiledExpression(CompiledExpression source, EvaluationLimits limits, PrecisionPolicy precision,
+                               CompiledExpression unoptimized) {
+        this.program = source.program;
+        this.leftSlots = source.leftSlots;
+        this.rightSlots = source.rightSlots;
+        this.variables = source.variables;
+        this.limits = limits;
+        this.precision = precision;
+        this.unoptimized = unoptimized;
+    }
+
+    /**
+     * Returns this expression bounded by the given limits. Exact evaluation
+     * of the result checks the digits of every value and the timeout, and
+     * rejects powers that are certain to be too long before computing them.
+     *
+     * @param limits The limits to evaluate within.
+     * @return A compiled expression sharing this one's program.
+     */
+    public CompiledExpression withLimits(EvaluationLimits limits) {
+        return limits == this.limits ? this : new CompiledExpression(this, limits, this.precision);
+    }
+
+    /**
+     * @return The limits exact evaluation is bounded by.
+     */
+    public EvaluationLimits limits() {
+        return this.limits;
+    }
+
+    /**
+     * Returns this expression evaluated under the given precision. Every
+     * number, variable and intermediate result of the exact evaluation of
+     * the result is rounded as the policy requires, so {@code 1/3} has a
+     * value and the digits of huge powers stay bounded. Rounded evaluation
+     * always works on BigDecimal values; double evaluation is unaffected.
+     * A simplified expression is simplified again from its original form,
+     * so its folded constants always match its precision.
+     *
+     * @param precision The precision to evaluate with.
+     * @return A compiled expression sharing this one's program.
+     */
+    public CompiledExpression withPrecision(PrecisionPolicy precision) {
+        if (precision.equals(this.precision))
+            return this;
+        if (this.unoptimized != null)
+            return this.unoptimized.withLimits(this.limits).withPrecision(precision).optimize();
+        return new CompiledExpression(this, this.limits, precision);
+    }
+
+    /**
+     * @return The precision exact evaluation rounds to.
+     */
+    public PrecisionPolicy precision() {
+        return this.precision;
+    }
+
+    /**
+     * Returns a simplified form of this expression, with constant
+     * subexpressions folded into literals and identity operations removed.
+     * The simplified form has the same variables, in the same order, and
+     * evaluates to the same results; see {@link ExpressionOptimizer} for the
+     * rules. Constants are only folded under exact evaluation, since a
+     * folded value would skip the rounding of each step; giving the result
+     * another precision simplifies this expression again for it.
+     *
+     * @return The simplified expression, with the same limits and precision.
+     */
+    public CompiledExpression optimize() {
+        ExpressionNode root = ExpressionOptimizer.optimize(this.program, this.leftSlots, this.rightSlots,
+                this.precision.isExact());
+        if (root == this.program[this.program.length - 1])
+            return this; // Nothing to simplify
+
+        return new CompiledExpression(new CompiledExpression(root), this.limits, this.precision, this);
+    }
+
+    /**
+     * Compiles the expression into a tree of function objects for fast
+     * double evaluation, as an alternative to
+     * {@link #evaluateDouble(double...)} for formulas evaluated in hot loops.
+     * The results are identical.
+     *
+     * @return The closure-compiled expression.
+     * @see ClosureExpression
+     */
+    public ClosureExpression toClosure() {
+        return new ClosureExpression(this, this.program, this.leftSlots, this.rightSlots);
+    }
+
+    /**
+     * Compiles the expression into a flat stack-machine program, which can
+     * be evaluated without per-node objects and written to a compact binary
+     * form that loads without parsing. The results are identical.
+     *
+     * @return The bytecode program.
+     * @see BytecodeExpression
+     */
+    public BytecodeExpression toBytecode() {
+        return BytecodeExpression.assemble(this.program, this.leftSlots, this.rightSlots, this.variables);
+    }
+
+    /**
+     * Writes the expression in infix form, with only the parentheses its
+     * order of operations needs. The text compiles back to an equivalent
+     * expression.
+     *
+     * @return The expression as text.
+     */
+    @Override
+    public String toString() {
+        StringBuilder text = new StringBuilder();
+        Deque<Object> pending = new ArrayDeque<>(); // Nodes still to write, and the text between them
+        pending.push(this.program[this.program.length - 1]);
+
+        while (!pending.isEmpty()) {
+            Object item = pending.pop();
+            if (!(item instanceof ExpressionNode)) {
+                text.append(item);
+                continue;
+            }
+
+            ExpressionNode node = (ExpressionNode) item;
+            if (node.isNumber()) {
+                text.append(node.value.toPlainString());
+            } else if (node.isVariable() || node.isConstant()) {
+                text.append(node.name);
+            } else if (node.isFunction()) {
+                text.append(MathFunctions.name(node.operator));
+                pushOperand(pending, node.left, true);
+            } else if (node.isUnary()) {
+                text.append('-');
+                pushOperand(pending, node.left, precedence(node.left) < precedence(node));
+            } else {
+                // Pushed in reverse, so the left operand is written first
+                int precedence = precedence(node);
+                pushOperand(pending, node.right, precedence(node.right) <= precedence || isNegative(node.right));
+                pending.push(node.operator);
+                pushOperand(pending, node.left, precedence(node.left) < precedence);
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * Queues an operand to be written, in parentheses if needed.
+     */
+    private static void pushOperand(Deque<Object> pending, ExpressionNode operand, boolean parenthesize) {
+        if (parenthesize) {
+            pending.push(")");
+            pending.push(operand);
+            pending.push("(");
+        } else {
+            pending.push(operand);
+        }
+    }
+
+    /**
+     * @return The precedence a node has when written, which for a negative
+     * literal is that of its leading minus.
+     */
+    private static int precedence(ExpressionNode node) {
+        if (node.isLeaf() || node.isFunction())
+            return isNegative(node) ? ExpressionParser.precedence(ExpressionNode.NEGATE) : Integer.MAX_VALUE;
+        return ExpressionParser.precedence(node.isUnary() ? ExpressionNode.NEGATE : node.operator);
+    }
+
+    /**
+     * @return true if the node is written with a leading minus.
+     */
+    private static boolean isNegative(ExpressionNode node) {
+        return node.operator == ExpressionNode.NEGATE || (node.isNumber() && node.value.signum() < 0);
+    }
+
+    /**
+     * @return The names of the variables in the expression, in the order
+     * their values are given when evaluating.
+     */
+    public List<String> variables() {
+        return Collections.unmodifiableList(Arrays.asList(this.variables));
+    }
+
+    /**
+     * Checks that the number of variable values given matches the expression.
+     *
+     * @param count The number of values given.
+     * @throws IllegalArgumentException If the count does not match.
+     */
+    void checkBindings(int count) {
+        if (count != this.variables.length)
+            throw new IllegalArgumentException("Expected values for " + this.variables.length
+                    + " variables " + Arrays.toString(this.variables) + " but got " + count);
+    }
+
+    /**
+     * @return The number of steps in the program, one per distinct
+     * subexpression.
+     */
+    int size() {
+        return this.program.length;
+    }
+
+    /**
+     * @return The root node of the expression tree.
+     */
+    ExpressionNode root() {
+        return this.program[this.program.length - 1];
+    }
+
+    /**
+     * Appends the nodes of a tree to the program in post-order, using an
+     * explicit stack so that very deep trees cannot overflow the call stack.
+     * A node that computes the same thing as one already in the program, the
+     * same operator on the same slots or the same literal or variable, is
+     * given that node's slot instead of a new one.
+     *
+     * @param root    The root of the tree to flatten.
+     * @param ordered The program being built.
+     * @param slots   The program index assigned to each node already added.
+     */
+    private static void flatten(ExpressionNode root, List<ExpressionNode> ordered,
+                                Map<ExpressionNode, Integer> slots) {
+        List<ExpressionNode> stack = new ArrayList<>();
+        Map<SlotKey, Integer> distinct = new HashMap<>(); // Slot of each distinct computation
+        stack.add(root);
+
+        while (!stack.isEmpty()) {
+            ExpressionNode node = stack.get(stack.size() - 1);
+
+            if (slots.containsKey(node)) {
+                stack.remove(stack.size() - 1); // Already placed through another path
+            } else if (node.isLeaf() || (slots.containsKey(node.left)
+                    && (node.right == null || slots.containsKey(node.right)))) {
+                stack.remove(stack.size() - 1);
+                // All operands placed, place the node unless its computation already is
+                SlotKey key = new SlotKey(node, slots);
+                Integer slot = distinct.get(key);
+                if (slot == null) {
+                    slot = ordered.size();
+                    distinct.put(key, slot);
+                    ordered.add(node);
+                }
+                slots.put(node, slot);
+            } else {
+                // Place the operands first, left operand on top so it comes first
+                if (node.right != null && !slots.containsKey(node.right))
+                    stack.add(node.right);
+                if (!slots.containsKey(node.left))
+                    stack.add(node.left);
+            }
+        }
+    }
+
+    /**
+     * Applies a binary operator to two operand values.
+     *
+     * @param operator The operator character.
+     * @param left     The left operand value.
+     * @param right    The right operand value.
+     * @return The result of the operation.
+     */
+    static BigDecimal apply(char operator, BigDecimal left, BigDecimal right) {
+        return apply(operator, left, right, EvaluationLimits.NONE, 0);
+    }
+
+    /**
+     * Applies a binary operator to two operand values within limits.
+     *
+     * @param operator The operator character.
+     * @param left     The left operand value.
+     * @param right    The right operand value.
+     * @param limits   The limits to evaluate within.
+     * @param deadline The time the evaluation must finish by.
+     * @return The result of the operation.
+     */
+    static BigDecimal apply(char operator, BigDecimal left, BigDecimal right,
+                            EvaluationLimits limits, long deadline) {
+        switch (operator) {
+            case '^':
+                return pow(left, right.intValueExact(), limits, deadline);
+            case '*':
+                return left.multiply(right);
+            case '/':
+                return left.divide(right);
+            case '+':
+                return left.add(right);
+            case '-':
+                return left.subtract(right);
+            default:
+                throw new IllegalStateException("Unknown operator: " + operator);
+        }
+    }
+
+    /**
+     * Raises a value to a power by repeated squaring, checking for
+     * interruption before every step. The result is identical to
+     * {@link BigDecimal#pow(int)}, scale included.
+     *
+     * @param base     The value to raise.
+     * @param exponent The power, from 0 to 999999999.
+     * @return The value raised to the power.
+     * @throws ArithmeticException   If the exponent is out of range.
+     * @throws CancellationException If the thread is interrupted.
+     */
+    static BigDecimal pow(BigDecimal base, int exponent) {
+        return pow(base, exponent, EvaluationLimits.NONE, 0);
+    }
+
+    /**
+     * Raises a value to a power within limits, checking the timeout as well
+     * as interruption before every step.
+     *
+     * @param base     The value to raise.
+     * @param exponent The power, from 0 to 999999999.
+     * @param limits   The limits to evaluate within.
+     * @param deadline The time the evaluation must finish by.
+     * @return The value raised to the power.
+     * @throws EvaluationLimitException If the result would be too long or time runs out.
+     */
+    private static BigDecimal pow(BigDecimal base, int exponent, EvaluationLimits limits, long deadline) {
+        if (exponent < 0 || exponent > FixedPoint.MAX_EXPONENT)
+            throw new ArithmeticException("Invalid operation"); // The range BigDecimal.pow accepts
+        limits.checkPower(base, exponent);
+
+        BigDecimal result = BigDecimal.ONE;
+        BigDecimal square = base;
+        while (true) {
+            checkInterrupted();
+            limits.checkTime(deadline);
+            if ((exponent & 1) != 0)
+                result = result.multiply(square);
+            exponent >>>= 1;
+            if (exponent == 0)
+                return result;
+            square = square.multiply(square);
+        }
+    }
+
+    /**
+     * Stops the evaluation if the current thread has been interrupted,
+     * leaving its interrupt status set.
+     *
+     * @throws CancellationException If the thread is interrupted.
+     */
+    static void checkInterrupted() {
+        if (Thread.currentThread().isInterrupted())
+            throw new CancellationException("Evaluation interrupted");
+    }
+
+    /**
+     * Applies a binary operator to two fixed-point operands, writing the
+     * result to the given slot. A power is bounded by the limits before it
+     * is computed, as it is with BigDecimal.
+     *
+     * @param operator The operator character.
+     * @param unscaled The unscaled value of each slot.
+     * @param scales   The scale of each slot.
+     * @param slot     The slot receiving the result.
+     * @param left     The slot of the left operand.
+     * @param right    The slot of the right operand.
+     * @param limits   The limits to evaluate within.
+     * @return false if the operation must be done with BigDecimal instead.
+     * @throws ArithmeticException      If the result does not fit in a long.
+     * @throws EvaluationLimitException If a power would have too many digits.
+     */
+    private static boolean applyFixedPoint(char operator, long[] unscaled, int[] scales,
+                                           int slot, int left, int right, EvaluationLimits limits) {
+        switch (operator) {
+            case '^': {
+                int exponent = FixedPoint.exponent(unscaled[right], scales[right]);
+                if (exponent < 0)
+                    return false; // Let BigDecimal report the invalid exponent
+                if (exponent == 0) {
+                    unscaled[slot] = 1; // BigDecimal.pow(0) is exactly ONE
+                    scales[slot] = 0;
+                    return true;
+                }
+                limits.checkPower(unscaled[left], scales[left], exponent);
+                scales[slot] = Math.multiplyExact(scales[left], exponent);
+                unscaled[slot] = FixedPoint.pow(unscaled[left], exponent);
+                return true;
+            }
+            case '*':
+                scales[slot] = Math.addExact(scales[left], scales[right]);
+                unscaled[slot] = Math.multiplyExact(unscaled[left], unscaled[right]);
+                return true;
+            case '+':
+            case '-': {
+                // Both operands are brought to the larger scale, as BigDecimal does
+                int scale = Math.max(scales[left], scales[right]);
+                long a = FixedPoint.rescale(unscaled[left], scale - scales[left]);
+                long b = FixedPoint.rescale(unscaled[right], scale - scales[right]);
+                unscaled[slot] = operator == '+' ? Math.addExact(a, b) : Math.subtractExact(a, b);
+                scales[slot] = scale;
+                return true;
+            }
+            default:
+                return false; // Division always goes through BigDecimal
+        }
+    }
+
+    /**
+     * Returns the value of a slot as a BigDecimal, converting it from its
+     * fixed-point form if it has not been promoted yet.
+     */
+    private static BigDecimal decimal(BigDecimal[] values, long[] unscaled, int[] scales, int slot) {
+        return values[slot] != null ? values[slot] : BigDecimal.valueOf(unscaled[slot], scales[slot]);
+    }
+
+    /**
+     * Evaluates the expression exactly. Values that fit in 18 digits are
+     * kept as a long unscaled value and an int scale, so the common case
+     * allocates no BigDecimal per operation. A value is promoted to
+     * BigDecimal when an operation overflows a long or divides, and stays
+     * a BigDecimal from then on. Results are identical, scale included,
+     * to doing every operation with BigDecimal. Under a rounding
+     * {@link #precision()} every value is a BigDecimal, rounded after every
+     * operation.
+     *
+     * @return The evaluated result of the expression.
+     * @throws ArithmeticException      If an operation has no exact result,
+     *                                  such as division by zero.
+     * @throws CancellationException    If the thread is interrupted.
+     * @throws EvaluationLimitException If the evaluation exceeds its limits.
+     * @throws IllegalArgumentException If the expression has variables.
+     */
+    public BigDecimal evaluateDecimal() {
+        return this.evaluateDecimal(NO_DECIMALS);
+    }
+
+    /**
+     * Evaluates the expression exactly with the given variable values.
+     *
+     * @param variables The value of each variable, in the order of {@link #variables()}.
+     * @return The evaluated result of the expression.
+     * @throws ArithmeticException      If an operation has no exact result.
+     * @throws CancellationException    If the thread is interrupted.
+     * @throws EvaluationLimitException If the evaluation exceeds its limits.
+     * @throws IllegalArgumentException If the number of values does not match.
+     * @see #evaluateDecimal()
+     */
+    public BigDecimal evaluateDecimal(BigDecimal... variables) {
+        this.checkBindings(variables.length);
+
+        int length = this.program.length;
+        EngineMetrics metrics = EquationCalculator.metrics;
+        if (metrics == EngineMetrics.NONE)
+            return this.evaluateDecimal(variables, new long[length], new int[length], new BigDecimal[length],
+                    this.limits.deadline());
+
+        long start = System.nanoTime();
+        try {
+            BigDecimal result = this.evaluateDecimal(variables, new long[length], new int[length],
+                    new BigDecimal[length], this.limits.deadline());
+            metrics.recordPhase(EngineMetrics.Phase.EVALUATE, System.nanoTime() - start);
+            return result;
+        } catch (RuntimeException e) {
+            metrics.recordError(EngineMetrics.Phase.EVALUATE, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Evaluates the expression exactly, running independent operations on
+     * huge numbers side by side on a fork-join pool. Only operations
+     * estimated to be expensive, from the digits of their operands and the
+     * size of exponents, become tasks; an expression with fewer than two of
+     * them is evaluated sequentially on the calling thread, so small
+     * expressions pay no task overhead, as is every expression under a
+     * rounding precision, whose operations are all small. Results are
+     * identical to {@link #evaluateDecimal(BigDecimal...)}.
+     *
+     * @param pool      The pool to run operations on.
+     * @param variables The value of each variable, in the order of {@link #variables()}.
+     * @return The evaluated result of the expression.
+     * @throws ArithmeticException      If an operation has no exact result.
+     * @throws CancellationException    If the calling thread is interrupted.
+     * @throws EvaluationLimitException If the evaluation exceeds its limits.
+     * @throws IllegalArgumentException If the number of values does not match.
+     * @see ParallelEvaluation
+     */
+    public BigDecimal evaluateParallel(ForkJoinPool pool, BigDecimal... variables) {
+        this.checkBindings(variables.length);
+
+        if (!this.precision.isExact())
+            return this.evaluateDecimal(variables);
+        ParallelEvaluation evaluation = this.parallel(variables);
+        if (!evaluation.isWorthForking())
+            return this.evaluateDecimal(variables);
+
+        return evaluation.run(pool);
+    }
+
+    /**
+     * Plans a parallel evaluation, estimating the cost of every operation.
+     *
+     * @param variables The value of each variable.
+     * @return The planned evaluation, not yet started.
+     */
+    ParallelEvaluation parallel(BigDecimal[] variables) {
+        return new ParallelEvaluation(this.program, this.leftSlots, this.rightSlots, variables, this.limits);
+    }
+
+    /**
+     * Evaluates the expression exactly using the given work arrays, which
+     * must have one element per program slot.
+     *
+     * @param variables The value of each variable.
+     * @param unscaled  Unscaled value of each fixed-point slot.
+     * @param scales    Scale of each fixed-point slot.
+     * @param values    Value of each promoted slot, null while a slot is fixed-point.
+     * @param deadline  The time the evaluation must finish by.
+     * @return The evaluated result of the expression.
+     */
+    private BigDecimal evaluateDecimal(BigDecimal[] variables, long[] unscaled, int[] scales,
+                                       BigDecimal[] values, long deadline) {
+        EvaluationLimits limits = this.limits;
+        PrecisionPolicy precision = this.precision;
+        boolean exact = precision.isExact(); // Rounded values skip the fixed-point fast path
+        int length = this.program.length;
+
+        for (int i = 0; i < length; i++) {
+            ExpressionNode node = this.program[i];
+            int left = this.leftSlots[i];
+            int right = this.rightSlots[i];
+            values[i] = null; // The work arrays may hold a previous evaluation
+
+            if (node.isNumber()) {
+                if (!exact) {
+                    values[i] = precision.round(node.value);
+                    limits.checkDigits(values[i]);
+                } else if (node.compact) {
+                    unscaled[i] = node.unscaled;
+                    scales[i] = node.scale;
+                    limits.checkDigits(unscaled[i], scales[i]);
+                } else {
+                    values[i] = node.value;
+                    limits.checkDigits(values[i]);
+                }
+                continue;
+            }
+            if (node.isVariable()) {
+                values[i] = exact ? variables[left] : precision.round(variables[left]);
+                limits.checkDigits(values[i]);
+                continue;
+            }
+            if (node.isConstant()) {
+                values[i] = precision.constant(node.name); // Never exact, so never fixed-point
+                limits.checkDigits(values[i]);
+                continue;
+            }
+
+            // Under a rounding precision every leaf is a BigDecimal, so no
+            // operation takes the fixed-point path
+            try {
+                if (node.isUnary()) {
+                    if (values[left] == null && node.operator == ExpressionNode.NEGATE) {
+                        unscaled[i] = Math.negateExact(unscaled[left]);
+                        scales[i] = scales[left];
+                        continue; // Negation never adds digits
+                    }
+                } else if (values[left] == null && values[right] == null
+                        && applyFixedPoint(node.operator, unscaled, scales, i, left, right, limits)) {
+                    limits.checkDigits(unscaled[i], scales[i]); // The scale can grow past any limit
+                    continue;
+                }
+            } catch (ArithmeticException overflow) {
+                // The result does not fit in a long; promote it below
+            }
+
+            checkInterrupted(); // Operations on BigDecimal values can be slow
+            limits.checkTime(deadline);
+            BigDecimal operand = decimal(values, unscaled, scales, left);
+            values[i] = node.operator == ExpressionNode.NEGATE ? operand.negate()
+                    : node.isFunction() ? precision.function(node.operator, operand, limits, deadline)
+                    : precision.apply(node.operator, operand, decimal(values, unscaled, scales, right),
+                    limits, deadline);
+            limits.checkDigits(values[i]);
+        }
+
+        return decimal(values, unscaled, scales, length - 1);
+    }
+
+    /**
+     * Evaluates the expression exactly for every row of a set of variable
+     * columns. The work arrays are allocated once and reused for every row.
+     *
+     * @param columns One column of values per variable, in the order of
+     *                {@link #variables()}, each at least as long as out.
+     * @param out     Receives the result of each row.
+     * @throws ArithmeticException      If an operation has no exact result.
+     * @throws CancellationException    If the thread is interrupted.
+     * @throws EvaluationLimitException If the evaluation exceeds its limits.
+     * @throws IllegalArgumentException If the columns do not match the expression.
+     */
+    public void evaluateColumns(BigDecimal[][] columns, BigDecimal[] out) {
+        this.checkBindings(columns.length);
+        for (BigDecimal[] column : columns)
+            checkColumn(column.length, out.length);
+
+        int length = this.program.length;
+        long[] unscaled = new long[length];
+        int[] scales = new int[length];
+        BigDecimal[] values = new BigDecimal[length];
+        BigDecimal[] row = new BigDecimal[columns.length];
+        long deadline = this.limits.deadline(); // The timeout covers the whole call
+
+        for (int r = 0; r < out.length; r++) {
+            for (int v = 0; v < columns.length; v++)
+                row[v] = columns[v][r];
+            out[r] = this.evaluateDecimal(row, unscaled, scales, values, deadline);
+        }
+    }
+
+    /**
+     * Evaluates the expression exactly for every row of a set of named
+     * variable columns.
+     *
+     * @param columns The column of values of each variable, by name.
+     * @param out     Receives the result of each row.
+     * @see #evaluateColumns(BigDecimal[][], BigDecimal[])
+     */
+    public void evaluateColumns(Map<String, BigDecimal[]> columns, BigDecimal[] out) {
+        BigDecimal[][] ordered = new BigDecimal[this.variables.length][];
+        for (int v = 0; v < ordered.length; v++)
+            ordered[v] = column(columns, this.variables[v]);
+        this.evaluateColumns(ordered, out);
+    }
+
+    /**
+     * Looks up the column of a variable.
+     *
+     * @throws IllegalArgumentException If there is no column for the variable.
+     */
+    private static <T> T column(Map<String, T> columns, String name) {
+        T column = columns.get(name);
+        if (column == null)
+            throw new IllegalArgumentException("No values for variable " + name);
+        return column;
+    }
+
+    private static void checkColumn(int length, int rows) {
+        if (length < rows)
+            throw new IllegalArgumentException("Column has " + length + " values but " + rows + " rows are needed");
+    }
+
+    /**
+     * Applies a binary operator to two double operand values.
+     *
+     * @param operator The operator character.
+     * @param left     The left operand value.
+     * @param right    The right operand value.
+     * @return The result of the operation.
+     */
+    static double apply(char operator, double left, double right) {
+        switch (operator) {
+            case '^':
+                return Math.pow(left, right);
+            case '*':
+                return left * right;
+            case '/':
+                return left / right;
+            case '+':
+                return left + right;
+            case '-':
+                return left - right;
+            default:
+                throw new IllegalStateException("Unknown operator: " + operator);
+        }
+    }
+
+    /**
+     * Evaluates the expression with double arithmetic instead of BigDecimal.
+     * This is much faster than {@link #evaluateDecimal()} but rounds every
+     * intermediate value to double precision, and follows IEEE rules for
+     * special cases: dividing by zero gives an infinity rather than an
+     * exception, and exponents need not be whole numbers.
+     *
+     * @return The evaluated result of the expression.
+     * @throws IllegalArgumentException If the expression has variables.
+     */
+    public double evaluateDouble() {
+        return this.evaluateDouble(NO_DOUBLES);
+    }
+
+    /**
+     * Evaluates the expression with double arithmetic and the given
+     * variable values.
+     *
+     * @param variables The value of each variable, in the order of {@link #variables()}.
+     * @return The evaluated result of the expression.
+     * @throws IllegalArgumentException If the number of values does not match.
+     * @see #evaluateDouble()
+     */
+    public double evaluateDouble(double... variables) {
+        this.checkBindings(variables.length);
+
+        EngineMetrics metrics = EquationCalculator.metrics;
+        if (metrics == EngineMetrics.NONE)
+            return this.evaluateDouble(variables, new double[this.program.length]);
+
+        long start = System.nanoTime();
+        double result = this.evaluateDouble(variables, new double[this.program.length]);
+        metrics.recordPhase(EngineMetrics.Phase.EVALUATE, System.nanoTime() - start);
+        return result;
+    }
+
+    /**
+     * Evaluates the expression with double arithmetic using the given work
+     * array, which must have one element per program slot.
+     *
+     * @param variables The value of each variable.
+     * @param values    Value of each slot.
+     * @return The evaluated result of the expression.
+     */
+    private double evaluateDouble(double[] variables, double[] values) {
+        for (int i = 0; i < this.program.length; i++) {
+            ExpressionNode node = this.program[i];
+            if (node.isNumber() || node.isConstant())
+                values[i] = node.doubleValue;
+            else if (node.isVariable())
+                values[i] = variables[this.leftSlots[i]];
+            else if (node.isFunction())
+                values[i] = MathFunctions.apply(node.operator, values[this.leftSlots[i]]);
+            else if (node.isUnary())
+                values[i] = -values[this.leftSlots[i]];
+            else
+                values[i] = apply(node.operator, values[this.leftSlots[i]], values[this.rightSlots[i]]);
+        }
+
+        return values[this.program.length - 1];
+    }
+
+    /**
+     * Evaluates the expression with double arithmetic for every row of a set
+     * of variable columns. Rows are processed a block at a time, one operator
+     * at a time: each operator runs as a plain loop over the block, reading
+     * its operands from the variable columns or from the block of an earlier
+     * operator, which the JIT compiles to vector instructions. Work buffers
+     * are allocated once per call, never per row.
+     *
+     * @param columns One column of values per variable, in the order of
+     *                {@link #variables()}, each at least as long as out.
+     * @param out     Receives the result of each row.
+     * @throws IllegalArgumentException If the columns do not match the expression.
+     */
+    public void evaluateColumns(double[][] columns, double[] out) {
+        this.checkBindings(columns.length);
+        for (double[] column : columns)
+            checkColumn(column.length, out.length);
+
+        int length = this.program.length;
+        int root = length - 1;
+        ExpressionNode rootNode = this.program[root];
+
+        // An expression without operators just copies its value
+        if (rootNode.isNumber() || rootNode.isConstant()) {
+            Arrays.fill(out, rootNode.doubleValue);
+            return;
+        }
+        if (rootNode.isVariable()) {
+            System.arraycopy(columns[this.leftSlots[root]], 0, out, 0, out.length);
+            return;
+        }
+
+        // Where each slot's block of values lives: a variable reads its column
+        // at the block's row offset, everything else has a block-sized buffer
+        double[][] blocks = new double[length][];
+        for (int i = 0; i < root; i++) {
+            ExpressionNode node = this.program[i];
+            if (node.isVariable()) {
+                blocks[i] = columns[this.leftSlots[i]];
+            } else {
+                blocks[i] = new double[BLOCK_SIZE];
+                if (node.isNumber() || node.isConstant())
+                    Arrays.fill(blocks[i], node.doubleValue); // Constants never change
+            }
+        }
+        blocks[root] = out;
+
+        for (int base = 0; base < out.length; base += BLOCK_SIZE) {
+            int count = Math.min(BLOCK_SIZE, out.length - base);
+
+            for (int i = 0; i < length; i++) {
+                ExpressionNode node = this.program[i];
+                if (node.isLeaf())
+                    continue;
+
+                int left = this.leftSlots[i];
+                int leftOffset = this.program[left].isVariable() ? base : 0;
+                int offset = i == root ? base : 0;
+
+                if (node.isFunction()) {
+                    function(node.operator, blocks[left], leftOffset, blocks[i], offset, count);
+                } else if (node.isUnary()) {
+                    negate(blocks[left], leftOffset, blocks[i], offset, count);
+                } else {
+                    int right = this.rightSlots[i];
+                    int rightOffset = this.program[right].isVariable() ? base : 0;
+                    apply(node.operator, blocks[left], leftOffset, blocks[right], rightOffset,
+                            blocks[i], offset, count);
+                }
+            }
+        }
+    }
+
+    /**
+     * Evaluates the expression with double arithmetic for every row of a set
+     * of named variable columns.
+     *
+     * @param columns The column of values of each variable, by name.
+     * @param out     Receives the result of each row.
+     * @see #evaluateColumns(double[][], double[])
+     */
+    public void evaluateColumns(Map<String, double[]> columns, double[] out) {
+        double[][] ordered = new double[this.variables.length][];
+        for (int v = 0; v < ordered.length; v++)
+            ordered[v] = column(columns, this.variables[v]);
+        this.evaluateColumns(ordered, out);
+    }
+
+    /**
+     * Negates a block of values.
+     */
+    private static void negate(double[] in, int inOffset, double[] out, int outOffset, int count) {
+        for (int k = 0; k < count; k++)
+            out[outOffset + k] = -in[inOffset + k];
+    }
+
+    /**
+     * Applies a function to a block of values.
+     */
+    private static void function(char function, double[] in, int inOffset, double[] out, int outOffset, int count) {
+        for (int k = 0; k < count; k++)
+            out[outOffset + k] = MathFunctions.apply(function, in[inOffset + k]);
+    }
+
+    /**
+     * Applies a binary operator to a block of values. The operator is chosen
+     * once per block so each loop body is a single arithmetic instruction.
+     */
+    private static void apply(char operator, double[] a, int aOffset, double[] b, int bOffset,
+                              double[] out, int outOffset, int count) {
+        switch (operator) {
+            case '^':
+                for (int k = 0; k < count; k++)
+                    out[outOffset + k] = Math.pow(a[aOffset + k], b[bOffset + k]);
+                break;
+            case '*':
+                for (int k = 0; k < count; k++)
+                    out[outOffset + k] = a[aOffset + k] * b[bOffset + k];
+                break;
+            case '/':
+                for (int k = 0; k < count; k++)
+                    out[outOffset + k] = a[aOffset + k] / b[bOffset + k];
+                break;
+            case '+':
+                for (int k = 0; k < count; k++)
+                    out[outOffset + k] = a[aOffset + k] + b[bOffset + k];
+                break;
+            case '-':
+                for (int k = 0; k < count; k++)
+                    out[outOffset + k] = a[aOffset + k] - b[bOffset + k];
+                break;
+            default:
+                throw new IllegalStateException("Unknown operator: " + operator);
+        }
+    }
+
+    /**
+     * Evaluates the expression and returns the result as a string.
+     *
+     * @return The evaluated result of the expression.
+     */
+    public String evaluate() {
+        return format(this.evaluateDecimal());
+    }
+
+    /**
+     * Converts a result to the text shown to the user.
+     *
+     * @param result The result of an evaluation.
+     * @return The result as a string.
+     */
+    static String format(BigDecimal result) {
+        String text = result.toString();
+
+        // If the result is too long, return it without trailing zeros
+        if (text.length() > 15)
+            return result.stripTrailingZeros().toString();
+
+        return text;
+    }
+
+    /**
+     * Identifies what a node computes: its operator and the slots of its
+     * operands, or the value of a literal or name of a constant or variable. Nodes with
+     * equal keys always evaluate to the same result.
+     */
+    private static final class SlotKey {
+
+        private final char operator; // Operator of the node
+        private final Object leaf;   // Value of a literal or name of a constant or variable, null otherwise
+        private final long bits;     // Double value of a literal, which folding can set apart
+        private final int left;      // Slot of the left operand, -1 for a leaf
+        private final int right;     // Slot of the right operand, -1 for a leaf or negation
+
+        SlotKey(ExpressionNode node, Map<ExpressionNode, Integer> slots) {
+            this.operator = node.operator;
+            this.leaf = node.isNumber() ? node.value : node.name;
+            this.bits = Double.doubleToLongBits(node.doubleValue);
+            this.left = node.left == null ? -1 : slots.get(node.left);
+            this.right = node.right == null ? -1 : slots.get(node.right);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof SlotKey))
+                return false;
+
+            SlotKey that = (SlotKey) other;
+            return this.operator == that.operator && this.bits == that.bits
+                    && this.left == that.left && this.right == that.right
+                    && (this.leaf == null ? that.leaf == null : this.leaf.equals(that.leaf));
+        }
+
+        @Override
+        public int hashCode() {
+            int hash = 31 * this.operator + (this.leaf == null ? 0 : this.leaf.hashCode());
+            hash = 31 * hash + (int) (this.bits ^ (this.bits >>> 32));
+            hash = 31 * (31 * hash + this.left) + this.right;
+            // Slots of similar nodes advance in equal steps, such as 3 per
+            // term of a sum, which leaves their low bits alike; multiplying
+            // spreads the difference into the high bits HashMap folds down
+            return hash * 0x9E3779B9;
+        }
+    }
+}
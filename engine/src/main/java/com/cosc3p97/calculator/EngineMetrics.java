@@ -0,0 +1,77 @@
+package com.cosc3p97.calculator;
+
+/**
+ * Receives measurements from the expression engine: how long each phase of
+ * handling an expression takes, how large expressions are, which errors
+ * they fail with, and how often cached results are found. A sink is
+ * installed for the whole engine with
+ * {@link EquationCalculator#setMetrics(EngineMetrics)}; until then the
+ * engine records to {@link #NONE} and does not even read the clock.
+ * <p>
+ * Methods are called on the threads doing the work, often many at once, so
+ * implementations must be thread-safe and should return quickly.
+ * {@link EngineStatistics} is a ready-made sink that keeps counts and
+ * histograms for export to a monitoring system.
+ */
+public interface EngineMetrics {
+
+    /**
+     * The phases an expression goes through.
+     */
+    enum Phase {
+        TOKENIZE, // Splitting the text into tokens
+        PARSE,    // Building and compiling the expression tree
+        EVALUATE  // Evaluating a compiled expression, exactly or with doubles
+    }
+
+    /**
+     * A sink that ignores every measurement.
+     */
+    EngineMetrics NONE = new EngineMetrics() {
+        @Override
+        public void recordPhase(Phase phase, long nanos) {
+        }
+
+        @Override
+        public void recordSize(int tokens) {
+        }
+
+        @Override
+        public void recordError(Phase phase, Throwable error) {
+        }
+
+        @Override
+        public void recordCacheLookup(boolean hit) {
+        }
+    };
+
+    /**
+     * Records a phase that completed.
+     *
+     * @param phase The phase.
+     * @param nanos How long it took, in nanoseconds.
+     */
+    void recordPhase(Phase phase, long nanos);
+
+    /**
+     * Records the size of an expression that was tokenized.
+     *
+     * @param tokens The number of tokens in the expression.
+     */
+    void recordSize(int tokens);
+
+    /**
+     * Records a phase that failed.
+     *
+     * @param phase The phase.
+     * @param error The exception it failed with.
+     */
+    void recordError(Phase phase, Throwable error);
+
+    /**
+     * Records a lookup in a {@link ResultCache}.
+     *
+     * @param hit True if the result was found in the cache.
+     */
+    void recordCacheLookup(boolean hit);
+}
@@ -0,0 +1,259 @@
+package com.cosc3p97.calculator;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A metrics sink that keeps running totals in memory: a latency histogram
+ * for each {@link EngineMetrics.Phase}, a histogram of expression sizes in
+ * tokens, error counts by phase and exception type, and result cache hits
+ * and misses. Recording is a few uncontended atomic adds, so one instance
+ * can be shared by every thread of a busy server.
+ * <p>
+ * Histograms have one bucket per power of two, so a latency is known to
+ * within a factor of two, which is enough to see where time goes and how
+ * the tail behaves. {@link #snapshot()} flattens everything into named
+ * values for export to a monitoring system.
+ */
+public final class EngineStatistics implements EngineMetrics {
+
+    private static final EngineMetrics.Phase[] PHASES = EngineMetrics.Phase.values();
+
+    private final StripedCounters[] latencies = new StripedCounters[PHASES.length]; // Nanoseconds per phase
+    private final StripedCounters sizes = new StripedCounters(Histogram.CELLS);      // Tokens per expression
+    private final StripedCounters cache = new StripedCounters(2);                   // Cache hits, then misses
+    private final ConcurrentMap<String, StripedCounters> errors = new ConcurrentHashMap<>(); // By phase and type
+
+    /**
+     * Constructor that creates statistics with nothing recorded.
+     */
+    public EngineStatistics() {
+        for (int i = 0; i < PHASES.length; i++)
+            this.latencies[i] = new StripedCounters(Histogram.CELLS);
+    }
+
+    @Override
+    public void recordPhase(EngineMetrics.Phase phase, long nanos) {
+        Histogram.record(this.latencies[phase.ordinal()], nanos);
+    }
+
+    @Override
+    public void recordSize(int tokens) {
+        Histogram.record(this.sizes, tokens);
+    }
+
+    @Override
+    public void recordError(EngineMetrics.Phase phase, Throwable error) {
+        String key = phase.name().toLowerCase(Locale.ROOT) + "." + error.getClass().getSimpleName();
+        StripedCounters counter = this.errors.get(key);
+        if (counter == null) {
+            StripedCounters created = new StripedCounters(1);
+            counter = this.errors.putIfAbsent(key, created);
+            if (counter == null)
+                counter = created;
+        }
+        counter.add(0, 1);
+    }
+
+    @Override
+    public void recordCacheLookup(boolean hit) {
+        this.cache.add(hit ? 0 : 1, 1);
+    }
+
+    /**
+     * @param phase The phase.
+     * @return The latencies of the phase so far, in nanoseconds.
+     */
+    public Histogram latency(EngineMetrics.Phase phase) {
+        return new Histogram(this.latencies[phase.ordinal()]);
+    }
+
+    /**
+     * @return The sizes of the expressions tokenized so far, in tokens.
+     */
+    public Histogram expressionSize() {
+        return new Histogram(this.sizes);
+    }
+
+    /**
+     * @return The number of failures so far, keyed on the phase and the
+     * simple name of the exception, such as {@code "parse.IllegalArgumentException"}.
+     */
+    public Map<String, Long> errors() {
+        Map<String, Long> counts = new TreeMap<>();
+        for (Map.Entry<String, StripedCounters> entry : this.errors.entrySet())
+            counts.put(entry.getKey(), entry.getValue().sum(0));
+        return Collections.unmodifiableMap(counts);
+    }
+
+    /**
+     * @return The number of results found in a {@link ResultCache}.
+     */
+    public long cacheHits() {
+        return this.cache.sum(0);
+    }
+
+    /**
+     * @return The number of results that had to be evaluated by a {@link ResultCache}.
+     */
+    public long cacheMisses() {
+        return this.cache.sum(1);
+    }
+
+    /**
+     * @return The fraction of cache lookups that found their result, or 0 if there were none.
+     */
+    public double cacheHitRate() {
+        long hits = this.cacheHits();
+        long lookups = hits + this.cacheMisses();
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    /**
+     * Flattens the statistics into named values, for export to a monitoring
+     * system. Names are dotted and stable, such as {@code "evaluate.count"},
+     * {@code "evaluate.nanos.p99"}, {@code "size.tokens.p50"},
+     * {@code "cache.hits"} and {@code "errors.parse.IllegalArgumentException"}.
+     *
+     * @return The current values, in a fixed order.
+     */
+    public Map<String, Number> snapshot() {
+        Map<String, Number> values = new LinkedHashMap<>();
+        for (EngineMetrics.Phase phase : PHASES)
+            this.latency(phase).export(values, phase.name().toLowerCase(Locale.ROOT) + ".", "nanos");
+        this.expressionSize().export(values, "size.", "tokens");
+
+        values.put("cache.hits", this.cacheHits());
+        values.put("cache.misses", this.cacheMisses());
+        values.put("cache.hitRate", this.cacheHitRate());
+        for (Map.Entry<String, Long> error : this.errors().entrySet())
+            values.put("errors." + error.getKey(), error.getValue());
+
+        return values;
+    }
+
+    @Override
+    public String toString() {
+        return this.snapshot().toString();
+    }
+
+    /**
+     * A snapshot of recorded values grouped by powers of two. Bucket 0
+     * counts zeros and bucket {@code i} counts values from
+     * {@code 2^(i-1)} to {@code 2^i - 1}.
+     */
+    public static final class Histogram {
+
+        static final int BUCKETS = 64;          // Enough for any non-negative long
+        static final int COUNT = BUCKETS;       // Cell holding the number of values
+        static final int SUM = BUCKETS + 1;     // Cell holding the total of the values
+        static final int CELLS = BUCKETS + 2;
+
+        private final long[] buckets = new long[BUCKETS]; // Number of values in each bucket
+        private final long count;                         // Number of values
+        private final long sum;                           // Total of the values
+
+        /**
+         * Constructor that reads the current state of a histogram's counters.
+         *
+         * @param counters The counters of the histogram.
+         */
+        Histogram(StripedCounters counters) {
+            for (int i = 0; i < BUCKETS; i++)
+                this.buckets[i] = counters.sum(i);
+            this.count = counters.sum(COUNT);
+            this.sum = counters.sum(SUM);
+        }
+
+        /**
+         * Records a value in a histogram's counters. Negative values, which
+         * a clock stepping backwards can produce, count as zero.
+         *
+         * @param counters The counters of the histogram.
+         * @param value    The value to record.
+         */
+        static void record(StripedCounters counters, long value) {
+            value = Math.max(0, value);
+            counters.add(BUCKETS - Long.numberOfLeadingZeros(value), 1);
+            counters.add(COUNT, 1);
+            counters.add(SUM, value);
+        }
+
+        /**
+         * @return The number of values recorded.
+         */
+        public long count() {
+            return this.count;
+        }
+
+        /**
+         * @return The total of the values recorded.
+         */
+        public long sum() {
+            return this.sum;
+        }
+
+        /**
+         * @return The average of the values recorded, or 0 if there are none.
+         */
+        public double mean() {
+            return this.count == 0 ? 0 : (double) this.sum / this.count;
+        }
+
+        /**
+         * @param bucket The index of a bucket.
+         * @return The number of values in the bucket.
+         */
+        public long bucket(int bucket) {
+            return this.buckets[bucket];
+        }
+
+        /**
+         * Returns an upper bound for a percentile: the largest value of the
+         * bucket that holds it, so at most twice the true value.
+         *
+         * @param percentile The percentile, from 0 to 100.
+         * @return The bound, or 0 if no values were recorded.
+         */
+        public long percentile(double percentile) {
+            if (percentile < 0 || percentile > 100)
+                throw new IllegalArgumentException("percentile must be between 0 and 100: " + percentile);
+
+            long total = 0;
+            for (long bucket : this.buckets)
+                total += bucket; // Buckets and count are read separately, so sum what was read
+            long rank = (long) Math.ceil(total * percentile / 100);
+
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += this.buckets[i];
+                if (seen >= rank && seen > 0)
+                    return i == 0 ? 0 : (1L << i) - 1; // Bucket 63 ends at Long.MAX_VALUE
+            }
+            return 0;
+        }
+
+        /**
+         * Adds the count, total and main percentiles to a map of named values.
+         */
+        void export(Map<String, Number> values, String prefix, String unit) {
+            values.put(prefix + "count", this.count);
+            values.put(prefix + unit + ".total", this.sum);
+            values.put(prefix + unit + ".p50", this.percentile(50));
+            values.put(prefix + unit + ".p90", this.percentile(90));
+            values.put(prefix + unit + ".p99", this.percentile(99));
+            values.put(prefix + unit + ".max", this.percentile(100));
+        }
+
+        @Override
+        public String toString() {
+            return "count=" + this.count + ", mean=" + this.mean()
+                    + ", p50<=" + this.percentile(50) + ", p99<=" + this.percentile(99);
+        }
+    }
+}
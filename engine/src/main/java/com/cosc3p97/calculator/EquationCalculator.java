@@ -0,0 +1,276 @@
+package com.cosc3p97.calculator;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Reference: https://github.com/Jhunrel25/PEMDAS-Calculator-Program/blob/main/Calculator.java
+ * This class is responsible for evaluating mathematical expressions
+ * provided in the form of strings. It supports various operations
+ * including addition, subtraction, multiplication, division,
+ * exponents, and parentheses handling.
+ * <p>
+ * Expressions that are evaluated many times should be compiled once with
+ * {@link #compile(CharSequence)} and the resulting {@link CompiledExpression}
+ * reused, which skips tokenizing and parsing on every evaluation.
+ * <p>
+ * Input that cannot be trusted should be evaluated with
+ * {@link EvaluationLimits}, which bound its size, nesting, digits and
+ * running time. Evaluation is exact unless a {@link PrecisionPolicy} is
+ * given, which rounds every value so results such as {@code 1/3} exist and
+ * stay bounded in length.
+ * <p>
+ * The time spent tokenizing, parsing and evaluating can be measured by
+ * installing an {@link EngineMetrics} sink with {@link #setMetrics(EngineMetrics)}.
+ */
+public class EquationCalculator {
+
+    // Each thread reuses one lexer so tokenizing does not allocate token buffers
+    private static final ThreadLocal<ExpressionLexer> LEXER = new ThreadLocal<ExpressionLexer>() {
+        @Override
+        protected ExpressionLexer initialValue() {
+            return new ExpressionLexer();
+        }
+    };
+
+    // Sink every part of the engine records measurements to
+    static volatile EngineMetrics metrics = EngineMetrics.NONE;
+
+    private final CharSequence expression; // The mathematical expression to be evaluated
+    private final ResultCache cache;       // Shared cache of results, or null for none
+    private final EvaluationLimits limits; // Bounds on compiling and exact evaluation
+    private final PrecisionPolicy precision; // Rounding applied by exact evaluation
+    private CompiledExpression compiled;   // Compiled form, created on first evaluation
+
+    /**
+     * Constructor that initializes the EquationCalculator with
+     * a given mathematical expression.
+     *
+     * @param expression The mathematical expression to be evaluated.
+     */
+    public EquationCalculator(CharSequence expression) {
+        this(expression, null);
+    }
+
+    /**
+     * Constructor that initializes the EquationCalculator with a given
+     * mathematical expression and a cache of results. When the expression
+     * is already in the cache, evaluating it skips compiling entirely.
+     *
+     * @param expression The mathematical expression to be evaluated.
+     * @param cache      The cache to look results up in, or null for none.
+     */
+    public EquationCalculator(CharSequence expression, ResultCache cache) {
+        this(expression, cache, EvaluationLimits.NONE);
+    }
+
+    /**
+     * Constructor that initializes the EquationCalculator with a given
+     * mathematical expression, a cache of results, and limits that
+     * compiling and exact evaluation must stay within.
+     *
+     * @param expression The mathematical expression to be evaluated.
+     * @param cache      The cache to look results up in, or null for none.
+     * @param limits     The limits to evaluate within.
+     */
+    public EquationCalculator(CharSequence expression, ResultCache cache, EvaluationLimits limits) {
+        this(expression, cache, limits, PrecisionPolicy.EXACT);
+    }
+
+    /**
+     * Constructor that initializes the EquationCalculator with a given
+     * mathematical expression, a cache of results, limits that compiling
+     * and evaluation must stay within, and the precision to round to.
+     *
+     * @param expression The mathematical expression to be evaluated.
+     * @param cache      The cache to look results up in, or null for none.
+     * @param limits     The limits to evaluate within.
+     * @param precision  The precision to round every value to.
+     */
+    public EquationCalculator(CharSequence expression, ResultCache cache, EvaluationLimits limits,
+                              PrecisionPolicy precision) {
+        this.expression = expression;
+        this.cache = cache;
+        this.limits = limits;
+        this.precision = precision;
+    }
+
+    /**
+     * Installs the sink that the whole engine records its measurements to,
+     * replacing the previous one. Measurements stop when
+     * {@link EngineMetrics#NONE} is installed, which is the default.
+     *
+     * @param metrics The sink to record to.
+     */
+    public static void setMetrics(EngineMetrics metrics) {
+        if (metrics == null)
+            throw new IllegalArgumentException("metrics must not be null; use EngineMetrics.NONE");
+
+        EquationCalculator.metrics = metrics;
+    }
+
+    /**
+     * @return The sink the engine records its measurements to.
+     */
+    public static EngineMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Tokenizes and parses an expression into a reusable compiled form.
+     *
+     * @param expression The mathematical expression to compile.
+     * @return The compiled expression.
+     * @throws IllegalArgumentException If the expression is malformed.
+     */
+    public static CompiledExpression compile(CharSequence expression) {
+        return compile(expression, EvaluationLimits.NONE);
+    }
+
+    /**
+     * Tokenizes and parses an expression within limits. Lexing stops as
+     * soon as the expression has too many tokens, too deep parentheses or
+     * too long a number, and the compiled expression keeps the limits for
+     * its exact evaluation.
+     *
+     * @param expression The mathematical expression to compile.
+     * @param limits     The limits to compile and evaluate within.
+     * @return The compiled expression.
+     * @throws IllegalArgumentException If the expression is malformed.
+     * @throws EvaluationLimitException If the expression exceeds a limit.
+     */
+    public static CompiledExpression compile(CharSequence expression, EvaluationLimits limits) {
+        return compile(expression, limits, null);
+    }
+
+    /**
+     * Tokenizes and parses an expression, sharing its subexpressions with
+     * every other expression compiled with the same table. Compiling many
+     * generated formulas with one table keeps each distinct subexpression
+     * in memory once.
+     *
+     * @param expression The mathematical expression to compile.
+     * @param interner   The table of shared subexpressions.
+     * @return The compiled expression.
+     * @throws IllegalArgumentException If the expression is malformed.
+     */
+    public static CompiledExpression compile(CharSequence expression, ExpressionInterner interner) {
+        return compile(expression, EvaluationLimits.NONE, interner);
+    }
+
+    /**
+     * Compiles an expression into an optimized stack-machine program, which
+     * can be written out and loaded again without lexing or parsing.
+     *
+     * @param expression The mathematical expression to compile.
+     * @return The bytecode program.
+     * @throws IllegalArgumentException If the expression is malformed.
+     * @see BytecodeExpression
+     */
+    public static BytecodeExpression compileBytecode(CharSequence expression) {
+        return compile(expression).optimize().toBytecode();
+    }
+
+    /**
+     * Tokenizes and parses an expression within limits, sharing its
+     * subexpressions through a table.
+     *
+     * @param expression The mathematical expression to compile.
+     * @param limits     The limits to compile and evaluate within.
+     * @param interner   The table of shared subexpressions, or null for none.
+     * @return The compiled expression.
+     * @throws IllegalArgumentException If the expression is malformed.
+     * @throws EvaluationLimitException If the expression exceeds a limit.
+     */
+    public static CompiledExpression compile(CharSequence expression, EvaluationLimits limits,
+                                             ExpressionInterner interner) {
+        EngineMetrics metrics = EquationCalculator.metrics;
+        ExpressionLexer lexer = LEXER.get();
+        if (metrics == EngineMetrics.NONE) {
+            lexer.tokenize(expression, limits);
+            return new CompiledExpression(new ExpressionParser(lexer, expression, interner).parse()).withLimits(limits);
+        }
+
+        long start = System.nanoTime();
+        try {
+            lexer.tokenize(expression, limits);
+        } catch (RuntimeException e) {
+            metrics.recordError(EngineMetrics.Phase.TOKENIZE, e);
+            throw e;
+        }
+        long tokenized = System.nanoTime();
+        metrics.recordPhase(EngineMetrics.Phase.TOKENIZE, tokenized - start);
+        metrics.recordSize(lexer.count());
+
+        CompiledExpression compiled;
+        try {
+            compiled = new CompiledExpression(new ExpressionParser(lexer, expression, interner).parse());
+        } catch (RuntimeException e) {
+            metrics.recordError(EngineMetrics.Phase.PARSE, e);
+            throw e;
+        }
+        metrics.recordPhase(EngineMetrics.Phase.PARSE, System.nanoTime() - tokenized);
+        return compiled.withLimits(limits);
+    }
+
+    /**
+     * Returns the compiled form of the expression, compiling it on first use.
+     *
+     * @return The compiled expression.
+     */
+    private CompiledExpression compiled() {
+        if (this.compiled == null)
+            this.compiled = compile(this.expression, this.limits).withPrecision(this.precision);
+
+        return this.compiled;
+    }
+
+    /**
+     * Evaluates the expression exactly, or rounded to its precision, and
+     * returns the result as a number.
+     *
+     * @return The evaluated result of the expression.
+     * @throws EvaluationLimitException If the evaluation exceeds its limits.
+     */
+    public BigDecimal evaluate() {
+        if (this.cache != null)
+            return this.cache.evaluate(this.expression, this.limits, this.precision);
+
+        return this.compiled().evaluateDecimal();
+    }
+
+    /**
+     * Evaluates the expression exactly, spreading independent operations on
+     * huge numbers over the cores of the common fork-join pool. Expressions
+     * without such operations are evaluated as by {@link #evaluate()}. The
+     * result cache is not used.
+     *
+     * @return The evaluated result of the expression.
+     * @throws EvaluationLimitException If the evaluation exceeds its limits.
+     * @see CompiledExpression#evaluateParallel(ForkJoinPool, BigDecimal...)
+     */
+    public BigDecimal evaluateParallel() {
+        return this.compiled().evaluateParallel(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Evaluates the expression with primitive double arithmetic. This is
+     * opt-in: it is much faster than {@link #evaluate()}, but only as
+     * precise as a double.
+     *
+     * @return The evaluated result of the expression.
+     * @see CompiledExpression#evaluateDouble()
+     */
+    public double evaluateDouble() {
+        return this.compiled().evaluateDouble();
+    }
+
+    /**
+     * Evaluates the expression and returns the result as a string.
+     *
+     * @return The evaluated result of the expression.
+     */
+    public String equals() {
+        return CompiledExpression.format(this.evaluate()); // Return the result
+    }
+}
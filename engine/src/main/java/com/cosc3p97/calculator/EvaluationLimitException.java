@@ -0,0 +1,56 @@
+package com.cosc3p97.calculator;
+
+/**
+ * Thrown when an expression exceeds one of its {@link EvaluationLimits}.
+ * The exception says which limit was hit and what the limit was, so a
+ * caller can tell a hostile or oversized input from a malformed one.
+ */
+public final class EvaluationLimitException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The limits an expression can exceed.
+     */
+    public enum Limit {
+        TOKENS("tokens"),
+        DEPTH("levels of nested parentheses"),
+        DIGITS("digits"),
+        TIME("milliseconds");
+
+        private final String unit; // What the maximum counts, for messages
+
+        Limit(String unit) {
+            this.unit = unit;
+        }
+    }
+
+    private final Limit limit;   // The limit that was exceeded
+    private final long maximum;  // The value of the limit
+
+    /**
+     * Constructor for an exception reporting an exceeded limit.
+     *
+     * @param limit   The limit that was exceeded.
+     * @param maximum The value of the limit.
+     */
+    EvaluationLimitException(Limit limit, long maximum) {
+        super("Expression exceeds the limit of " + maximum + " " + limit.unit);
+        this.limit = limit;
+        this.maximum = maximum;
+    }
+
+    /**
+     * @return The limit that was exceeded.
+     */
+    public Limit getLimit() {
+        return this.limit;
+    }
+
+    /**
+     * @return The value of the limit that was exceeded.
+     */
+    public long getMaximum() {
+        return this.maximum;
+    }
+}
@@ -0,0 +1,236 @@
+package com.cosc3p97.calculator;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounds on the resources one expression may use, for evaluating input
+ * that cannot be trusted. Limits are immutable; start from {@link #NONE}
+ * and set the ones needed:
+ * <pre>
+ * EvaluationLimits limits = EvaluationLimits.NONE
+ *         .withMaxTokens(10000)
+ *         .withMaxDepth(100)
+ *         .withMaxDigits(1000)
+ *         .withTimeout(50, TimeUnit.MILLISECONDS);
+ * </pre>
+ * Tokens and nesting depth are checked while lexing, before anything is
+ * built. The number of digits, which covers both the precision and the
+ * scale of a value, is checked for every number and every intermediate
+ * result, and a power is rejected before it is computed when its result is
+ * certain to be too long. The timeout runs from the start of each
+ * evaluation and is checked before every operation on a large value. A
+ * limit that is hit throws an {@link EvaluationLimitException}.
+ */
+public final class EvaluationLimits {
+
+    private static final int UNLIMITED = Integer.MAX_VALUE;
+    private static final long NO_TIMEOUT = 0;
+    private static final double LOG10_2 = 0.30102999; // Rounded down, so estimates never overshoot
+
+    /**
+     * Limits that allow anything.
+     */
+    public static final EvaluationLimits NONE = new EvaluationLimits(UNLIMITED, UNLIMITED, UNLIMITED, NO_TIMEOUT);
+
+    private final int maxTokens;     // Most tokens an expression may have
+    private final int maxDepth;      // Most parentheses that may be open at once
+    private final int maxDigits;     // Most digits in the precision or scale of any value
+    private final long timeoutNanos; // Longest an evaluation may run, or NO_TIMEOUT
+
+    private EvaluationLimits(int maxTokens, int maxDepth, int maxDigits, long timeoutNanos) {
+        this.maxTokens = maxTokens;
+        this.maxDepth = maxDepth;
+        this.maxDigits = maxDigits;
+        this.timeoutNanos = timeoutNanos;
+    }
+
+    /**
+     * @param maxTokens The most tokens an expression may have.
+     * @return A copy of these limits with the token limit changed.
+     */
+    public EvaluationLimits withMaxTokens(int maxTokens) {
+        return new EvaluationLimits((int) positive(maxTokens, "maxTokens"), this.maxDepth, this.maxDigits, this.timeoutNanos);
+    }
+
+    /**
+     * @param maxDepth The most parentheses that may be open at once.
+     * @return A copy of these limits with the nesting limit changed.
+     */
+    public EvaluationLimits withMaxDepth(int maxDepth) {
+        return new EvaluationLimits(this.maxTokens, (int) positive(maxDepth, "maxDepth"), this.maxDigits, this.timeoutNanos);
+    }
+
+    /**
+     * @param maxDigits The most digits in the precision or the scale of
+     *                  any number or intermediate result.
+     * @return A copy of these limits with the digit limit changed.
+     */
+    public EvaluationLimits withMaxDigits(int maxDigits) {
+        return new EvaluationLimits(this.maxTokens, this.maxDepth, (int) positive(maxDigits, "maxDigits"), this.timeoutNanos);
+    }
+
+    /**
+     * @param timeout The longest an evaluation may run.
+     * @param unit    The unit of the timeout.
+     * @return A copy of these limits with the timeout changed.
+     */
+    public EvaluationLimits withTimeout(long timeout, TimeUnit unit) {
+        return new EvaluationLimits(this.maxTokens, this.maxDepth, this.maxDigits,
+                positive(unit.toNanos(timeout), "timeout"));
+    }
+
+    private static long positive(long value, String name) {
+        if (value <= 0)
+            throw new IllegalArgumentException(name + " must be positive: " + value);
+        return value;
+    }
+
+    /**
+     * @return The most tokens an expression may have.
+     */
+    public int getMaxTokens() {
+        return this.maxTokens;
+    }
+
+    /**
+     * @return The most parentheses that may be open at once.
+     */
+    public int getMaxDepth() {
+        return this.maxDepth;
+    }
+
+    /**
+     * @return The most digits in the precision or the scale of any value.
+     */
+    public int getMaxDigits() {
+        return this.maxDigits;
+    }
+
+    /**
+     * @param unit The unit to return the timeout in.
+     * @return The longest an evaluation may run, or 0 if there is no timeout.
+     */
+    public long getTimeout(TimeUnit unit) {
+        return unit.convert(this.timeoutNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return true if values are limited to fewer digits than a long can hold.
+     */
+    boolean limitsCompactValues() {
+        return this.maxDigits < 19;
+    }
+
+    /**
+     * @return The time an evaluation starting now must finish by, for {@link #checkTime(long)}.
+     */
+    long deadline() {
+        return System.nanoTime() + this.timeoutNanos;
+    }
+
+    /**
+     * @param deadline The time the evaluation must finish by.
+     * @throws EvaluationLimitException If the deadline has passed.
+     */
+    void checkTime(long deadline) {
+        if (this.timeoutNanos != NO_TIMEOUT && System.nanoTime() - deadline > 0)
+            throw new EvaluationLimitException(EvaluationLimitException.Limit.TIME,
+                    TimeUnit.NANOSECONDS.toMillis(this.timeoutNanos));
+    }
+
+    /**
+     * @param tokens The number of tokens so far.
+     * @throws EvaluationLimitException If there are too many tokens.
+     */
+    void checkTokens(int tokens) {
+        if (tokens > this.maxTokens)
+            throw new EvaluationLimitException(EvaluationLimitException.Limit.TOKENS, this.maxTokens);
+    }
+
+    /**
+     * @param depth The number of parentheses open.
+     * @throws EvaluationLimitException If too many parentheses are open.
+     */
+    void checkDepth(int depth) {
+        if (depth > this.maxDepth)
+            throw new EvaluationLimitException(EvaluationLimitException.Limit.DEPTH, this.maxDepth);
+    }
+
+    /**
+     * @param digits The number of digits in a number literal.
+     * @throws EvaluationLimitException If the number is too long.
+     */
+    void checkDigits(int digits) {
+        if (digits > this.maxDigits)
+            throw digitsExceeded();
+    }
+
+    /**
+     * @param value A number or intermediate result.
+     * @throws EvaluationLimitException If the value has too many digits.
+     */
+    void checkDigits(BigDecimal value) {
+        if (this.maxDigits != UNLIMITED
+                && (value.precision() > this.maxDigits || Math.abs((long) value.scale()) > this.maxDigits))
+            throw digitsExceeded();
+    }
+
+    /**
+     * Checks a fixed-point value. The scale is always checked, and the
+     * unscaled value only when {@link #limitsCompactValues()}, since a long
+     * cannot have more digits than a larger limit.
+     *
+     * @param unscaled The unscaled value.
+     * @param scale    The scale.
+     * @throws EvaluationLimitException If the value has too many digits.
+     */
+    void checkDigits(long unscaled, int scale) {
+        boolean tooLong = this.limitsCompactValues()
+                && (unscaled == Long.MIN_VALUE || Math.abs(unscaled) >= FixedPoint.POWERS_OF_TEN[this.maxDigits]);
+        if (tooLong || Math.abs((long) scale) > this.maxDigits)
+            throw digitsExceeded();
+    }
+
+    /**
+     * Rejects a power whose result is certain to have too many digits,
+     * before any time is spent computing it.
+     *
+     * @param base     The value being raised.
+     * @param exponent The power.
+     * @throws EvaluationLimitException If the result would have too many digits.
+     */
+    void checkPower(BigDecimal base, int exponent) {
+        this.checkPower(base.unscaledValue().bitLength(), base.scale(), exponent);
+    }
+
+    /**
+     * Rejects a power of a fixed-point value whose result is certain to
+     * have too many digits, with the same bound as for a BigDecimal.
+     *
+     * @param unscaled The unscaled value being raised.
+     * @param scale    Its scale.
+     * @param exponent The power.
+     * @throws EvaluationLimitException If the result would have too many digits.
+     */
+    void checkPower(long unscaled, int scale, int exponent) {
+        this.checkPower(BigInteger.valueOf(unscaled).bitLength(), scale, exponent);
+    }
+
+    private void checkPower(int bitLength, int scale, int exponent) {
+        if (this.maxDigits == UNLIMITED || exponent == 0)
+            return;
+        if (Math.abs((long) scale * exponent) > this.maxDigits)
+            throw digitsExceeded();
+
+        // |unscaled| >= 2^(bitLength - 1), so the result has at least this many digits
+        double digits = Math.floor((bitLength - 1) * (double) exponent * LOG10_2) + 1;
+        if (digits > this.maxDigits)
+            throw digitsExceeded();
+    }
+
+    private EvaluationLimitException digitsExceeded() {
+        return new EvaluationLimitException(EvaluationLimitException.Limit.DIGITS, this.maxDigits);
+    }
+}
@@ -0,0 +1,164 @@
+package com.cosc3p97.calculator;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A size-bounded table of parsed subexpressions, so that expressions
+ * compiled with the same table share one node for every subexpression they
+ * have in common (hash-consing). {@code (a+b)*c} and {@code (a+b)/d}
+ * compiled with one table hold the same {@code a+b} node, and a formula
+ * that repeats a subexpression holds it once however often it is written.
+ * <p>
+ * A node is matched on its operator, its literal value (scale included) or
+ * variable name, and the identity of its operands, which are interned
+ * before it. When the table is full the least recently used node is
+ * dropped; expressions that already hold it keep it, and the next
+ * expression to use it gets a new node. The table only saves memory: an
+ * expression evaluates a repeated subexpression once whether or not it was
+ * compiled with a table.
+ * <p>
+ * A table is safe to share between threads. It is split into independently
+ * locked segments so threads compiling at once rarely wait for each other.
+ */
+public final class ExpressionInterner {
+
+    private static final int SEGMENTS = 16; // Independently locked parts of the table
+
+    private final int maxEntries;                       // Most nodes kept before evicting
+    private final Map<Key, ExpressionNode>[] segments;  // Nodes in least recently used order
+
+    private final AtomicLong hits = new AtomicLong();   // Nodes found already in the table
+    private final AtomicLong misses = new AtomicLong(); // Nodes added to the table
+
+    /**
+     * Constructor that creates an empty table.
+     *
+     * @param maxEntries The maximum number of nodes to keep.
+     */
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    public ExpressionInterner(int maxEntries) {
+        if (maxEntries <= 0)
+            throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+
+        this.maxEntries = maxEntries;
+        this.segments = new Map[Math.min(SEGMENTS, maxEntries)];
+        for (int i = 0; i < this.segments.length; i++) {
+            // Spread the remainder so segment sizes differ by at most one
+            final int capacity = maxEntries / this.segments.length + (i < maxEntries % this.segments.length ? 1 : 0);
+            this.segments[i] = new LinkedHashMap<Key, ExpressionNode>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, ExpressionNode> eldest) {
+                    return size() > capacity;
+                }
+            };
+        }
+    }
+
+    /**
+     * Returns the node already in the table that matches a new node, or
+     * adds the new node if there is none.
+     *
+     * @param node The newly built node, whose operands are already interned.
+     * @return The shared node.
+     */
+    ExpressionNode intern(ExpressionNode node) {
+        Key key = new Key(node);
+        Map<Key, ExpressionNode> segment = this.segments[(key.hash & Integer.MAX_VALUE) % this.segments.length];
+
+        synchronized (segment) {
+            ExpressionNode shared = segment.get(key);
+            if (shared != null) {
+                this.hits.incrementAndGet();
+                return shared;
+            }
+            segment.put(key, node);
+        }
+        this.misses.incrementAndGet();
+        return node;
+    }
+
+    /**
+     * Removes every node from the table. The counters are not reset.
+     */
+    public void clear() {
+        for (Map<Key, ExpressionNode> segment : this.segments) {
+            synchronized (segment) {
+                segment.clear();
+            }
+        }
+    }
+
+    /**
+     * @return The number of nodes currently in the table.
+     */
+    public int size() {
+        int size = 0;
+        for (Map<Key, ExpressionNode> segment : this.segments) {
+            synchronized (segment) {
+                size += segment.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * @return The maximum number of nodes the table keeps.
+     */
+    public int maxEntries() {
+        return this.maxEntries;
+    }
+
+    /**
+     * @return The number of nodes that were found already in the table.
+     */
+    public long hitCount() {
+        return this.hits.get();
+    }
+
+    /**
+     * @return The number of nodes that had to be added to the table.
+     */
+    public long missCount() {
+        return this.misses.get();
+    }
+
+    /**
+     * Matches nodes that are built the same way from the same operands.
+     */
+    private static final class Key {
+
+        private final ExpressionNode node; // The node the key stands for
+        private final int hash;            // Hash of the node's contents
+
+        Key(ExpressionNode node) {
+            this.node = node;
+            int hash = node.operator;
+            hash = 31 * hash + (node.value != null ? node.value.hashCode() : 0);
+            hash = 31 * hash + (node.name != null ? node.name.hashCode() : 0);
+            hash = 31 * hash + System.identityHashCode(node.left);
+            hash = 31 * hash + System.identityHashCode(node.right);
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof Key))
+                return false;
+
+            ExpressionNode that = ((Key) other).node;
+            return this.node.operator == that.operator
+                    && (this.node.value == null ? that.value == null : this.node.value.equals(that.value))
+                    && Double.doubleToLongBits(this.node.doubleValue) == Double.doubleToLongBits(that.doubleValue)
+                    && (this.node.name == null ? that.name == null : this.node.name.equals(that.name))
+                    && this.node.left == that.left
+                    && this.node.right == that.right;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+}
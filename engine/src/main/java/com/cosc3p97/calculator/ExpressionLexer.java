@@ -0,0 +1,162 @@
+package com.cosc3p97.calculator;
+
+import java.util.Arrays;
+
+/**
+ * Single-pass lexer that splits a mathematical expression into tokens.
+ * Tokens are written into primitive arrays owned by the lexer, which are
+ * reused by every call to {@link #tokenize(CharSequence)}, so lexing an
+ * expression allocates nothing once the buffers are large enough. Numbers
+ * and names are recorded as spans of the input rather than copied into strings.
+ * <p>
+ * A lexer is not thread-safe; each thread should use its own instance.
+ */
+final class ExpressionLexer {
+
+    static final int NUMBER = 0;     // Token type of a number; other types are the operator character
+    static final int IDENTIFIER = 1; // Token type of a name, such as a variable
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private int[] types = new int[INITIAL_CAPACITY];  // Type of each token
+    private int[] starts = new int[INITIAL_CAPACITY]; // Start index of each token in the input
+    private int[] ends = new int[INITIAL_CAPACITY];   // End index (exclusive) of each token
+    private int count;                                // Number of tokens in the buffers
+
+    /**
+     * Scans the expression once and records its tokens, replacing the
+     * tokens of any previous call.
+     *
+     * @param expression The mathematical expression to tokenize.
+     * @return The number of tokens found.
+     * @throws IllegalArgumentException If the expression contains an invalid character.
+     */
+    int tokenize(CharSequence expression) {
+        return this.tokenize(expression, EvaluationLimits.NONE);
+    }
+
+    /**
+     * Scans the expression once and records its tokens, stopping as soon
+     * as the expression exceeds a limit on its tokens, its nesting depth or
+     * the digits of a number.
+     *
+     * @param expression The mathematical expression to tokenize.
+     * @param limits     The limits the expression must stay within.
+     * @return The number of tokens found.
+     * @throws IllegalArgumentException If the expression contains an invalid character.
+     * @throws EvaluationLimitException If the expression exceeds a limit.
+     */
+    int tokenize(CharSequence expression, EvaluationLimits limits) {
+        this.count = 0;
+        int depth = 0; // Parentheses open so far
+        int length = expression.length();
+        int i = 0;
+
+        while (i < length) {
+            char c = expression.charAt(i);
+
+            if (Character.isWhitespace(c)) {
+                i++; // Whitespace only separates tokens
+            } else if (isDigit(c) || c == '.') {
+                // Consume the digits of a number with at most one decimal point
+                int start = i;
+                boolean seenPoint = false;
+                while (i < length) {
+                    char d = expression.charAt(i);
+                    if (d == '.' && !seenPoint)
+                        seenPoint = true;
+                    else if (!isDigit(d))
+                        break;
+                    i++;
+                }
+                limits.checkDigits(seenPoint ? i - start - 1 : i - start);
+                this.add(NUMBER, start, i);
+            } else if (isNameStart(c)) {
+                // Consume a name: a letter or underscore, then letters, digits or underscores
+                int start = i++;
+                while (i < length && (isNameStart(expression.charAt(i)) || isDigit(expression.charAt(i))))
+                    i++;
+                this.add(IDENTIFIER, start, i);
+            } else if (isOperator(c)) {
+                if (c == '(')
+                    limits.checkDepth(++depth);
+                else if (c == ')' && depth > 0)
+                    depth--;
+                this.add(c, i, ++i);
+            } else {
+                throw new IllegalArgumentException("Unexpected character '" + c + "' at position " + i);
+            }
+            limits.checkTokens(this.count);
+        }
+        return this.count;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isNameStart(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+    }
+
+    private static boolean isOperator(char c) {
+        switch (c) {
+            case '+':
+            case '-':
+            case '*':
+            case '/':
+            case '^':
+            case '(':
+            case ')':
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Appends a token to the buffers, growing them when they are full.
+     */
+    private void add(int type, int start, int end) {
+        if (this.count == this.types.length) {
+            int capacity = this.count * 2;
+            this.types = Arrays.copyOf(this.types, capacity);
+            this.starts = Arrays.copyOf(this.starts, capacity);
+            this.ends = Arrays.copyOf(this.ends, capacity);
+        }
+        this.types[this.count] = type;
+        this.starts[this.count] = start;
+        this.ends[this.count++] = end;
+    }
+
+    /**
+     * @return The number of tokens produced by the last call to tokenize.
+     */
+    int count() {
+        return this.count;
+    }
+
+    /**
+     * @param index The index of a token.
+     * @return The token type: {@link #NUMBER}, {@link #IDENTIFIER} or the operator character.
+     */
+    int type(int index) {
+        return this.types[index];
+    }
+
+    /**
+     * @param index The index of a token.
+     * @return The start index of the token in the input.
+     */
+    int start(int index) {
+        return this.starts[index];
+    }
+
+    /**
+     * @param index The index of a token.
+     * @return The end index (exclusive) of the token in the input.
+     */
+    int end(int index) {
+        return this.ends[index];
+    }
+}
@@ -0,0 +1,151 @@
+package com.cosc3p97.calculator;
+
+import java.math.BigDecimal;
+
+/**
+ * A single node of a parsed mathematical expression. A node is either
+ * a leaf (a number literal, a named constant or a named variable), a
+ * negation or function of one operand, or a binary operator applied to a
+ * left and a right operand. Nodes are immutable,
+ * so a parsed tree can be shared and evaluated any number of times.
+ */
+final class ExpressionNode {
+
+    static final char NUMBER = '#'; // Marker used as the operator of a number literal
+    static final char VARIABLE = '$'; // Marker used as the operator of a variable
+    static final char NEGATE = '~'; // Marker used as the operator of a negation
+    static final char CONSTANT = '@'; // Marker used as the operator of a named constant
+
+    final char operator;        // One of + - * / ^, NEGATE, a function, NUMBER, CONSTANT or VARIABLE
+    final BigDecimal value;     // The number of a literal, null otherwise
+    final String name;          // The name of a constant or variable, null otherwise
+    final double doubleValue;   // The number of a literal or constant as a double, 0 otherwise
+    final boolean compact;      // True if the literal fits the fixed-point fast path
+    final long unscaled;        // Unscaled value of a compact literal
+    final int scale;            // Scale of a compact literal
+    final ExpressionNode left;  // Left (or only) operand, null for a literal
+    final ExpressionNode right; // Right operand, null for a literal or negation
+
+    private ExpressionNode(char operator, BigDecimal value, double doubleValue, String name,
+                           ExpressionNode left, ExpressionNode right) {
+        this.operator = operator;
+        this.value = value;
+        this.name = name;
+        this.doubleValue = doubleValue;
+        this.compact = value != null && value.scale() >= 0 && value.unscaledValue().bitLength() < 64;
+        this.unscaled = this.compact ? value.unscaledValue().longValue() : 0;
+        this.scale = this.compact ? value.scale() : 0;
+        this.left = left;
+        this.right = right;
+    }
+
+    /**
+     * Creates a leaf node holding a number literal.
+     *
+     * @param value The number of the literal.
+     * @return The literal node.
+     */
+    static ExpressionNode number(BigDecimal value) {
+        return new ExpressionNode(NUMBER, value, value.doubleValue(), null, null, null);
+    }
+
+    /**
+     * Creates a leaf node holding the result of folding a constant
+     * subexpression. The double value is given separately because it must
+     * be the result of double arithmetic, which can differ from the exact
+     * result converted to a double.
+     *
+     * @param value       The exact result.
+     * @param doubleValue The result with double arithmetic.
+     * @return The literal node.
+     */
+    static ExpressionNode folded(BigDecimal value, double doubleValue) {
+        return new ExpressionNode(NUMBER, value, doubleValue, null, null, null);
+    }
+
+    /**
+     * Creates a leaf node holding a named constant, whose exact value
+     * depends on the precision it is evaluated with.
+     *
+     * @param name The name of the constant, from {@link MathFunctions}.
+     * @return The constant node.
+     */
+    static ExpressionNode constant(String name) {
+        return new ExpressionNode(CONSTANT, null, MathFunctions.constant(name), name, null, null);
+    }
+
+    /**
+     * Creates a leaf node reading a named variable.
+     *
+     * @param name The name of the variable.
+     * @return The variable node.
+     */
+    static ExpressionNode variable(String name) {
+        return new ExpressionNode(VARIABLE, null, 0, name, null, null);
+    }
+
+    /**
+     * Creates a node applying a unary operator to one operand.
+     *
+     * @param operator The operator character (NEGATE or a function marker).
+     * @param operand  The operand.
+     * @return The operator node.
+     */
+    static ExpressionNode unary(char operator, ExpressionNode operand) {
+        return new ExpressionNode(operator, null, 0, null, operand, null);
+    }
+
+    /**
+     * Creates a node applying a binary operator to two operands.
+     *
+     * @param operator The operator character (+, -, *, / or ^).
+     * @param left     The left operand.
+     * @param right    The right operand.
+     * @return The operator node.
+     */
+    static ExpressionNode binary(char operator, ExpressionNode left, ExpressionNode right) {
+        return new ExpressionNode(operator, null, 0, null, left, right);
+    }
+
+    /**
+     * @return true if this node is a number literal.
+     */
+    boolean isNumber() {
+        return this.operator == NUMBER;
+    }
+
+    /**
+     * @return true if this node is a named constant.
+     */
+    boolean isConstant() {
+        return this.operator == CONSTANT;
+    }
+
+    /**
+     * @return true if this node applies a function to its operand.
+     */
+    boolean isFunction() {
+        return this.isUnary() && this.operator != NEGATE;
+    }
+
+    /**
+     * @return true if this node is a variable.
+     */
+    boolean isVariable() {
+        return this.operator == VARIABLE;
+    }
+
+    /**
+     * @return true if this node has no operands.
+     */
+    boolean isLeaf() {
+        return this.left == null;
+    }
+
+    /**
+     * @return true if this node has a single operand.
+     */
+    boolean isUnary() {
+        return this.left != null && this.right == null;
+    }
+}
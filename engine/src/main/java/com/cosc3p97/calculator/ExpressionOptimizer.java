@@ -0,0 +1,177 @@
+package com.cosc3p97.calculator;
+
+import java.math.BigDecimal;
+
+/**
+ * Simplifies a compiled expression before it is evaluated repeatedly.
+ * <ul>
+ * <li>Constant subexpressions are folded into a single literal, so
+ * {@code (2^10*3)*x} becomes {@code 3072*x}. A folded literal keeps both
+ * the exact result and the result of double arithmetic, so both modes of
+ * evaluation give the same answers as before. Operations that fail, such
+ * as {@code 1/0}, are left in place to fail when evaluated, and results
+ * longer than {@value #MAX_FOLDED_DIGITS} digits are not folded. Functions
+ * and named constants are never folded, since their values depend on the
+ * precision they are evaluated with. Nothing is folded for an
+ * expression evaluated with a rounding {@link PrecisionPolicy}, since a
+ * folded value would skip the rounding of each step and could differ
+ * entirely, as {@code 0.004*1000} does under two decimal places.</li>
+ * <li>Identity operations are removed: {@code x*1}, {@code 1*x},
+ * {@code x/1}, {@code x^1} and {@code --x} always, and {@code x+0},
+ * {@code 0+x} and {@code x-0} when the scale of {@code x} is known not to
+ * be negative, since adding zero raises a negative scale to zero. Only
+ * division and functions produce negative scales, and variable values are assumed to
+ * have the non-negative scale of any number written in plain digits.
+ * Identities are removed under any precision, since rounding a value
+ * twice gives the same value as rounding it once.</li>
+ * </ul>
+ * Parentheses only shape the tree and leave no nodes of their own, so
+ * nested parentheses need no flattening. One difference remains possible:
+ * in double mode, removing {@code +0} keeps the sign of a negative zero.
+ * <p>
+ * The optimizer works over the program in order, operands before the
+ * operators that use them, so it needs no recursion however deep the
+ * expression is.
+ */
+final class ExpressionOptimizer {
+
+    static final int MAX_FOLDED_DIGITS = 1000; // Longest result folded into a literal
+
+    // Bounds a folded result so optimizing cannot be made to do unbounded work
+    private static final EvaluationLimits FOLDING_LIMITS = EvaluationLimits.NONE.withMaxDigits(MAX_FOLDED_DIGITS);
+
+    private ExpressionOptimizer() {
+    }
+
+    /**
+     * Builds the simplified tree of a compiled program.
+     *
+     * @param program    The nodes of the program, operands first.
+     * @param leftSlots  The program index of each node's left operand.
+     * @param rightSlots The program index of each node's right operand.
+     * @param fold       Whether to fold constant subexpressions, which is
+     *                   only correct for exact evaluation.
+     * @return The root of the simplified tree.
+     */
+    static ExpressionNode optimize(ExpressionNode[] program, int[] leftSlots, int[] rightSlots, boolean fold) {
+        int length = program.length;
+        ExpressionNode[] optimized = new ExpressionNode[length]; // Simplified node of each slot
+        boolean[] plainScale = new boolean[length];              // True if a slot's scale cannot be negative
+
+        for (int i = 0; i < length; i++) {
+            ExpressionNode node = program[i];
+
+            if (node.isLeaf()) {
+                optimized[i] = node;
+                plainScale[i] = !node.isNumber() || node.value.scale() >= 0;
+                continue;
+            }
+
+            ExpressionNode left = optimized[leftSlots[i]];
+            if (node.isFunction()) {
+                // Functions are not folded: their values depend on the precision
+                optimized[i] = left == node.left ? node : ExpressionNode.unary(node.operator, left);
+                plainScale[i] = false; // A rounded result can have any scale
+                continue;
+            }
+            if (node.isUnary()) {
+                optimized[i] = negate(node, left, fold);
+                plainScale[i] = plainScale[leftSlots[i]];
+                continue;
+            }
+
+            ExpressionNode right = optimized[rightSlots[i]];
+            boolean leftPlain = plainScale[leftSlots[i]];
+            boolean rightPlain = plainScale[rightSlots[i]];
+            optimized[i] = simplify(node, left, right, leftPlain, rightPlain, fold);
+            plainScale[i] = optimized[i].isNumber()
+                    ? optimized[i].value.scale() >= 0
+                    : node.operator != '/' && leftPlain && (node.operator == '^' || rightPlain);
+        }
+
+        return optimized[length - 1];
+    }
+
+    /**
+     * Simplifies a negation.
+     *
+     * @param node    The original negation.
+     * @param operand The simplified operand.
+     * @param fold    Whether a literal operand may be folded.
+     * @return The simplified negation.
+     */
+    private static ExpressionNode negate(ExpressionNode node, ExpressionNode operand, boolean fold) {
+        if (fold && operand.isNumber())
+            return ExpressionNode.folded(operand.value.negate(), -operand.doubleValue);
+        if (operand.operator == ExpressionNode.NEGATE)
+            return operand.left; // --x is x
+        return operand == node.left ? node : ExpressionNode.unary(ExpressionNode.NEGATE, operand);
+    }
+
+    /**
+     * Simplifies a binary operation by folding it or removing an identity.
+     *
+     * @param node       The original operation.
+     * @param left       The simplified left operand.
+     * @param right      The simplified right operand.
+     * @param leftPlain  True if the left operand's scale cannot be negative.
+     * @param rightPlain True if the right operand's scale cannot be negative.
+     * @param fold       Whether literal operands may be folded.
+     * @return The simplified operation.
+     */
+    private static ExpressionNode simplify(ExpressionNode node, ExpressionNode left, ExpressionNode right,
+                                           boolean leftPlain, boolean rightPlain, boolean fold) {
+        char operator = node.operator;
+
+        if (fold && left.isNumber() && right.isNumber()) {
+            try {
+                BigDecimal value = CompiledExpression.apply(operator, left.value, right.value, FOLDING_LIMITS, 0);
+                FOLDING_LIMITS.checkDigits(value);
+                return ExpressionNode.folded(value, CompiledExpression.apply(operator, left.doubleValue, right.doubleValue));
+            } catch (ArithmeticException | EvaluationLimitException e) {
+                // Leave the operation to be evaluated, and fail, as written
+            }
+        }
+
+        switch (operator) {
+            case '*':
+                if (isOne(right))
+                    return left;
+                if (isOne(left))
+                    return right;
+                break;
+            case '/':
+            case '^':
+                if (isOne(right))
+                    return left;
+                break;
+            case '+':
+                if (isZero(right) && leftPlain)
+                    return left;
+                if (isZero(left) && rightPlain)
+                    return right;
+                break;
+            case '-':
+                if (isZero(right) && leftPlain)
+                    return left;
+                break;
+        }
+
+        return left == node.left && right == node.right ? node : ExpressionNode.binary(operator, left, right);
+    }
+
+    /**
+     * @return true if the node is the literal 1 with no decimal places, the
+     * only form whose multiplication leaves the scale unchanged.
+     */
+    private static boolean isOne(ExpressionNode node) {
+        return node.isNumber() && node.compact && node.unscaled == 1 && node.scale == 0;
+    }
+
+    /**
+     * @return true if the node is the literal 0 with no decimal places.
+     */
+    private static boolean isZero(ExpressionNode node) {
+        return node.isNumber() && node.compact && node.unscaled == 0 && node.scale == 0;
+    }
+}
@@ -0,0 +1,208 @@
+package com.cosc3p97.calculator;
+
+import java.math.BigDecimal;
+
+/**
+ * Builds an expression tree from the tokens of a mathematical expression
+ * in a single left-to-right pass (shunting-yard). Operators wait on a stack
+ * until an operator of lower or equal precedence arrives, so the tree follows
+ * standard order of operations: parentheses first, then exponents, then
+ * multiplication and division, then addition and subtraction. Operators of
+ * the same precedence are applied left to right. A leading minus negates
+ * its operand and binds tighter than multiplication but looser than
+ * exponents, so -2^2 is -4.
+ * <p>
+ * A name followed by parentheses, such as {@code sqrt(2)}, applies a
+ * function from {@link MathFunctions} to the value inside them, and the
+ * names {@code pi} and {@code e} are constants. Any other name is a variable.
+ * <p>
+ * Parsing takes time proportional to the number of tokens, and uses explicit
+ * stacks rather than recursion so deeply nested input cannot overflow the
+ * call stack. Given an {@link ExpressionInterner}, the parser builds every
+ * node through it, so repeated subexpressions share one node.
+ */
+final class ExpressionParser {
+
+    private final ExpressionLexer lexer;       // Lexer holding the tokens of the expression
+    private final CharSequence expression;     // The expression the lexer tokenized
+    private final ExpressionInterner interner; // Table shared nodes come from, or null for none
+
+    private final int[] operators;           // Stack of operators waiting for their operands
+    private final ExpressionNode[] operands; // Stack of operand nodes built so far
+    private int operatorCount;               // Number of operators on the stack
+    private int operandCount;                // Number of operands on the stack
+    private char[] digits = new char[32];    // Scratch buffer for the characters of a number
+
+    /**
+     * Constructor that initializes the parser with the tokens found by a lexer.
+     *
+     * @param lexer      The lexer holding the tokens of the expression.
+     * @param expression The expression the lexer tokenized.
+     */
+    ExpressionParser(ExpressionLexer lexer, CharSequence expression) {
+        this(lexer, expression, null);
+    }
+
+    /**
+     * Constructor that initializes the parser with the tokens found by a
+     * lexer and a table to share nodes through.
+     *
+     * @param lexer      The lexer holding the tokens of the expression.
+     * @param expression The expression the lexer tokenized.
+     * @param interner   The table to intern nodes in, or null for none.
+     */
+    ExpressionParser(ExpressionLexer lexer, CharSequence expression, ExpressionInterner interner) {
+        this.lexer = lexer;
+        this.expression = expression;
+        this.interner = interner;
+        this.operators = new int[lexer.count()];
+        this.operands = new ExpressionNode[lexer.count()];
+    }
+
+    /**
+     * Returns the binding strength of an operator on the stack; higher
+     * values are applied first.
+     *
+     * @param operator The operator character.
+     * @return The precedence of the operator, or -1 for a parenthesis.
+     */
+    static int precedence(int operator) {
+        switch (operator) {
+            case '+':
+            case '-':
+                return 1;
+            case '*':
+            case '/':
+                return 2;
+            case ExpressionNode.NEGATE:
+                return 3;
+            case '^':
+                return 4;
+            default:
+                return -1; // Parentheses are never applied as operators
+        }
+    }
+
+    /**
+     * Converts the number token at the specified index to its value,
+     * reading the digits straight from the expression.
+     *
+     * @param index The index of the number token.
+     * @return The value of the number.
+     * @throws NumberFormatException If the token is not a valid number.
+     */
+    private BigDecimal number(int index) {
+        int start = this.lexer.start(index);
+        int length = this.lexer.end(index) - start;
+
+        if (length > this.digits.length)
+            this.digits = new char[length];
+        for (int i = 0; i < length; i++)
+            this.digits[i] = this.expression.charAt(start + i);
+
+        return new BigDecimal(this.digits, 0, length);
+    }
+
+    /**
+     * Returns the shared node matching a newly built one.
+     *
+     * @param node The new node.
+     * @return The shared node, or the new node if there is no table.
+     */
+    private ExpressionNode intern(ExpressionNode node) {
+        return this.interner == null ? node : this.interner.intern(node);
+    }
+
+    /**
+     * Pops the top operator and its operands and pushes the node combining them.
+     */
+    private void applyTopOperator() {
+        int operator = this.operators[--this.operatorCount];
+
+        if (operator == ExpressionNode.NEGATE || MathFunctions.isFunction(operator)) {
+            this.operands[this.operandCount - 1] =
+                    this.intern(ExpressionNode.unary((char) operator, this.operands[this.operandCount - 1]));
+        } else {
+            ExpressionNode right = this.operands[--this.operandCount];
+            ExpressionNode left = this.operands[this.operandCount - 1];
+            this.operands[this.operandCount - 1] = this.intern(ExpressionNode.binary((char) operator, left, right));
+        }
+    }
+
+    /**
+     * Parses the tokens into an expression tree.
+     *
+     * @return The root node of the expression tree.
+     * @throws IllegalArgumentException If the expression is malformed.
+     */
+    ExpressionNode parse() {
+        boolean expectOperand = true; // True when the next token must start an operand
+
+        for (int i = 0; i < this.lexer.count(); i++) {
+            int type = this.lexer.type(i);
+
+            if (type == ExpressionLexer.NUMBER) {
+                if (!expectOperand)
+                    throw new IllegalArgumentException("Missing operator before position " + this.lexer.start(i));
+                this.operands[this.operandCount++] = this.intern(ExpressionNode.number(this.number(i)));
+                expectOperand = false;
+            } else if (type == ExpressionLexer.IDENTIFIER) {
+                if (!expectOperand)
+                    throw new IllegalArgumentException("Missing operator before position " + this.lexer.start(i));
+                String name = this.expression.subSequence(this.lexer.start(i), this.lexer.end(i)).toString();
+                char function = MathFunctions.function(name);
+                if (function != 0) {
+                    // Applied when the parenthesis that must follow is closed
+                    if (i + 1 == this.lexer.count() || this.lexer.type(i + 1) != '(')
+                        throw new IllegalArgumentException("Missing parenthesis after " + name);
+                    this.operators[this.operatorCount++] = function;
+                } else {
+                    this.operands[this.operandCount++] = this.intern(MathFunctions.isConstant(name)
+                            ? ExpressionNode.constant(name)
+                            : ExpressionNode.variable(name));
+                    expectOperand = false;
+                }
+            } else if (type == '(') {
+                if (!expectOperand)
+                    throw new IllegalArgumentException("Missing operator before position " + this.lexer.start(i));
+                this.operators[this.operatorCount++] = type;
+            } else if (type == ')') {
+                if (expectOperand)
+                    throw new IllegalArgumentException("Missing operand in expression");
+                // Apply everything back to the matching opening parenthesis
+                while (this.operatorCount > 0 && this.operators[this.operatorCount - 1] != '(')
+                    this.applyTopOperator();
+                if (this.operatorCount == 0)
+                    throw new IllegalArgumentException("Unbalanced parentheses in expression");
+                this.operatorCount--; // Discard the opening parenthesis
+                if (this.operatorCount > 0 && MathFunctions.isFunction(this.operators[this.operatorCount - 1]))
+                    this.applyTopOperator(); // The function the parentheses belong to
+            } else if (expectOperand) {
+                // An operator where an operand should start is a sign
+                if (type == '-')
+                    this.operators[this.operatorCount++] = ExpressionNode.NEGATE;
+                else if (type != '+')
+                    throw new IllegalArgumentException("Missing operand in expression");
+            } else {
+                // Apply waiting operators that bind at least as tightly (left to right)
+                while (this.operatorCount > 0
+                        && precedence(this.operators[this.operatorCount - 1]) >= precedence(type))
+                    this.applyTopOperator();
+                this.operators[this.operatorCount++] = type;
+                expectOperand = true;
+            }
+        }
+
+        if (expectOperand)
+            throw new IllegalArgumentException(this.lexer.count() == 0
+                    ? "Empty expression" : "Missing operand in expression");
+
+        while (this.operatorCount > 0) {
+            if (this.operators[this.operatorCount - 1] == '(')
+                throw new IllegalArgumentException("Unbalanced parentheses in expression");
+            this.applyTopOperator();
+        }
+
+        return this.operands[0]; // Return the root of the tree
+    }
+}
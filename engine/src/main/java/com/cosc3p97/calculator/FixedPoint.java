@@ -0,0 +1,82 @@
+package com.cosc3p97.calculator;
+
+/**
+ * Exact arithmetic on decimal numbers stored as a long unscaled value and
+ * an int scale, the same representation BigDecimal uses for small values
+ * (the number is unscaled * 10^-scale). Every method follows the BigDecimal
+ * rules for the scale of its result, so results are identical to the
+ * BigDecimal ones. When a result does not fit in a long the method throws
+ * ArithmeticException and the caller redoes the operation with BigDecimal.
+ */
+final class FixedPoint {
+
+    // Powers of ten that fit in a long, indexed by exponent
+    static final long[] POWERS_OF_TEN = {
+            1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L,
+            100_000_000L, 1_000_000_000L, 10_000_000_000L, 100_000_000_000L,
+            1_000_000_000_000L, 10_000_000_000_000L, 100_000_000_000_000L,
+            1_000_000_000_000_000L, 10_000_000_000_000_000L, 100_000_000_000_000_000L,
+            1_000_000_000_000_000_000L
+    };
+
+    // Largest exponent BigDecimal.pow accepts
+    static final int MAX_EXPONENT = 999_999_999;
+
+    private FixedPoint() {
+    }
+
+    /**
+     * Multiplies an unscaled value by a power of ten, which raises its
+     * scale by the same number of digits without changing the number.
+     *
+     * @param unscaled The unscaled value.
+     * @param digits   The number of digits to add to the scale.
+     * @return The rescaled unscaled value.
+     * @throws ArithmeticException If the result does not fit in a long.
+     */
+    static long rescale(long unscaled, int digits) {
+        if (digits == 0 || unscaled == 0)
+            return unscaled;
+        if (digits >= POWERS_OF_TEN.length)
+            throw new ArithmeticException("long overflow");
+
+        return Math.multiplyExact(unscaled, POWERS_OF_TEN[digits]);
+    }
+
+    /**
+     * Returns the exponent a fixed-point value represents, when it is a
+     * whole number that BigDecimal.pow accepts.
+     *
+     * @param unscaled The unscaled value of the exponent.
+     * @param scale    The scale of the exponent.
+     * @return The exponent, or -1 if BigDecimal would reject it.
+     */
+    static int exponent(long unscaled, int scale) {
+        if (scale < 0 || scale >= POWERS_OF_TEN.length || unscaled % POWERS_OF_TEN[scale] != 0)
+            return -1;
+
+        long exponent = unscaled / POWERS_OF_TEN[scale];
+        return exponent >= 0 && exponent <= MAX_EXPONENT ? (int) exponent : -1;
+    }
+
+    /**
+     * Raises an unscaled value to a power by repeated squaring.
+     *
+     * @param base     The unscaled value.
+     * @param exponent The non-negative exponent.
+     * @return The unscaled value of the power.
+     * @throws ArithmeticException If the result does not fit in a long.
+     */
+    static long pow(long base, int exponent) {
+        long result = 1;
+
+        while (exponent != 0) {
+            if ((exponent & 1) != 0)
+                result = Math.multiplyExact(result, base);
+            exponent >>>= 1;
+            if (exponent != 0)
+                base = Math.multiplyExact(base, base); // Square only while bits remain
+        }
+        return result;
+    }
+}
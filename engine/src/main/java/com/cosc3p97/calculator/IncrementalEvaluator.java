@@ -0,0 +1,447 @@
+package com.cosc3p97.calculator;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+
+/**
+ * Keeps the value of an expression up to date while it is being edited, for
+ * a live result preview. The evaluator holds the text, its tokens, and the
+ * parser state before every token; each partial result is computed once,
+ * when the parser combines its operands. An edit throws away only the
+ * tokens from the first one it touches onward, then re-lexes and re-parses
+ * the text after that point starting from the saved state. Typing at the
+ * end of an expression therefore costs the same however long the
+ * expression is.
+ * <p>
+ * The parser state is kept in immutable linked stacks that share their
+ * tails. Saving the state before each token costs one small object instead
+ * of a copy of the stacks.
+ * <p>
+ * Previews follow the same rules as {@link EquationCalculator}, except that
+ * parentheses still open at the end are treated as closed, and are rounded
+ * to the evaluator's {@link PrecisionPolicy}. Functions and constants are
+ * previewed only when the policy gives them a value. Unless the policy bounds the
+ * significant digits, exponents whose result would have more than
+ * {@value #MAX_PREVIEW_DIGITS} digits are not previewed, so a half-typed
+ * exponent cannot stall the preview.
+ * <p>
+ * An evaluator given {@link EvaluationLimits} applies their digit limit to
+ * every number and partial result, and their timeout to each edit and each
+ * preview; a value that exceeds them is not previewed. The computations
+ * check for interruption of the current thread, so a preview that is no
+ * longer wanted can be stopped: the interrupted call throws a
+ * {@link java.util.concurrent.CancellationException}, the edit's text is
+ * kept, and the tokens it did not finish parsing are parsed again by the
+ * next edit.
+ * <p>
+ * An evaluator is not thread-safe. Apply edits from one thread, in the
+ * order they were made.
+ */
+public final class IncrementalEvaluator {
+
+    static final int MAX_PREVIEW_DIGITS = 10000; // Largest power computed for a preview
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * An operand waiting on the parser's stack, with its value already computed.
+     */
+    private static final class Operand {
+        final BigDecimal value; // The value, null if it cannot be computed
+        final Operand next;     // The operand below this one
+
+        Operand(BigDecimal value, Operand next) {
+            this.value = value;
+            this.next = next;
+        }
+    }
+
+    /**
+     * An operator or opening parenthesis waiting on the parser's stack.
+     */
+    private static final class Operator {
+        final int operator; // The operator character, NEGATE, a function or '('
+        final Operator next; // The operator below this one
+
+        Operator(int operator, Operator next) {
+            this.operator = operator;
+            this.next = next;
+        }
+    }
+
+    /**
+     * The state of the parser between two tokens.
+     */
+    private static final class State {
+        final Operand operands;      // Operand stack, null when empty
+        final Operator operators;    // Operator stack, null when empty
+        final boolean expectOperand; // True when the next token must start an operand
+
+        State(Operand operands, Operator operators, boolean expectOperand) {
+            this.operands = operands;
+            this.operators = operators;
+            this.expectOperand = expectOperand;
+        }
+    }
+
+    private static final State INITIAL = new State(null, null, true);
+
+    private final StringBuilder text = new StringBuilder();   // The expression being edited
+    private final ExpressionLexer lexer = new ExpressionLexer(); // Lexes the text after an edit
+
+    private int[] types = new int[INITIAL_CAPACITY];          // Type of each token
+    private int[] starts = new int[INITIAL_CAPACITY];         // Start of each token in the text
+    private int[] ends = new int[INITIAL_CAPACITY];           // End of each token in the text
+    private State[] states = new State[INITIAL_CAPACITY + 1]; // Parser state before each token
+    private int tokenCount;           // Number of tokens lexed
+    private int parsedCount;          // Number of tokens parsed before any syntax error
+    private boolean lexed;            // False if lexing stopped at an invalid character
+    private int reparsedTokens;       // Number of tokens parsed by the last edit
+    private char[] digits = new char[32]; // Scratch buffer for the characters of a number
+    private final PrecisionPolicy precision; // Rounding applied to every value
+    private final EvaluationLimits limits;   // Bounds on every value and on the time of each call
+    private long deadline;                   // The time the current edit or preview must finish by
+
+    /**
+     * Constructor for an evaluator with empty text and exact previews.
+     */
+    public IncrementalEvaluator() {
+        this(PrecisionPolicy.EXACT);
+    }
+
+    /**
+     * Constructor for an evaluator with empty text whose previews are
+     * rounded to a precision.
+     *
+     * @param precision The precision to round every value to.
+     */
+    public IncrementalEvaluator(PrecisionPolicy precision) {
+        this(precision, EvaluationLimits.NONE);
+    }
+
+    /**
+     * Constructor for an evaluator with empty text whose previews are
+     * rounded to a precision and computed within limits.
+     *
+     * @param precision The precision to round every value to.
+     * @param limits    The digit limit for every value, and the timeout for
+     *                  each edit and each preview.
+     */
+    public IncrementalEvaluator(PrecisionPolicy precision, EvaluationLimits limits) {
+        this.precision = precision;
+        this.limits = limits;
+        this.states[0] = INITIAL;
+        this.lexed = true;
+    }
+
+    /**
+     * Replaces a range of the text. The arguments match those of a text
+     * change listener: the edit starts at {@code start}, removes
+     * {@code before} characters, and inserts {@code inserted} in their place.
+     *
+     * @param start    The index the edit starts at.
+     * @param before   The number of characters removed.
+     * @param inserted The characters inserted.
+     * @throws IndexOutOfBoundsException If the range is not within the text.
+     * @throws java.util.concurrent.CancellationException If the current thread
+     *                                                    is interrupted while the text is parsed.
+     */
+    public void replace(int start, int before, CharSequence inserted) {
+        if (start < 0 || before < 0 || start + before > this.text.length())
+            throw new IndexOutOfBoundsException("Edit [" + start + ", " + (start + before)
+                    + ") outside text of length " + this.text.length());
+
+        this.text.replace(start, start + before, inserted.toString());
+
+        // Tokens ending before the edit are unchanged; a number or name
+        // ending at the edit may be extended by it, so it is lexed again
+        int restart = this.firstTokenEndingAtOrAfter(start);
+        if (restart < this.tokenCount && this.ends[restart] == start
+                && this.types[restart] != ExpressionLexer.NUMBER && this.types[restart] != ExpressionLexer.IDENTIFIER)
+            restart++;
+        restart = Math.min(restart, this.parsedCount);
+        this.deadline = this.limits.deadline();
+        this.resume(restart);
+    }
+
+    /**
+     * Replaces all of the text.
+     *
+     * @param text The new text.
+     */
+    public void setText(CharSequence text) {
+        this.replace(0, this.text.length(), text);
+    }
+
+    /**
+     * @return The current value of the expression, or null if the text is
+     * not a complete expression or its value cannot be computed.
+     * @throws java.util.concurrent.CancellationException If the current thread is interrupted.
+     */
+    public BigDecimal preview() {
+        if (!this.lexed || this.parsedCount < this.tokenCount)
+            return null;
+
+        State state = this.states[this.tokenCount];
+        if (state.expectOperand)
+            return null; // Empty, or ends with an operator
+
+        this.deadline = this.limits.deadline();
+        Operand operands = state.operands;
+        for (Operator top = state.operators; top != null; top = top.next) {
+            if (top.operator != '(') // Parentheses still open are closed here
+                operands = this.apply(top.operator, operands);
+        }
+        return operands.value;
+    }
+
+    /**
+     * @return The number of tokens the last edit parsed.
+     */
+    int reparsedTokens() {
+        return this.reparsedTokens;
+    }
+
+    @Override
+    public String toString() {
+        return this.text.toString();
+    }
+
+    /**
+     * Finds the first token that ends at or after a position of the text.
+     *
+     * @param position The position in the text.
+     * @return The index of the token, or the number of tokens if there is none.
+     */
+    private int firstTokenEndingAtOrAfter(int position) {
+        int low = 0;
+        int high = this.tokenCount;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (this.ends[middle] < position)
+                low = middle + 1;
+            else
+                high = middle;
+        }
+        return low;
+    }
+
+    /**
+     * Lexes and parses the text again from the start of a token, resuming
+     * from the parser state saved before it. The state after a token is
+     * saved only once the token is parsed, so an interruption leaves the
+     * tokens from the interrupted one onward to be parsed again.
+     *
+     * @param restart The index of the first token to parse again.
+     */
+    private void resume(int restart) {
+        int from = restart == 0 ? 0 : this.ends[restart - 1];
+        this.tokenCount = restart;
+        this.parsedCount = restart;
+        this.reparsedTokens = 0;
+
+        int count;
+        try {
+            count = this.lexer.tokenize(this.text.subSequence(from, this.text.length()));
+            this.lexed = true;
+        } catch (IllegalArgumentException e) {
+            this.lexed = false; // No preview until the invalid character is removed
+            return;
+        }
+
+        this.ensureCapacity(restart + count);
+        for (int i = 0; i < count; i++) {
+            this.types[restart + i] = this.lexer.type(i);
+            this.starts[restart + i] = from + this.lexer.start(i);
+            this.ends[restart + i] = from + this.lexer.end(i);
+        }
+        this.tokenCount = restart + count;
+
+        while (this.parsedCount < this.tokenCount) {
+            State next = this.step(this.states[this.parsedCount], this.parsedCount);
+            if (next == null)
+                break; // A syntax error; tokens after it are not parsed
+            this.states[++this.parsedCount] = next;
+            this.reparsedTokens++;
+        }
+    }
+
+    /**
+     * Grows the token arrays to hold at least the specified number of tokens.
+     *
+     * @param capacity The number of tokens needed.
+     */
+    private void ensureCapacity(int capacity) {
+        if (capacity <= this.types.length)
+            return;
+
+        int newCapacity = Math.max(capacity, this.types.length * 2);
+        this.types = Arrays.copyOf(this.types, newCapacity);
+        this.starts = Arrays.copyOf(this.starts, newCapacity);
+        this.ends = Arrays.copyOf(this.ends, newCapacity);
+        this.states = Arrays.copyOf(this.states, newCapacity + 1);
+    }
+
+    /**
+     * Parses one token, following the same rules as {@link ExpressionParser}.
+     *
+     * @param state The parser state before the token.
+     * @param index The index of the token.
+     * @return The parser state after the token, or null if the token is a syntax error.
+     */
+    private State step(State state, int index) {
+        int type = this.types[index];
+        Operand operands = state.operands;
+        Operator operators = state.operators;
+
+        if (type == ExpressionLexer.NUMBER) {
+            if (!state.expectOperand)
+                return null;
+            BigDecimal value = this.number(index);
+            return value == null ? null : new State(new Operand(value, operands), operators, false);
+        }
+        if (type == ExpressionLexer.IDENTIFIER) {
+            if (!state.expectOperand)
+                return null;
+            String name = this.text.substring(this.starts[index], this.ends[index]);
+            char function = MathFunctions.function(name);
+            if (function != 0) {
+                // The argument's parentheses must follow, as in the parser
+                if (index + 1 >= this.tokenCount || this.types[index + 1] != '(')
+                    return null;
+                return new State(operands, new Operator(function, operators), true);
+            }
+            BigDecimal value = MathFunctions.isConstant(name) ? this.constant(name) : null; // Variables have no value to preview
+            return new State(new Operand(value, operands), operators, false);
+        }
+        if (type == '(') {
+            return state.expectOperand ? new State(operands, new Operator(type, operators), true) : null;
+        }
+        if (type == ')') {
+            if (state.expectOperand)
+                return null;
+            // Apply everything back to the matching opening parenthesis
+            while (operators != null && operators.operator != '(') {
+                operands = this.apply(operators.operator, operands);
+                operators = operators.next;
+            }
+            if (operators == null)
+                return null;
+            operators = operators.next;
+            if (operators != null && MathFunctions.isFunction(operators.operator)) {
+                operands = this.apply(operators.operator, operands); // The parentheses held its argument
+                operators = operators.next;
+            }
+            return new State(operands, operators, false);
+        }
+        if (state.expectOperand) {
+            // An operator where an operand should start is a sign
+            if (type == '-')
+                return new State(operands, new Operator(ExpressionNode.NEGATE, operators), true);
+            return type == '+' ? state : null;
+        }
+
+        // Apply waiting operators that bind at least as tightly (left to right)
+        while (operators != null && ExpressionParser.precedence(operators.operator) >= ExpressionParser.precedence(type)) {
+            operands = this.apply(operators.operator, operands);
+            operators = operators.next;
+        }
+        return new State(operands, new Operator(type, operators), true);
+    }
+
+    /**
+     * Converts the number token at the specified index to its value.
+     *
+     * @param index The index of the number token.
+     * @return The value of the number, or null if it is not a valid number.
+     */
+    private BigDecimal number(int index) {
+        int start = this.starts[index];
+        int length = this.ends[index] - start;
+
+        if (length > this.digits.length)
+            this.digits = new char[length];
+        this.text.getChars(start, start + length, this.digits, 0);
+
+        try {
+            BigDecimal value = new BigDecimal(this.digits, 0, length);
+            this.limits.checkDigits(value); // As typed, like the lexer checks it
+            return this.precision.round(value);
+        } catch (NumberFormatException | EvaluationLimitException e) {
+            return null; // A lone decimal point, or too many digits
+        }
+    }
+
+    /**
+     * Computes a constant for a preview.
+     *
+     * @param name The name of the constant.
+     * @return The constant at the evaluator's precision, or null if the policy gives it no value.
+     */
+    private BigDecimal constant(String name) {
+        try {
+            return this.precision.constant(name);
+        } catch (ArithmeticException e) {
+            return null; // Constants have no exact value
+        }
+    }
+
+    /**
+     * Applies an operator to the operands on top of a stack.
+     *
+     * @param operator The operator character, NEGATE or a function.
+     * @param operands The operand stack.
+     * @return The operand stack with the operands replaced by the result.
+     */
+    private Operand apply(int operator, Operand operands) {
+        if (operator == ExpressionNode.NEGATE) {
+            BigDecimal value = operands.value;
+            return new Operand(value == null ? null : value.negate(), operands.next);
+        }
+        if (MathFunctions.isFunction(operator))
+            return new Operand(this.function((char) operator, operands.value), operands.next);
+
+        Operand left = operands.next;
+        return new Operand(this.value((char) operator, left.value, operands.value), left.next);
+    }
+
+    /**
+     * Computes a function for a preview.
+     *
+     * @return The result, or null if it cannot be computed.
+     */
+    private BigDecimal function(char function, BigDecimal value) {
+        if (value == null)
+            return null;
+
+        try {
+            BigDecimal result = this.precision.function(function, value, this.limits, this.deadline);
+            this.limits.checkDigits(result);
+            return result;
+        } catch (ArithmeticException | EvaluationLimitException e) {
+            return null; // An argument out of range, no exact result, or beyond the limits
+        }
+    }
+
+    /**
+     * Computes a binary operation for a preview.
+     *
+     * @return The result, or null if it cannot be computed or is too large to preview.
+     */
+    private BigDecimal value(char operator, BigDecimal left, BigDecimal right) {
+        if (left == null || right == null)
+            return null;
+        if (operator == '^' && !this.precision.boundsDigits() && (long) left.precision()
+                * right.abs().min(BigDecimal.valueOf(MAX_PREVIEW_DIGITS + 1)).longValue() > MAX_PREVIEW_DIGITS)
+            return null;
+
+        try {
+            BigDecimal result = this.precision.apply(operator, left, right, this.limits, this.deadline);
+            this.limits.checkDigits(result);
+            return result;
+        } catch (ArithmeticException | EvaluationLimitException e) {
+            return null; // Division by zero, an inexact quotient, a fractional exponent, or beyond the limits
+        }
+    }
+
+}
@@ -0,0 +1,118 @@
+package com.cosc3p97.calculator;
+
+/**
+ * The functions and constants an expression may name. A function is
+ * written as its name followed by its argument in parentheses, such as
+ * {@code sqrt(2)}, and parses to a node with one operand whose operator is
+ * the function's marker character. A constant is written as its bare name,
+ * such as {@code pi}, and parses to a constant node; a name that is neither
+ * is a variable.
+ * <p>
+ * Double evaluation uses {@link Math}; exact evaluation uses
+ * {@link BigDecimalMath} through {@link PrecisionPolicy}.
+ */
+final class MathFunctions {
+
+    static final char SQRT = 'r'; // Marker used as the operator of sqrt(x)
+    static final char LN = 'l';   // Marker used as the operator of ln(x)
+    static final char EXP = 'x';  // Marker used as the operator of exp(x)
+    static final char SIN = 's';  // Marker used as the operator of sin(x)
+    static final char COS = 'c';  // Marker used as the operator of cos(x)
+
+    static final String PI = "pi"; // Name of the ratio of a circle's circumference to its diameter
+    static final String E = "e";    // Name of the base of the natural logarithm
+
+    private MathFunctions() {
+    }
+
+    /**
+     * @param name A name from an expression.
+     * @return The marker of the function with that name, or 0 if there is none.
+     */
+    static char function(String name) {
+        switch (name) {
+            case "sqrt":
+                return SQRT;
+            case "ln":
+                return LN;
+            case "exp":
+                return EXP;
+            case "sin":
+                return SIN;
+            case "cos":
+                return COS;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * @param operator The operator character of a node.
+     * @return true if the operator is the marker of a function.
+     */
+    static boolean isFunction(int operator) {
+        return name((char) operator) != null;
+    }
+
+    /**
+     * @param function The marker of a function.
+     * @return The name the function is written with, or null if it is not a function.
+     */
+    static String name(char function) {
+        switch (function) {
+            case SQRT:
+                return "sqrt";
+            case LN:
+                return "ln";
+            case EXP:
+                return "exp";
+            case SIN:
+                return "sin";
+            case COS:
+                return "cos";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * @param name A name from an expression.
+     * @return true if the name is a constant.
+     */
+    static boolean isConstant(String name) {
+        return PI.equals(name) || E.equals(name);
+    }
+
+    /**
+     * @param name The name of a constant.
+     * @return The constant as a double.
+     */
+    static double constant(String name) {
+        return PI.equals(name) ? Math.PI : Math.E;
+    }
+
+    /**
+     * Applies a function with double arithmetic, following IEEE rules:
+     * the square root or logarithm of a negative number is NaN.
+     *
+     * @param function The marker of the function.
+     * @param value    The argument.
+     * @return The result of the function.
+     */
+    static double apply(char function, double value) {
+        switch (function) {
+            case SQRT:
+                return Math.sqrt(value);
+            case LN:
+                return Math.log(value);
+            case EXP:
+                return Math.exp(value);
+            case SIN:
+                return Math.sin(value);
+            case COS:
+                return Math.cos(value);
+            default:
+                throw new IllegalStateException("Unknown function: " + function);
+        }
+    }
+}
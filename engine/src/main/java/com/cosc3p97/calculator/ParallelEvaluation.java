@@ -0,0 +1,304 @@
+package com.cosc3p97.calculator;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * One exact evaluation of a compiled expression spread over a
+ * {@link ForkJoinPool}, for expressions whose operations on huge numbers
+ * dominate the work, such as {@code 7^20000*3^15000+11^9000*13^8000}.
+ * <p>
+ * Before evaluating, the cost of every operation is estimated from the
+ * number of digits of its operands, which follows from the digits of the
+ * literals and variables and the size of literal exponents: adding costs
+ * the digits of the larger operand, multiplying and dividing the product
+ * of the operands' digits, and a power about the square of the digits of
+ * its result. An operation estimated to cost at least {@link #TASK_COST}
+ * runs as a task of its own, so independent heavy operations run on
+ * different cores at once; every other operation runs on whichever thread
+ * needs its result, as part of that thread's work. An expression with fewer
+ * than two heavy operations has nothing to run side by side and is
+ * evaluated sequentially without creating any task.
+ * <p>
+ * Results are identical to sequential evaluation, since every operation is
+ * the same BigDecimal operation on the same operands. If an operation fails
+ * the evaluation stops and the exception it threw, the very same object,
+ * is thrown to the caller; if several operations fail at once, the first
+ * to fail wins.
+ */
+final class ParallelEvaluation {
+
+    // Estimated work, in products of digits, that is worth a task of its
+    // own: about a multiplication of two 1000-digit numbers
+    static final double TASK_COST = 1e6;
+
+    private final ExpressionNode[] program;   // Nodes ordered so operands come first
+    private final int[] leftSlots;            // Program index of each node's left operand
+    private final int[] rightSlots;           // Program index of each node's right operand
+    private final EvaluationLimits limits;    // Bounds checked by every operation
+    private final long deadline;              // The time the evaluation must finish by
+
+    private final AtomicReferenceArray<BigDecimal> values; // Value of each slot once computed
+    private final SlotTask[] tasks;           // Task of each heavy slot, null for the others
+    private final int taskCount;              // Number of heavy slots
+    private final AtomicReference<RuntimeException> failure = new AtomicReference<>(); // First failure, stops the others
+
+    /**
+     * Constructor that estimates the cost of every operation of a program
+     * and creates a task for each heavy one. No task is started.
+     *
+     * @param program    The nodes of the program, operands first.
+     * @param leftSlots  The program index of each node's left operand, or
+     *                   the variable index of a variable node.
+     * @param rightSlots The program index of each node's right operand.
+     * @param variables  The value of each variable.
+     * @param limits     The limits to evaluate within.
+     */
+    ParallelEvaluation(ExpressionNode[] program, int[] leftSlots, int[] rightSlots,
+                       BigDecimal[] variables, EvaluationLimits limits) {
+        this.program = program;
+        this.leftSlots = leftSlots;
+        this.rightSlots = rightSlots;
+        this.limits = limits;
+        this.deadline = limits.deadline();
+        this.values = new AtomicReferenceArray<>(program.length);
+        this.tasks = new SlotTask[program.length];
+
+        double[] digits = new double[program.length]; // Estimated digits of each slot's value
+        int heavy = 0;
+        for (int i = 0; i < program.length; i++) {
+            ExpressionNode node = program[i];
+            if (node.isLeaf()) {
+                BigDecimal value = node.isNumber() ? node.value
+                        : node.isVariable() ? variables[leftSlots[i]]
+                        : PrecisionPolicy.EXACT.constant(node.name); // Constants have no exact value
+                limits.checkDigits(value);
+                this.values.set(i, value); // Leaves are ready from the start
+                digits[i] = value.precision();
+                continue;
+            }
+
+            double left = digits[leftSlots[i]];
+            double right = node.isUnary() ? 0 : digits[rightSlots[i]];
+            double cost;
+            switch (node.isUnary() ? ExpressionNode.NEGATE : node.operator) {
+                case '^':
+                    BigDecimal exponent = this.values.get(rightSlots[i]); // Known if it is a leaf
+                    double times = exponent == null ? 1 : Math.max(1, Math.abs(exponent.doubleValue()));
+                    digits[i] = left * times;
+                    cost = digits[i] * digits[i] / 3; // The last squaring dominates
+                    break;
+                case '*':
+                    digits[i] = left + right;
+                    cost = left * right;
+                    break;
+                case '/':
+                    digits[i] = left + right;
+                    cost = (left + right) * right;
+                    break;
+                default: // Addition, subtraction, negation and functions
+                    digits[i] = Math.max(left, right) + 1;
+                    cost = digits[i];
+            }
+
+            if (cost >= TASK_COST) {
+                this.tasks[i] = new SlotTask(i);
+                heavy++;
+            }
+        }
+        this.taskCount = heavy;
+    }
+
+    /**
+     * @return true if the evaluation has at least two heavy operations,
+     * which may run side by side.
+     */
+    boolean isWorthForking() {
+        return this.taskCount >= 2;
+    }
+
+    /**
+     * @return The number of operations that run as tasks of their own.
+     */
+    int taskCount() {
+        return this.taskCount;
+    }
+
+    /**
+     * Runs the evaluation on a pool and waits for its result.
+     *
+     * @param pool The pool to run on.
+     * @return The result of the expression.
+     * @throws ArithmeticException      If an operation has no exact result.
+     * @throws CancellationException    If the calling thread is interrupted.
+     * @throws EvaluationLimitException If the evaluation exceeds its limits.
+     */
+    BigDecimal run(ForkJoinPool pool) {
+        ForkJoinTask<BigDecimal> root = pool.submit(new RecursiveTask<BigDecimal>() {
+            @Override
+            protected BigDecimal compute() {
+                try {
+                    // Operands come first, so idle workers steal the deepest operations first
+                    for (SlotTask task : ParallelEvaluation.this.tasks)
+                        if (task != null)
+                            task.fork();
+                    return ParallelEvaluation.this.value(ParallelEvaluation.this.program.length - 1);
+                } catch (RuntimeException e) {
+                    ParallelEvaluation.this.fail(e); // Stop the tasks still running
+                    throw e;
+                }
+            }
+        });
+
+        try {
+            return root.get();
+        } catch (InterruptedException e) {
+            this.fail(new CancellationException("Evaluation interrupted"));
+            Thread.currentThread().interrupt(); // Leave the interrupt status set
+            throw this.failure.get();
+        } catch (ExecutionException e) {
+            // A task's exception can reach here copied by the pool without its
+            // message, or as the CancellationException of a task that stopped
+            // because of it, so throw the one recorded where it happened
+            RuntimeException failure = this.failure.get();
+            if (failure != null)
+                throw failure;
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new IllegalStateException("Parallel evaluation failed", e.getCause());
+        }
+    }
+
+    /**
+     * Records the first failure, which stops every operation not yet started.
+     *
+     * @param failure The exception an operation threw.
+     */
+    private void fail(RuntimeException failure) {
+        this.failure.compareAndSet(null, failure);
+    }
+
+    /**
+     * Returns the value of a slot, waiting for its task if it is heavy and
+     * otherwise computing it and any operands not yet computed on this
+     * thread. Light operands are computed with an explicit stack, so a long
+     * chain of them cannot overflow the call stack.
+     *
+     * @param slot The program index of the slot.
+     * @return The value of the slot.
+     */
+    private BigDecimal value(int slot) {
+        BigDecimal value = this.values.get(slot);
+        if (value != null)
+            return value;
+        if (this.tasks[slot] != null)
+            return this.tasks[slot].join();
+
+        int[] stack = new int[16];
+        int size = 0;
+        stack[size++] = slot;
+        while (size > 0) {
+            int top = stack[size - 1];
+            if (this.values.get(top) != null) {
+                size--; // Computed through another path
+                continue;
+            }
+
+            int left = this.leftSlots[top];
+            int right = this.program[top].isUnary() ? left : this.rightSlots[top];
+            int pending = this.pending(right); // An operand that still needs computing here
+            if (pending < 0)
+                pending = this.pending(left);
+
+            if (pending < 0) {
+                this.apply(top);
+                size--;
+            } else {
+                if (size == stack.length)
+                    stack = Arrays.copyOf(stack, size * 2);
+                stack[size++] = pending;
+            }
+        }
+        return this.values.get(slot);
+    }
+
+    /**
+     * Makes an operand ready if another task is computing it.
+     *
+     * @param operand The program index of the operand.
+     * @return The operand if it still needs computing on this thread, or -1
+     * if its value is ready.
+     */
+    private int pending(int operand) {
+        if (this.values.get(operand) != null)
+            return -1;
+        if (this.tasks[operand] == null)
+            return operand;
+
+        this.tasks[operand].join(); // Stores the value
+        return -1;
+    }
+
+    /**
+     * Applies the operation of a slot to its computed operands and stores
+     * the result.
+     *
+     * @param slot The program index of the slot.
+     * @return The result.
+     */
+    private BigDecimal apply(int slot) {
+        if (this.failure.get() != null)
+            throw new CancellationException("Evaluation stopped"); // Never recorded: a failure already was
+        CompiledExpression.checkInterrupted();
+        this.limits.checkTime(this.deadline);
+
+        ExpressionNode node = this.program[slot];
+        BigDecimal left = this.values.get(this.leftSlots[slot]);
+        BigDecimal result = node.operator == ExpressionNode.NEGATE
+                ? left.negate()
+                : node.isFunction()
+                ? PrecisionPolicy.EXACT.function(node.operator, left, this.limits, this.deadline)
+                : CompiledExpression.apply(node.operator, left, this.values.get(this.rightSlots[slot]),
+                this.limits, this.deadline);
+        this.limits.checkDigits(result);
+
+        this.values.set(slot, result);
+        return result;
+    }
+
+    /**
+     * Computes one heavy slot.
+     */
+    private final class SlotTask extends RecursiveTask<BigDecimal> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int slot; // The program index of the slot
+
+        SlotTask(int slot) {
+            this.slot = slot;
+        }
+
+        @Override
+        protected BigDecimal compute() {
+            try {
+                // Make sure both operands are ready, then apply the operation
+                ExpressionNode node = ParallelEvaluation.this.program[this.slot];
+                ParallelEvaluation.this.value(ParallelEvaluation.this.leftSlots[this.slot]);
+                if (!node.isUnary())
+                    ParallelEvaluation.this.value(ParallelEvaluation.this.rightSlots[this.slot]);
+                return ParallelEvaluation.this.apply(this.slot);
+            } catch (RuntimeException e) {
+                ParallelEvaluation.this.fail(e);
+                throw e;
+            }
+        }
+    }
+}
@@ -0,0 +1,432 @@
+package com.cosc3p97.calculator;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+
+/**
+ * How exact evaluation rounds its results. Policies are immutable; use
+ * {@link #EXACT} or create one with a factory method:
+ * <pre>
+ * PrecisionPolicy display = PrecisionPolicy.of(MathContext.DECIMAL64);
+ * PrecisionPolicy money = PrecisionPolicy.fixedScale(2, RoundingMode.HALF_EVEN);
+ * </pre>
+ * <ul>
+ * <li>{@link Mode#EXACT} never rounds. {@code 1/3} has no exact result and
+ * throws an {@link ArithmeticException}, exponents must not be negative, and
+ * results may grow as long as the operations make them.</li>
+ * <li>{@link Mode#SIGNIFICANT_DIGITS} rounds every number, variable and
+ * intermediate result to a number of significant digits, as
+ * {@link BigDecimal#round(MathContext)} does, so {@code 1/3} is
+ * {@code 0.3333333333333333} with 16 digits. Every operation works on
+ * values of bounded length, so memory and time stay proportional to the
+ * digits kept, however large the exponents are.</li>
+ * <li>{@link Mode#FIXED_SCALE} rounds them to a number of decimal places,
+ * so {@code 2/3} is {@code 0.67} with 2 places. The digits after the point
+ * are bounded, but the digits before it grow with the value.</li>
+ * </ul>
+ * Under a rounding policy, powers are computed by repeated squaring with a
+ * few guard digits and rounded once at the end, as
+ * {@link BigDecimal#pow(int, MathContext)} does, and negative exponents are
+ * allowed.
+ * <p>
+ * Functions such as {@code sqrt} and constants such as {@code pi} are
+ * computed to the digits the policy keeps. Their results are rarely exact,
+ * so under {@link #EXACT} a function only has a value where it is exact,
+ * such as {@code sqrt(2.25)} or {@code exp(0)}, and a constant never does;
+ * otherwise they throw an {@link ArithmeticException}, as {@code 1/3} does.
+ */
+public final class PrecisionPolicy {
+
+    /**
+     * The ways a policy can round.
+     */
+    public enum Mode {
+        EXACT,              // Never round
+        SIGNIFICANT_DIGITS, // Round to a number of significant digits
+        FIXED_SCALE         // Round to a number of decimal places
+    }
+
+    /**
+     * A policy that never rounds, the default for every evaluation.
+     */
+    public static final PrecisionPolicy EXACT = new PrecisionPolicy(Mode.EXACT, MathContext.UNLIMITED, 0);
+
+    private final Mode mode;            // How results are rounded
+    private final MathContext context;  // Digits and rounding mode, unlimited when exact
+    private final int scale;            // Decimal places kept by FIXED_SCALE
+
+    private PrecisionPolicy(Mode mode, MathContext context, int scale) {
+        this.mode = mode;
+        this.context = context;
+        this.scale = scale;
+    }
+
+    /**
+     * Creates a policy that rounds to a number of significant digits.
+     *
+     * @param digits       The significant digits to keep.
+     * @param roundingMode How to round the digits dropped.
+     * @return The policy.
+     * @throws IllegalArgumentException If digits is not positive.
+     */
+    public static PrecisionPolicy significantDigits(int digits, RoundingMode roundingMode) {
+        if (digits <= 0)
+            throw new IllegalArgumentException("digits must be positive: " + digits);
+
+        return of(new MathContext(digits, roundingMode));
+    }
+
+    /**
+     * Creates a policy that rounds as a math context does. A context with
+     * unlimited precision gives {@link #EXACT}.
+     *
+     * @param context The digits to keep and how to round.
+     * @return The policy.
+     */
+    public static PrecisionPolicy of(MathContext context) {
+        if (context.getPrecision() == 0)
+            return EXACT;
+
+        return new PrecisionPolicy(Mode.SIGNIFICANT_DIGITS, context, 0);
+    }
+
+    /**
+     * Creates a policy that rounds to a number of decimal places.
+     *
+     * @param scale        The decimal places to keep.
+     * @param roundingMode How to round the places dropped.
+     * @return The policy.
+     * @throws IllegalArgumentException If scale is negative.
+     */
+    public static PrecisionPolicy fixedScale(int scale, RoundingMode roundingMode) {
+        if (scale < 0)
+            throw new IllegalArgumentException("scale must not be negative: " + scale);
+
+        return new PrecisionPolicy(Mode.FIXED_SCALE, new MathContext(0, roundingMode), scale);
+    }
+
+    /**
+     * @return How results are rounded.
+     */
+    public Mode getMode() {
+        return this.mode;
+    }
+
+    /**
+     * @return The significant digits kept, or 0 if their number is not limited.
+     */
+    public int getPrecision() {
+        return this.context.getPrecision();
+    }
+
+    /**
+     * @return The decimal places kept by a fixed-scale policy, or 0 for others.
+     */
+    public int getScale() {
+        return this.scale;
+    }
+
+    /**
+     * @return How dropped digits are rounded.
+     */
+    public RoundingMode getRoundingMode() {
+        return this.context.getRoundingMode();
+    }
+
+    /**
+     * @return true if results are never rounded.
+     */
+    public boolean isExact() {
+        return this.mode == Mode.EXACT;
+    }
+
+    /**
+     * @return true if every value has a bounded number of digits, so even a
+     * huge power costs little.
+     */
+    boolean boundsDigits() {
+        return this.mode == Mode.SIGNIFICANT_DIGITS;
+    }
+
+    /**
+     * Rounds a number or variable before it is used.
+     *
+     * @param value The value.
+     * @return The value rounded as this policy requires.
+     */
+    BigDecimal round(BigDecimal value) {
+        switch (this.mode) {
+            case SIGNIFICANT_DIGITS:
+                return value.round(this.context);
+            case FIXED_SCALE:
+                return value.setScale(this.scale, this.context.getRoundingMode());
+            default:
+                return value;
+        }
+    }
+
+    /**
+     * Applies a binary operator to two operand values, rounding the result.
+     *
+     * @param operator The operator character.
+     * @param left     The left operand value.
+     * @param right    The right operand value.
+     * @param limits   The limits to evaluate within.
+     * @param deadline The time the evaluation must finish by.
+     * @return The rounded result of the operation.
+     * @throws ArithmeticException If the operation has no result, such as
+     *                             division by zero, or no exact result
+     *                             under {@link #EXACT}.
+     */
+    BigDecimal apply(char operator, BigDecimal left, BigDecimal right, EvaluationLimits limits, long deadline) {
+        if (this.mode == Mode.EXACT)
+            return CompiledExpression.apply(operator, left, right, limits, deadline);
+
+        switch (operator) {
+            case '^':
+                return this.pow(left, right.intValueExact(), limits, deadline);
+            case '*':
+                return this.mode == Mode.SIGNIFICANT_DIGITS
+                        ? left.multiply(right, this.context)
+                        : this.round(left.multiply(right));
+            case '/':
+                return this.mode == Mode.SIGNIFICANT_DIGITS
+                        ? left.divide(right, this.context)
+                        : left.divide(right, this.scale, this.context.getRoundingMode());
+            case '+':
+                return this.mode == Mode.SIGNIFICANT_DIGITS
+                        ? left.add(right, this.context)
+                        : this.round(left.add(right));
+            case '-':
+                return this.mode == Mode.SIGNIFICANT_DIGITS
+                        ? left.subtract(right, this.context)
+                        : this.round(left.subtract(right));
+            default:
+                throw new IllegalStateException("Unknown operator: " + operator);
+        }
+    }
+
+    /**
+     * Applies a function to a value, rounding the result.
+     *
+     * @param function The marker of the function, from {@link MathFunctions}.
+     * @param value    The argument.
+     * @return The rounded result of the function.
+     * @throws ArithmeticException If the function has no result for the
+     *                             argument, or no exact result under {@link #EXACT}.
+     */
+    BigDecimal function(char function, BigDecimal value) {
+        return this.function(function, value, EvaluationLimits.NONE, 0);
+    }
+
+    /**
+     * Applies a function to a value within limits, rounding the result.
+     * Under {@link #EXACT} only arguments with an exact result are computed;
+     * any other fails at once.
+     *
+     * @param function The marker of the function, from {@link MathFunctions}.
+     * @param value    The argument.
+     * @param limits   The limits to evaluate within.
+     * @param deadline The time the evaluation must finish by.
+     * @return The rounded result of the function.
+     * @throws ArithmeticException      If the function has no result for the
+     *                                  argument, or no exact result under {@link #EXACT}.
+     * @throws EvaluationLimitException If computing the result needs too many
+     *                                  digits, or the deadline passes.
+     */
+    BigDecimal function(char function, BigDecimal value, EvaluationLimits limits, long deadline) {
+        switch (this.mode) {
+            case SIGNIFICANT_DIGITS:
+                return compute(function, value, this.context, limits, deadline);
+            case FIXED_SCALE:
+                // Enough significant digits for the places kept after the integer digits
+                double estimate = Math.abs(MathFunctions.apply(function, value.doubleValue()));
+                double log10 = !Double.isInfinite(estimate) ? Math.log10(estimate)
+                        : function == MathFunctions.EXP ? value.doubleValue() / Math.log(10)
+                        : value.precision() - (double) value.scale(); // At least the integer digits of the result
+                int integerDigits = log10 >= 0 ? (int) Math.min(log10 + 1, Integer.MAX_VALUE / 2) : 0;
+                limits.checkDigits(this.scale + integerDigits); // The result would be too long
+                MathContext working = new MathContext(this.scale + integerDigits + 2, this.getRoundingMode());
+                return this.round(compute(function, value, working, limits, deadline));
+            default:
+                return exactFunction(function, value, limits, deadline);
+        }
+    }
+
+    /**
+     * Applies a function, keeping only an exact result. Only a square root
+     * is computed, to find out whether it is exact; every other function
+     * has an exact result only for the arguments checked here.
+     *
+     * @throws ArithmeticException If the result is not exact.
+     */
+    private static BigDecimal exactFunction(char function, BigDecimal value, EvaluationLimits limits, long deadline) {
+        switch (function) {
+            case MathFunctions.SQRT: {
+                BigDecimal root = BigDecimalMath.sqrt(value, new MathContext(value.precision() + 2), limits, deadline);
+                if (root.multiply(root).compareTo(value) == 0)
+                    return root;
+                break;
+            }
+            case MathFunctions.LN:
+                if (value.signum() <= 0)
+                    throw new ArithmeticException("Logarithm of a non-positive number");
+                if (value.compareTo(BigDecimal.ONE) == 0)
+                    return BigDecimal.ZERO;
+                break;
+            case MathFunctions.SIN:
+                if (value.signum() == 0)
+                    return BigDecimal.ZERO;
+                break;
+            case MathFunctions.EXP:
+            case MathFunctions.COS:
+                if (value.signum() == 0)
+                    return BigDecimal.ONE;
+                break;
+        }
+        throw new ArithmeticException(MathFunctions.name(function) + " has no exact result; use a PrecisionPolicy");
+    }
+
+    /**
+     * Computes a function to the digits of a context.
+     */
+    private static BigDecimal compute(char function, BigDecimal value, MathContext context,
+                                      EvaluationLimits limits, long deadline) {
+        switch (function) {
+            case MathFunctions.SQRT:
+                return BigDecimalMath.sqrt(value, context, limits, deadline);
+            case MathFunctions.LN:
+                return BigDecimalMath.ln(value, context, limits, deadline);
+            case MathFunctions.EXP:
+                return BigDecimalMath.exp(value, context, limits, deadline);
+            case MathFunctions.SIN:
+                return BigDecimalMath.sin(value, context, limits, deadline);
+            case MathFunctions.COS:
+                return BigDecimalMath.cos(value, context, limits, deadline);
+            default:
+                throw new IllegalStateException("Unknown function: " + function);
+        }
+    }
+
+    /**
+     * Returns the value of a named constant, rounded.
+     *
+     * @param name The name of the constant, from {@link MathFunctions}.
+     * @return The rounded constant.
+     * @throws ArithmeticException Under {@link #EXACT}, since no constant is exact.
+     */
+    BigDecimal constant(String name) {
+        MathContext context;
+        switch (this.mode) {
+            case SIGNIFICANT_DIGITS:
+                context = this.context;
+                break;
+            case FIXED_SCALE:
+                context = new MathContext(this.scale + 1, this.getRoundingMode()); // Both constants are below 10
+                break;
+            default:
+                throw new ArithmeticException(name + " has no exact value; use a PrecisionPolicy");
+        }
+
+        BigDecimal value = MathFunctions.PI.equals(name) ? BigDecimalMath.pi(context) : BigDecimalMath.e(context);
+        return this.round(value);
+    }
+
+    /**
+     * Raises a value to a power by repeated squaring, keeping as many extra
+     * digits as the exponent has, plus one, at every step and rounding once
+     * at the end. The guard digits are those of
+     * {@link BigDecimal#pow(int, MathContext)}; unlike it, interruption, the
+     * timeout and the digit limit are checked at every step.
+     * <p>
+     * Every step keeps significant digits, even for a fixed scale, since a
+     * fixed number of decimal places would round a small intermediate
+     * value, such as {@code 0.1^10} on the way to {@code 0.1^-10}, to zero.
+     * For a fixed scale, the digits kept cover the integer digits the result
+     * can have, estimated from those of the base, plus the decimal places.
+     *
+     * @param base     The value to raise.
+     * @param exponent The power, from -999999999 to 999999999.
+     * @param limits   The limits to evaluate within.
+     * @param deadline The time the evaluation must finish by.
+     * @return The rounded value raised to the power.
+     * @throws ArithmeticException      If the exponent is out of range, or
+     *                                  zero is raised to a negative power.
+     * @throws EvaluationLimitException If a step has too many digits or time runs out.
+     */
+    private BigDecimal pow(BigDecimal base, int exponent, EvaluationLimits limits, long deadline) {
+        int magnitude = Math.abs(exponent);
+        if (magnitude > FixedPoint.MAX_EXPONENT)
+            throw new ArithmeticException("Invalid operation");
+        if (exponent == 0)
+            return this.round(BigDecimal.ONE);
+
+        int guard = Integer.toString(magnitude).length() + 1; // Digits lost to rounding at most once per bit
+        long digits = this.mode == Mode.SIGNIFICANT_DIGITS ? this.getPrecision() : this.scale + integerDigits(base, exponent);
+        MathContext working = new MathContext((int) Math.min(Integer.MAX_VALUE, digits + guard), this.getRoundingMode());
+
+        BigDecimal result = BigDecimal.ONE;
+        BigDecimal square = base;
+        while (true) {
+            CompiledExpression.checkInterrupted();
+            limits.checkTime(deadline);
+            if ((magnitude & 1) != 0) {
+                result = result.multiply(square).round(working);
+                limits.checkDigits(result);
+            }
+            magnitude >>>= 1;
+            if (magnitude == 0)
+                break;
+            square = square.multiply(square).round(working);
+            limits.checkDigits(square);
+        }
+
+        if (exponent < 0)
+            result = BigDecimal.ONE.divide(result, working);
+        return this.round(result);
+    }
+
+    /**
+     * Bounds the number of integer digits of a power from above, using the
+     * position of the base's leading digit.
+     *
+     * @param base     The value to raise, whose leading digit is at
+     *                 {@code 10^(precision - scale - 1)}.
+     * @param exponent The power.
+     * @return The most integer digits the result can have, 0 if it is below 1.
+     */
+    private static long integerDigits(BigDecimal base, int exponent) {
+        if (base.signum() == 0)
+            return 0;
+        long leading = (long) base.precision() - base.scale(); // log10 |base| is in [leading - 1, leading)
+        long log = exponent > 0 ? (long) exponent * leading : (long) -exponent * (1 - leading);
+        return Math.max(0, log + 1);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof PrecisionPolicy))
+            return false;
+
+        PrecisionPolicy policy = (PrecisionPolicy) other;
+        return this.mode == policy.mode && this.context.equals(policy.context) && this.scale == policy.scale;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * this.mode.hashCode() + this.context.hashCode()) + this.scale;
+    }
+
+    @Override
+    public String toString() {
+        switch (this.mode) {
+            case SIGNIFICANT_DIGITS:
+                return "PrecisionPolicy[" + this.getPrecision() + " digits, " + this.getRoundingMode() + "]";
+            case FIXED_SCALE:
+                return "PrecisionPolicy[" + this.scale + " places, " + this.getRoundingMode() + "]";
+            default:
+                return "PrecisionPolicy[exact]";
+        }
+    }
+}
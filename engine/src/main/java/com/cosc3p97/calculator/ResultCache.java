@@ -0,0 +1,198 @@
+package com.cosc3p97.calculator;
+
+import java.math.BigDecimal;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A size-bounded cache of evaluated expressions that evicts the least
+ * recently used entry when it is full. Expressions are keyed on their text
+ * with whitespace removed wherever it does not separate two tokens, so
+ * "1 + 2" and "1+2" share an entry but "1 2" and "12" do not, and on the
+ * precision they were evaluated with. Only
+ * successful evaluations are cached; an expression that fails is evaluated
+ * (and fails) again the next time.
+ * <p>
+ * A cache is safe to share between threads, so one instance can sit in front
+ * of the calculator screen and any number of background callers. Two threads
+ * missing on the same expression at once may both evaluate it.
+ */
+public final class ResultCache {
+
+    private final int maxEntries;                   // Most entries kept before evicting
+    private final Map<String, BigDecimal> entries;  // Results in least recently used order
+
+    private final AtomicLong hits = new AtomicLong();      // Lookups answered from the cache
+    private final AtomicLong misses = new AtomicLong();    // Lookups that had to evaluate
+    private final AtomicLong evictions = new AtomicLong(); // Entries dropped to make room
+
+    /**
+     * Constructor that creates an empty cache.
+     *
+     * @param maxEntries The maximum number of results to keep.
+     */
+    public ResultCache(int maxEntries) {
+        if (maxEntries <= 0)
+            throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<String, BigDecimal>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, BigDecimal> eldest) {
+                if (size() <= ResultCache.this.maxEntries)
+                    return false;
+
+                ResultCache.this.evictions.incrementAndGet();
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Removes whitespace from an expression, giving the key it is cached
+     * under. Whitespace between two numbers or names separates tokens, so
+     * it is kept as one space; anywhere else it is dropped, since
+     * operators and parentheses are tokens of their own.
+     *
+     * @param expression The mathematical expression.
+     * @return The expression with only the whitespace that changes its meaning.
+     */
+    static String normalize(CharSequence expression) {
+        StringBuilder key = new StringBuilder(expression.length());
+        boolean space = false; // Whether whitespace was skipped since the last character kept
+
+        for (int i = 0; i < expression.length(); i++) {
+            char c = expression.charAt(i);
+            if (Character.isWhitespace(c)) {
+                space = true;
+                continue;
+            }
+            if (space && key.length() > 0 && isWordPart(key.charAt(key.length() - 1)) && isWordPart(c))
+                key.append(' ');
+            key.append(c);
+            space = false;
+        }
+        return key.toString();
+    }
+
+    /**
+     * @return Whether a character can be part of a number or a name.
+     */
+    private static boolean isWordPart(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '.';
+    }
+
+    /**
+     * Returns the result of an expression, evaluating and caching it if it
+     * is not cached yet.
+     *
+     * @param expression The mathematical expression to evaluate.
+     * @return The exact result of the expression.
+     * @throws IllegalArgumentException If the expression is malformed.
+     * @throws ArithmeticException      If the expression has no exact result.
+     */
+    public BigDecimal evaluate(CharSequence expression) {
+        return this.evaluate(expression, EvaluationLimits.NONE);
+    }
+
+    /**
+     * Returns the result of an expression, evaluating it within limits and
+     * caching it if it is not cached yet. A cached result is returned
+     * without checking the limits, since it costs nothing to produce; an
+     * evaluation that exceeds its limits is not cached.
+     *
+     * @param expression The mathematical expression to evaluate.
+     * @param limits     The limits to evaluate within.
+     * @return The exact result of the expression.
+     * @throws IllegalArgumentException If the expression is malformed.
+     * @throws ArithmeticException      If the expression has no exact result.
+     * @throws EvaluationLimitException If the evaluation exceeds its limits.
+     */
+    public BigDecimal evaluate(CharSequence expression, EvaluationLimits limits) {
+        return this.evaluate(expression, limits, PrecisionPolicy.EXACT);
+    }
+
+    /**
+     * Returns the result of an expression, evaluating it within limits and
+     * rounded to a precision, and caching it if it is not cached yet. The
+     * same expression evaluated with different precisions is cached once
+     * for each.
+     *
+     * @param expression The mathematical expression to evaluate.
+     * @param limits     The limits to evaluate within.
+     * @param precision  The precision to round every value to.
+     * @return The result of the expression.
+     * @throws IllegalArgumentException If the expression is malformed.
+     * @throws ArithmeticException      If the expression has no result.
+     * @throws EvaluationLimitException If the evaluation exceeds its limits.
+     */
+    public BigDecimal evaluate(CharSequence expression, EvaluationLimits limits, PrecisionPolicy precision) {
+        String text = normalize(expression);
+        String key = precision.isExact() ? text : precision + text; // Exact results keep the plain text key
+
+        BigDecimal result;
+        synchronized (this.entries) {
+            result = this.entries.get(key);
+        }
+        EquationCalculator.metrics.recordCacheLookup(result != null);
+        if (result != null) {
+            this.hits.incrementAndGet();
+            return result;
+        }
+
+        this.misses.incrementAndGet();
+        result = EquationCalculator.compile(expression, limits).withPrecision(precision).evaluateDecimal(); // Evaluate outside the lock
+
+        synchronized (this.entries) {
+            this.entries.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Removes every cached result. The counters are not reset.
+     */
+    public void clear() {
+        synchronized (this.entries) {
+            this.entries.clear();
+        }
+    }
+
+    /**
+     * @return The number of results currently cached.
+     */
+    public int size() {
+        synchronized (this.entries) {
+            return this.entries.size();
+        }
+    }
+
+    /**
+     * @return The maximum number of results the cache keeps.
+     */
+    public int maxEntries() {
+        return this.maxEntries;
+    }
+
+    /**
+     * @return The number of lookups answered from the cache.
+     */
+    public long hitCount() {
+        return this.hits.get();
+    }
+
+    /**
+     * @return The number of lookups that had to evaluate the expression.
+     */
+    public long missCount() {
+        return this.misses.get();
+    }
+
+    /**
+     * @return The number of results dropped to stay within the size limit.
+     */
+    public long evictionCount() {
+        return this.evictions.get();
+    }
+}
@@ -0,0 +1,396 @@
+package com.cosc3p97.calculator;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Evaluates files with one expression per line. Input files are memory-mapped
+ * a window at a time and each line is tokenized straight from the mapped
+ * bytes, so files of any size are processed with a constant amount of heap.
+ * Results are written one per input line, in input order, through a buffered
+ * stream in one of two formats:
+ * <ul>
+ * <li>{@link Format#TEXT}: one line per result, formatted as the calculator
+ * shows it, or {@code Error: <message>} for a line that failed.</li>
+ * <li>{@link Format#BINARY}: one record per result, a status byte followed,
+ * on success, by the scale as a zig-zag varint and the unscaled value as a
+ * varint length and its two's-complement bytes. Read records back with
+ * {@link #readBinaryResult(DataInput)}.</li>
+ * </ul>
+ * Input must be ASCII, with lines ending in {@code \n} or {@code \r\n}.
+ */
+public final class StreamingEvaluator {
+
+    /**
+     * The format results are written in.
+     */
+    public enum Format {
+        TEXT,
+        BINARY
+    }
+
+    private static final int WINDOW_SIZE = 64 << 20; // Bytes of input mapped at a time
+    private static final int BUFFER_SIZE = 1 << 16;  // Bytes of output buffered per stream
+
+    // Longest unscaled value read or written, about 40 million digits, so a corrupt length cannot exhaust memory
+    static final int MAX_DECIMAL_BYTES = 1 << 24;
+    private static final int READ_CHUNK = 1 << 16; // Bytes of a long value read before growing its buffer
+
+    private static final int SUCCESS = 0; // Binary status of an evaluated line
+    private static final int FAILURE = 1; // Binary status of a line that failed
+
+    private final Format format;            // Format results are written in
+    private final ExecutorService executor; // Runs the chunks of a parallel evaluation
+    private final int parallelism;          // Number of chunks a parallel evaluation uses
+    private final int windowSize;           // Bytes of input mapped at a time
+
+    /**
+     * Constructor for an evaluator whose parallel mode runs on the common
+     * fork-join pool.
+     *
+     * @param format The format results are written in.
+     */
+    public StreamingEvaluator(Format format) {
+        this(format, ForkJoinPool.commonPool(), ForkJoinPool.commonPool().getParallelism());
+    }
+
+    /**
+     * Constructor for an evaluator whose parallel mode runs on the given
+     * executor. The executor is not shut down by this class.
+     *
+     * @param format      The format results are written in.
+     * @param executor    The executor to run chunks on.
+     * @param parallelism The number of chunks to split an input file into.
+     */
+    public StreamingEvaluator(Format format, ExecutorService executor, int parallelism) {
+        this(format, executor, parallelism, WINDOW_SIZE);
+    }
+
+    StreamingEvaluator(Format format, ExecutorService executor, int parallelism, int windowSize) {
+        if (parallelism <= 0)
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+
+        this.format = format;
+        this.executor = executor;
+        this.parallelism = parallelism;
+        this.windowSize = windowSize;
+    }
+
+    /**
+     * Evaluates every line of the input file on the calling thread.
+     *
+     * @param input  The file of expressions, one per line.
+     * @param output The file to write results to, replaced if it exists.
+     * @return The number of lines evaluated.
+     * @throws IOException If a file cannot be read or written.
+     */
+    public long evaluate(Path input, Path output) throws IOException {
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+             OutputStream out = new BufferedOutputStream(Files.newOutputStream(output), BUFFER_SIZE)) {
+            return this.evaluateRange(in, 0, in.size(), out);
+        }
+    }
+
+    /**
+     * Evaluates every line of the input file in parallel. The file is split
+     * on line boundaries into one range per chunk; each range is evaluated
+     * into a temporary file next to the output, and the temporary files are
+     * then joined in order.
+     *
+     * @param input  The file of expressions, one per line.
+     * @param output The file to write results to, replaced if it exists.
+     * @return The number of lines evaluated.
+     * @throws IOException          If a file cannot be read or written.
+     * @throws InterruptedException If the calling thread is interrupted while waiting.
+     */
+    public long evaluateParallel(final Path input, Path output) throws IOException, InterruptedException {
+        List<Path> parts = new ArrayList<>();
+        List<Future<Long>> chunks = new ArrayList<>();
+
+        try {
+            long[] bounds;
+            try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ)) {
+                bounds = this.splitOnLines(in);
+            }
+
+            for (int chunk = 0; chunk + 1 < bounds.length; chunk++) {
+                final long from = bounds[chunk];
+                final long to = bounds[chunk + 1];
+                final Path part = Files.createTempFile(output.toAbsolutePath().getParent(), "chunk", ".part");
+                parts.add(part);
+
+                chunks.add(this.executor.submit(new Callable<Long>() {
+                    @Override
+                    public Long call() throws IOException {
+                        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ);
+                             OutputStream out = new BufferedOutputStream(Files.newOutputStream(part), BUFFER_SIZE)) {
+                            return evaluateRange(in, from, to, out);
+                        }
+                    }
+                }));
+            }
+
+            long lines = 0;
+            for (Future<Long> chunk : chunks)
+                lines += chunk.get();
+
+            // Join the parts in input order
+            try (FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                for (Path part : parts) {
+                    try (FileChannel in = FileChannel.open(part, StandardOpenOption.READ)) {
+                        long position = 0;
+                        while (position < in.size())
+                            position += in.transferTo(position, in.size() - position, out);
+                    }
+                }
+            }
+            return lines;
+        } catch (InterruptedException e) {
+            for (Future<Long> chunk : chunks)
+                chunk.cancel(true); // Stop the remaining work before giving up
+            throw e;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException)
+                throw (IOException) e.getCause();
+            throw new IllegalStateException("Streaming evaluation failed", e.getCause());
+        } finally {
+            for (Path part : parts)
+                Files.deleteIfExists(part);
+        }
+    }
+
+    /**
+     * Splits a file into ranges of roughly equal size that start and end on
+     * line boundaries.
+     *
+     * @param in The file to split.
+     * @return The start of each range followed by the end of the last one.
+     * @throws IOException If the file cannot be read.
+     */
+    private long[] splitOnLines(FileChannel in) throws IOException {
+        long size = in.size();
+        long[] bounds = new long[this.parallelism + 1];
+        int count = 1; // bounds[0] is the start of the file
+
+        for (int chunk = 1; chunk < this.parallelism; chunk++) {
+            long boundary = nextLineStart(in, size * chunk / this.parallelism, size);
+            if (boundary > bounds[count - 1] && boundary < size)
+                bounds[count++] = boundary; // Skip empty ranges
+        }
+        bounds[count++] = size;
+
+        long[] result = new long[count];
+        System.arraycopy(bounds, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * Finds the start of the first line that begins at or after a position.
+     *
+     * @param in       The file to search.
+     * @param position The position to search from.
+     * @param size     The size of the file.
+     * @return The start of the next line, or the size of the file if there is none.
+     * @throws IOException If the file cannot be read.
+     */
+    static long nextLineStart(FileChannel in, long position, long size) throws IOException {
+        if (position == 0)
+            return 0;
+
+        // A line starts at position only if the byte before it ends a line
+        long scan = position - 1;
+        while (scan < size) {
+            MappedByteBuffer window = in.map(FileChannel.MapMode.READ_ONLY, scan,
+                    Math.min(BUFFER_SIZE, size - scan));
+            for (int i = 0; i < window.limit(); i++)
+                if (window.get(i) == '\n')
+                    return scan + i + 1;
+            scan += window.limit();
+        }
+        return size;
+    }
+
+    /**
+     * Evaluates the lines of a range of a file, mapping it a window at a time.
+     * The range must start at the beginning of a line.
+     *
+     * @param in   The file of expressions.
+     * @param from The position of the first line.
+     * @param to   The end of the range.
+     * @param out  The stream to write results to.
+     * @return The number of lines evaluated.
+     * @throws IOException If the file cannot be read or the output written.
+     */
+    private long evaluateRange(FileChannel in, long from, long to, OutputStream out) throws IOException {
+        ByteSequence line = new ByteSequence();
+        DataOutputStream data = new DataOutputStream(out);
+        long lines = 0;
+        long position = from;
+
+        while (position < to) {
+            int windowSize = (int) Math.min(this.windowSize, to - position);
+            boolean lastWindow = position + windowSize == to;
+            MappedByteBuffer window = in.map(FileChannel.MapMode.READ_ONLY, position, windowSize);
+
+            int lineStart = 0;
+            for (int i = 0; i < windowSize; i++) {
+                if (window.get(i) != '\n')
+                    continue;
+                this.write(data, line.reset(window, lineStart, trimCarriageReturn(window, lineStart, i)));
+                lines++;
+                lineStart = i + 1;
+            }
+
+            if (lastWindow && lineStart < windowSize) {
+                // The last line of the range has no line break
+                this.write(data, line.reset(window, lineStart, trimCarriageReturn(window, lineStart, windowSize)));
+                lines++;
+                lineStart = windowSize;
+            } else if (lineStart == 0 && !lastWindow) {
+                throw new IOException("Line longer than " + this.windowSize + " bytes at offset " + position);
+            }
+
+            position += lineStart; // Map again from the start of any unfinished line
+        }
+
+        data.flush();
+        return lines;
+    }
+
+    /**
+     * @return The end of a line, excluding a carriage return before the line break.
+     */
+    private static int trimCarriageReturn(MappedByteBuffer window, int start, int end) {
+        return end > start && window.get(end - 1) == '\r' ? end - 1 : end;
+    }
+
+    /**
+     * Evaluates one line and writes its result.
+     *
+     * @param out  The stream to write the result to.
+     * @param line The expression on the line.
+     * @throws IOException If the result cannot be written.
+     */
+    private void write(DataOutputStream out, ByteSequence line) throws IOException {
+        BigDecimal value = null;
+        String error = null;
+        try {
+            value = EquationCalculator.compile(line).evaluateDecimal();
+        } catch (RuntimeException e) {
+            error = e.getMessage();
+        }
+
+        if (this.format == Format.TEXT) {
+            String text = value != null ? CompiledExpression.format(value) : "Error: " + error;
+            out.write(text.getBytes(StandardCharsets.US_ASCII));
+            out.write('\n');
+        } else if (value == null) {
+            out.write(FAILURE);
+        } else {
+            out.write(SUCCESS);
+            writeDecimal(out, value);
+        }
+    }
+
+    /**
+     * Reads one result written in the {@link Format#BINARY} format.
+     *
+     * @param in The stream to read from.
+     * @return The result, or null if the line failed to evaluate.
+     * @throws IOException If the stream cannot be read or ends early.
+     */
+    public static BigDecimal readBinaryResult(DataInput in) throws IOException {
+        if (in.readUnsignedByte() == FAILURE)
+            return null;
+        return readDecimal(in);
+    }
+
+    /**
+     * Writes a value as its scale, a zig-zag varint, then the length of its
+     * unscaled value as a varint and the unscaled value's two's-complement
+     * bytes.
+     *
+     * @param out   The stream to write to.
+     * @param value The value.
+     * @throws IOException If the stream cannot be written, or the value is
+     *                     longer than {@link #MAX_DECIMAL_BYTES}.
+     */
+    static void writeDecimal(OutputStream out, BigDecimal value) throws IOException {
+        byte[] unscaled = value.unscaledValue().toByteArray();
+        if (unscaled.length > MAX_DECIMAL_BYTES)
+            throw new IOException("Value too long to write: " + unscaled.length + " bytes");
+        writeVarint(out, (value.scale() << 1) ^ (value.scale() >> 31)); // Zig-zag keeps small negatives short
+        writeVarint(out, unscaled.length);
+        out.write(unscaled);
+    }
+
+    /**
+     * Reads a value written by {@link #writeDecimal(OutputStream, BigDecimal)}.
+     * The length comes from the stream and cannot be trusted, so a long
+     * value is read in chunks: memory grows with the bytes actually there,
+     * and a corrupt length fails with an IOException rather than an
+     * OutOfMemoryError.
+     *
+     * @param in The stream to read from.
+     * @return The value.
+     * @throws IOException If the stream cannot be read, ends early or holds
+     *                     an invalid length.
+     */
+    static BigDecimal readDecimal(DataInput in) throws IOException {
+        int zigZag = readVarint(in);
+        int scale = (zigZag >>> 1) ^ -(zigZag & 1);
+        int length = readVarint(in);
+        if (length <= 0 || length > MAX_DECIMAL_BYTES)
+            throw new IOException("Invalid length " + length);
+
+        byte[] unscaled = new byte[Math.min(length, READ_CHUNK)];
+        int read = 0;
+        while (true) {
+            in.readFully(unscaled, read, unscaled.length - read);
+            read = unscaled.length;
+            if (read == length)
+                break;
+            unscaled = Arrays.copyOf(unscaled, (int) Math.min(length, 2L * read));
+        }
+        return new BigDecimal(new BigInteger(unscaled), scale);
+    }
+
+    static void writeVarint(OutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.write((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write(value);
+    }
+
+    static int readVarint(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new IOException("Malformed varint");
+    }
+}
@@ -0,0 +1,61 @@
+package com.cosc3p97.calculator;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed set of counters that many threads can add to at once without
+ * contending. Each thread adds to one of several copies of the counters,
+ * chosen by its id, and reading a counter sums the copies, so writes are
+ * cheap and reads are slower. Each copy starts on its own cache line, so
+ * threads adding to different copies do not slow each other down.
+ * <p>
+ * This works like {@code java.util.concurrent.atomic.LongAdder}, which the
+ * Android versions the app supports do not have, and groups many counters
+ * in one array rather than one object per counter.
+ */
+final class StripedCounters {
+
+    private static final int LINE = 8; // Longs per 64-byte cache line
+
+    // Copies to spread threads over: the number of cores, rounded up to a power of two
+    private static final int STRIPES = Integer.highestOneBit(
+            Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1));
+
+    private final int stride;             // Distance between copies, a whole number of cache lines
+    private final AtomicLongArray counts; // Every copy of every counter
+
+    /**
+     * Constructor that creates counters starting at zero.
+     *
+     * @param cells The number of counters.
+     */
+    StripedCounters(int cells) {
+        this.stride = (cells + LINE - 1) / LINE * LINE;
+        this.counts = new AtomicLongArray(STRIPES * this.stride);
+    }
+
+    /**
+     * Adds to a counter.
+     *
+     * @param cell  The index of the counter.
+     * @param delta The amount to add.
+     */
+    void add(int cell, long delta) {
+        int stripe = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        this.counts.getAndAdd(stripe * this.stride + cell, delta);
+    }
+
+    /**
+     * Returns the total of a counter. Adds made while summing may or may not
+     * be included.
+     *
+     * @param cell The index of the counter.
+     * @return The sum of the counter's copies.
+     */
+    long sum(int cell) {
+        long sum = 0;
+        for (int stripe = 0; stripe < STRIPES; stripe++)
+            sum += this.counts.get(stripe * this.stride + cell);
+        return sum;
+    }
+}
@@ -0,0 +1,89 @@
+package com.cosc3p97.calculator;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for BatchEvaluator.
+ */
+public class BatchEvaluatorTest {
+
+    @Test
+    public void evaluate_keepsInputOrderAndReportsErrorsPerItem() throws InterruptedException {
+        List<BatchResult> results = new BatchEvaluator().evaluate(Arrays.asList("1+1", "1/0", "2*(3", "2^10"));
+
+        assertEquals(4, results.size());
+        assertEquals(new BigDecimal("2"), results.get(0).getValue());
+        assertTrue(results.get(1).getError() instanceof ArithmeticException);
+        assertTrue(results.get(2).getError() instanceof IllegalArgumentException);
+        assertEquals(new BigDecimal("1024"), results.get(3).getValue());
+    }
+
+    @Test(timeout = 10000)
+    public void evaluate_appliesLimitsToEveryExpression() throws InterruptedException {
+        EvaluationLimits limits = EvaluationLimits.NONE.withMaxDigits(1000).withTimeout(200, TimeUnit.MILLISECONDS);
+        List<BatchResult> results = new BatchEvaluator().evaluate(
+                Arrays.asList("0.1^99999999+1", "7^99999999", "2^10"), limits);
+
+        assertEquals(EvaluationLimitException.Limit.DIGITS, ((EvaluationLimitException) results.get(0).getError()).getLimit());
+        assertTrue(results.get(1).getError() instanceof EvaluationLimitException);
+        assertEquals(new BigDecimal("1024"), results.get(2).getValue());
+    }
+
+    @Test(timeout = 20000)
+    public void evaluate_stopsRunningChunksWhenInterrupted() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try {
+            final BatchEvaluator evaluator = new BatchEvaluator(pool, 2);
+            final AtomicReference<Throwable> outcome = new AtomicReference<>();
+            Thread caller = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        evaluator.evaluate(Arrays.asList("7^99999999", "11^99999999", "13^99999999"));
+                    } catch (Throwable e) {
+                        outcome.set(e);
+                    }
+                }
+            });
+            caller.start();
+            Thread.sleep(200); // Let the powers start
+            caller.interrupt();
+            caller.join();
+
+            assertTrue(String.valueOf(outcome.get()), outcome.get() instanceof InterruptedException);
+            assertTrue(pool.awaitQuiescence(10, TimeUnit.SECONDS)); // A cancelled future alone would not stop them
+            assertEquals(new BigDecimal("4"), new BatchEvaluator(pool, 2).evaluate(Arrays.asList("2+2")).get(0).getValue());
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    public void evaluate_matchesSequentialResultsOnCustomExecutor() throws InterruptedException {
+        List<String> expressions = new ArrayList<>();
+        for (int i = 0; i < 5000; i++)
+            expressions.add(i + "*3+" + (i % 7) + "/4");
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            List<BatchResult> results = new BatchEvaluator(executor, 3).evaluate(expressions.stream());
+
+            for (int i = 0; i < expressions.size(); i++)
+                assertEquals(new EquationCalculator(expressions.get(i)).evaluate(), results.get(i).getValue());
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package com.cosc3p97.calculator;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for BytecodeExpression.
+ */
+public class BytecodeExpressionTest {
+
+    /**
+     * Writes programs back to back.
+     */
+    private static byte[] write(BytecodeExpression... programs) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        for (BytecodeExpression program : programs)
+            program.writeTo(bytes);
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Asserts that reading the bytes fails.
+     */
+    private static void assertRejected(byte[] bytes) {
+        try {
+            BytecodeExpression.readFrom(new ByteArrayInputStream(bytes));
+            fail("Expected " + Arrays.toString(bytes) + " to be rejected");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test
+    public void program_isFlatStackCode() {
+        BytecodeExpression program = EquationCalculator.compile("a*b+2.5").toBytecode();
+        assertEquals("VAR a, VAR b, MULTIPLY, CONST 2.5, ADD", program.toString());
+        assertEquals(Arrays.asList("a", "b"), program.variables());
+        assertEquals(8.5, program.evaluateDouble(2, 3), 0);
+        assertEquals(new BigDecimal("8.5"), program.evaluateDecimal(BigDecimal.valueOf(2), BigDecimal.valueOf(3)));
+
+        // A shared subexpression is computed once and loaded after that
+        BytecodeExpression shared = EquationCalculator.compile("(x+1)*(x+1)-(x+1)").toBytecode();
+        assertEquals("VAR x, CONST 1, ADD, STORE 0, LOAD 0, MULTIPLY, LOAD 0, SUBTRACT", shared.toString());
+        assertEquals(new BigDecimal("12"), shared.evaluateDecimal(BigDecimal.valueOf(3)));
+    }
+
+    @Test
+    public void results_matchTheCompiledExpression() {
+        String[] expressions = {"12.5*(3+4)-8/2", "-2^2+2^-1", "sqrt(x)*ln(x)+exp(-x)", "sin(x)^2+cos(x)^2",
+                "x^x^x/3", "(1-x)*(1-x)*(1-x)"};
+        for (String expression : expressions) {
+            CompiledExpression compiled = EquationCalculator.compile(expression);
+            BytecodeExpression program = compiled.toBytecode();
+            double[] values = compiled.variables().isEmpty() ? new double[0] : new double[]{1.75};
+            assertEquals(expression, compiled.evaluateDouble(values), program.evaluateDouble(values), 0);
+            assertEquals(expression, compiled.toString(), program.toCompiledExpression().toString());
+        }
+
+        assertEquals(new BigDecimal("83.5"), EquationCalculator.compileBytecode("12.5*(3+4)-8/2").evaluateDecimal());
+        assertEquals(0.1 + 0.2, EquationCalculator.compileBytecode("0.1+0.2").evaluateDouble(), 0);
+        try {
+            EquationCalculator.compileBytecode("1/3").evaluateDecimal();
+            fail("Expected 1/3 to have no exact result");
+        } catch (ArithmeticException expected) {
+        }
+    }
+
+    @Test
+    public void deepExpressions_needNoRecursion() {
+        StringBuilder nested = new StringBuilder();
+        for (int i = 0; i < 100000; i++)
+            nested.append("(1+");
+        nested.append('x');
+        for (int i = 0; i < 100000; i++)
+            nested.append(')');
+        BytecodeExpression program = EquationCalculator.compile(nested).toBytecode();
+        assertEquals(100001.0, program.evaluateDouble(1), 0);
+        assertEquals(BigDecimal.valueOf(100001), program.toCompiledExpression().evaluateDecimal(BigDecimal.ONE));
+    }
+
+    @Test
+    public void serializedPrograms_loadWithoutParsing() throws IOException {
+        BytecodeExpression area = EquationCalculator.compileBytecode("pi*r^2");
+        BytecodeExpression folded = EquationCalculator.compileBytecode("(0.1+0.2)*x");
+        byte[] bytes = write(area, folded);
+        assertTrue("Too long: " + bytes.length, bytes.length < 64);
+
+        ByteArrayInputStream in = new ByteArrayInputStream(bytes);
+        BytecodeExpression readArea = BytecodeExpression.readFrom(in);
+        BytecodeExpression readFolded = BytecodeExpression.readFrom(in);
+        assertEquals(0, in.available());
+
+        assertEquals(area.toString(), readArea.toString());
+        assertEquals(Math.PI * 9, readArea.evaluateDouble(3), 0);
+        assertEquals(new BigDecimal("28.27433388230814"), readArea.toCompiledExpression()
+                .withPrecision(PrecisionPolicy.of(MathContext.DECIMAL64)).evaluateDecimal(BigDecimal.valueOf(3)));
+        // The folded constant keeps the double value double arithmetic gave it
+        assertEquals((0.1 + 0.2) * 3, readFolded.evaluateDouble(3), 0);
+        assertEquals(new BigDecimal("0.9"), readFolded.evaluateDecimal(BigDecimal.valueOf(3)));
+    }
+
+    @Test
+    public void corruptStreams_areRejected() throws IOException {
+        byte[] valid = write(EquationCalculator.compile("1+x").toBytecode());
+        assertNotNull(BytecodeExpression.readFrom(new ByteArrayInputStream(valid)));
+
+        assertRejected(Arrays.copyOf(valid, valid.length - 1)); // Truncated
+        byte[] magic = valid.clone();
+        magic[0] = 'X';
+        assertRejected(magic);
+        byte[] opcode = valid.clone();
+        opcode[valid.length - 1] = 99; // Unknown opcode in place of ADD
+        assertRejected(opcode);
+        byte[] leftover = valid.clone();
+        leftover[valid.length - 1] = BytecodeExpression.SQRT; // Leaves two values on the stack
+        assertRejected(leftover);
+        byte[] operand = valid.clone();
+        operand[valid.length - 2] = 5; // Variable 5 of 1
+        assertRejected(operand);
+
+        // A constant claiming about 2 GB, or the longest length allowed, with no bytes after it
+        byte[] header = {'C', 'A', 'L', 'C', 1, 0, 1, 0};
+        byte[] huge = Arrays.copyOf(header, header.length + 5);
+        System.arraycopy(new byte[]{(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07}, 0, huge, header.length, 5);
+        assertRejected(huge);
+        byte[] truncated = Arrays.copyOf(header, header.length + 4);
+        System.arraycopy(new byte[]{(byte) 0x80, (byte) 0x80, (byte) 0x80, 0x08}, 0, truncated, header.length, 4);
+        assertRejected(truncated);
+    }
+}
@@ -0,0 +1,83 @@
+package com.cosc3p97.calculator;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for ClosureExpression.
+ */
+public class ClosureExpressionTest {
+
+    /**
+     * Builds a random expression over a, b and c with every operator,
+     * parentheses, negation and constant operands.
+     */
+    private static String randomExpression(Random random, int terms, int depth) {
+        StringBuilder expression = new StringBuilder();
+        for (int i = 0; i < terms; i++) {
+            if (i > 0)
+                expression.append("+-*/^".charAt(random.nextInt(5)));
+            if (random.nextInt(4) == 0)
+                expression.append('-');
+            switch (random.nextInt(depth > 0 ? 4 : 2)) {
+                case 0:
+                    expression.append("abc".charAt(random.nextInt(3)));
+                    break;
+                case 1:
+                    expression.append(random.nextInt(10)).append('.').append(random.nextInt(100));
+                    break;
+                default:
+                    expression.append('(').append(randomExpression(random, 1 + random.nextInt(3), depth - 1)).append(')');
+            }
+        }
+        return expression.toString();
+    }
+
+    @Test
+    public void evaluate_matchesTheInterpreterExactly() {
+        Random random = new Random(19);
+        for (int e = 0; e < 500; e++) {
+            String expression = randomExpression(random, 1 + random.nextInt(6), 3);
+            CompiledExpression compiled = EquationCalculator.compile(expression);
+            ClosureExpression closure = compiled.toClosure();
+            int variables = compiled.variables().size();
+
+            for (int row = 0; row < 20; row++) {
+                double[] values = new double[variables];
+                for (int v = 0; v < variables; v++)
+                    values[v] = random.nextInt(5) == 0 ? 0 : random.nextGaussian() * 10;
+
+                double expected = compiled.evaluateDouble(values);
+                assertEquals(expression, Double.doubleToLongBits(expected),
+                        Double.doubleToLongBits(closure.evaluate(values)));
+            }
+        }
+    }
+
+    @Test
+    public void evaluate_followsIeeeRulesLikeTheInterpreter() {
+        assertEquals(Double.POSITIVE_INFINITY, EquationCalculator.compile("1/x").toClosure().evaluate(0), 0);
+        assertTrue(Double.isNaN(EquationCalculator.compile("(0-2)^0.5").toClosure().evaluate()));
+        assertEquals(6.25, EquationCalculator.compile("2.5^2").toClosure().evaluate(), 0);
+    }
+
+    @Test
+    public void evaluate_interpretsVeryDeepExpressions() {
+        StringBuilder sum = new StringBuilder("x");
+        for (int i = 0; i < 5000; i++)
+            sum.append("+1");
+
+        ClosureExpression closure = EquationCalculator.compile(sum).toClosure();
+        assertFalse(closure.isCompiled());
+        assertEquals(5002.5, closure.evaluate(2.5), 0);
+        assertTrue(EquationCalculator.compile("a*b+c").toClosure().isCompiled());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void evaluate_rejectsWrongNumberOfValues() {
+        EquationCalculator.compile("a*b").toClosure().evaluate(1);
+    }
+}
@@ -0,0 +1,204 @@
+package com.cosc3p97.calculator;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.*;
+
+/**
+ * Guards against super-linear regressions, such as shifting an array once
+ * per token or lexing a group again for every parenthesis. Each workload
+ * runs at a small and a large size, {@value #GROWTH} times apart; the bytes
+ * it allocates and its best time may grow by at most {@value #ALLOCATION_SLACK}
+ * and {@value #TIME_SLACK} times that factor, well below the
+ * {@value #GROWTH}-squared a quadratic workload would need. Results at both
+ * sizes are checked against ReferenceEvaluator first.
+ * <p>
+ * Allocation is counted exactly and makes the strict bound; time only has
+ * to be clear of quadratic growth, so a loaded machine does not fail it.
+ */
+public class ComplexityGuardTest {
+
+    private static final int GROWTH = 8;           // Ratio of the large size to the small one
+    private static final int ALLOCATION_SLACK = 2; // Allowed allocation growth beyond linear
+    private static final int TIME_SLACK = 5;       // Allowed time growth beyond linear
+    private static final int WARMUP = 5;           // Runs before measuring, so both sizes are compiled
+    private static final int RUNS = 7;             // Measured runs; the fastest counts
+
+    /**
+     * A workload of a given size, with its input built outside the measurement.
+     */
+    private interface Workload {
+
+        /**
+         * @param size The size of the input.
+         * @return The work to measure, returning its result.
+         */
+        Run prepare(int size);
+    }
+
+    /**
+     * The measured part of a workload.
+     */
+    private interface Run {
+        Object run();
+    }
+
+    private static com.sun.management.ThreadMXBean threads() {
+        java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue("Allocation counting is not supported",
+                threads instanceof com.sun.management.ThreadMXBean
+                        && ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported());
+        return (com.sun.management.ThreadMXBean) threads;
+    }
+
+    /**
+     * Measures a run: its fewest allocated bytes and its best time.
+     */
+    private static long[] measure(Run run) {
+        com.sun.management.ThreadMXBean threads = threads();
+        long thread = Thread.currentThread().getId();
+        long bytes = Long.MAX_VALUE;
+        long nanos = Long.MAX_VALUE;
+        for (int i = 0; i < RUNS; i++) {
+            long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+            long start = System.nanoTime();
+            run.run();
+            nanos = Math.min(nanos, System.nanoTime() - start);
+            bytes = Math.min(bytes, threads.getThreadAllocatedBytes(thread) - allocatedBefore);
+        }
+        return new long[]{bytes, nanos};
+    }
+
+    /**
+     * Asserts that a workload scales linearly between two sizes.
+     *
+     * @param name     The name of the workload, for failure messages.
+     * @param size     The small size.
+     * @param workload The workload.
+     */
+    private static void assertLinear(String name, int size, Workload workload) {
+        Run small = workload.prepare(size);
+        Run large = workload.prepare(size * GROWTH);
+        for (int i = 0; i < WARMUP; i++) {
+            small.run();
+            large.run();
+        }
+
+        long[] smallCost = measure(small);
+        long[] largeCost = measure(large);
+        double allocation = (double) largeCost[0] / Math.max(1, smallCost[0]);
+        double time = (double) largeCost[1] / Math.max(1, smallCost[1]);
+        assertTrue(String.format("%s allocates %.1fx more at %dx the size", name, allocation, GROWTH),
+                allocation <= GROWTH * ALLOCATION_SLACK);
+        assertTrue(String.format("%s takes %.1fx longer at %dx the size", name, time, GROWTH),
+                time <= GROWTH * TIME_SLACK);
+    }
+
+    /**
+     * @return size terms alternately added and subtracted.
+     */
+    private static String flatSum(int size) {
+        StringBuilder sum = new StringBuilder("1");
+        for (int i = 2; i <= size; i++)
+            sum.append(i % 2 == 0 ? '+' : '-').append(i).append(".5");
+        return sum.toString();
+    }
+
+    /**
+     * @return size levels of nested parentheses, alternating operators.
+     */
+    private static String nested(int size) {
+        StringBuilder nested = new StringBuilder();
+        for (int i = 0; i < size; i++)
+            nested.append(i % 3 == 0 ? "-(1*" : "(1+");
+        nested.append('1');
+        for (int i = 0; i < size; i++)
+            nested.append(i % 2 == 0 ? ")" : ")*1");
+        return nested.toString();
+    }
+
+    @Test
+    public void results_matchTheReferenceAtEverySize() {
+        for (int size = 1; size <= 4096; size *= 4) {
+            String sum = flatSum(size);
+            assertEquals(sum, ReferenceEvaluator.evaluate(sum), new EquationCalculator(sum).evaluate());
+            String nested = nested(size);
+            assertEquals(nested, ReferenceEvaluator.evaluateOnLargeStack(nested),
+                    new EquationCalculator(nested).evaluate());
+        }
+    }
+
+    @Test
+    public void equals_isLinearInLength() {
+        assertLinear("Flat sum", 2000, size -> {
+            String sum = flatSum(size);
+            assertEquals(ReferenceEvaluator.evaluate(sum).toPlainString(), new EquationCalculator(sum).equals());
+            return () -> new EquationCalculator(sum).equals();
+        });
+    }
+
+    @Test
+    public void equals_isLinearInNestingDepth() {
+        assertLinear("Nested parentheses", 1000, size -> {
+            String nested = nested(size);
+            assertEquals(ReferenceEvaluator.evaluateOnLargeStack(nested), new EquationCalculator(nested).evaluate());
+            return () -> new EquationCalculator(nested).equals();
+        });
+    }
+
+    @Test
+    public void compiledPaths_areLinearInLength() {
+        assertLinear("Printing a nested expression", 1000, size -> {
+            CompiledExpression compiled = EquationCalculator.compile(nested(size));
+            return compiled::toString;
+        });
+        assertLinear("Optimizing and evaluating a sum of variables", 1000, size -> {
+            StringBuilder sum = new StringBuilder("v0");
+            BigDecimal[] bindings = new BigDecimal[size];
+            bindings[0] = BigDecimal.ONE;
+            for (int i = 1; i < size; i++) {
+                sum.append("+v").append(i).append("*1");
+                bindings[i] = BigDecimal.valueOf(i);
+            }
+            CompiledExpression compiled = EquationCalculator.compile(sum);
+            assertEquals(BigDecimal.valueOf((long) size * (size - 1) / 2 + 1), compiled.evaluateDecimal(bindings));
+            return () -> compiled.optimize().evaluateDecimal(bindings);
+        });
+    }
+
+    @Test
+    public void mappedLines_areLinearInLength() {
+        assertLinear("Compiling a line of functions from bytes", 1000, size -> {
+            StringBuilder sum = new StringBuilder("sqrt(4)");
+            for (int i = 1; i < size; i++)
+                sum.append("+sqrt(4)");
+            ByteBuffer bytes = ByteBuffer.wrap(sum.toString().getBytes(StandardCharsets.US_ASCII));
+            ByteSequence line = new ByteSequence().reset(bytes, 0, bytes.capacity());
+            assertEquals(BigDecimal.valueOf(2L * size), EquationCalculator.compile(line).evaluateDecimal());
+            return () -> EquationCalculator.compile(line);
+        });
+    }
+
+    @Test
+    public void typing_isLinearInLength() {
+        assertLinear("Typing one character at a time", 1000, size -> {
+            String sum = flatSum(size);
+            BigDecimal expected = ReferenceEvaluator.evaluate(sum);
+            return () -> {
+                IncrementalEvaluator evaluator = new IncrementalEvaluator();
+                for (int i = 0; i < sum.length(); i++) {
+                    evaluator.replace(i, 0, sum.subSequence(i, i + 1));
+                    evaluator.preview();
+                }
+                assertEquals(expected, evaluator.preview());
+                return evaluator;
+            };
+        });
+    }
+}
@@ -0,0 +1,117 @@
+package com.cosc3p97.calculator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for EngineStatistics and the measurements the engine
+ * records to it.
+ */
+public class EngineStatisticsTest {
+
+    private EngineStatistics statistics;
+
+    @Before
+    public void install() {
+        this.statistics = new EngineStatistics();
+        EquationCalculator.setMetrics(this.statistics);
+    }
+
+    @After
+    public void uninstall() {
+        EquationCalculator.setMetrics(EngineMetrics.NONE);
+    }
+
+    @Test
+    public void engine_recordsEachPhase() {
+        new EquationCalculator("1+2*3").evaluate();
+        EquationCalculator.compile("a*b").evaluateDouble(2, 3);
+
+        assertEquals(2, this.statistics.latency(EngineMetrics.Phase.TOKENIZE).count());
+        assertEquals(2, this.statistics.latency(EngineMetrics.Phase.PARSE).count());
+        assertEquals(2, this.statistics.latency(EngineMetrics.Phase.EVALUATE).count());
+        assertEquals(8, this.statistics.expressionSize().sum()); // 5 tokens, then 3
+        assertTrue(this.statistics.latency(EngineMetrics.Phase.EVALUATE).sum() > 0);
+    }
+
+    @Test
+    public void engine_countsErrorsByPhaseAndType() {
+        String[] failing = {"2+#", "2+", "1/0", "1/0"};
+        for (String expression : failing) {
+            try {
+                new EquationCalculator(expression).evaluate();
+                fail(expression);
+            } catch (RuntimeException expected) {
+                // Counted below
+            }
+        }
+
+        Map<String, Long> errors = this.statistics.errors();
+        assertEquals(Long.valueOf(1), errors.get("tokenize.IllegalArgumentException"));
+        assertEquals(Long.valueOf(1), errors.get("parse.IllegalArgumentException"));
+        assertEquals(Long.valueOf(2), errors.get("evaluate.ArithmeticException"));
+        assertEquals(2L, this.statistics.snapshot().get("errors.evaluate.ArithmeticException"));
+    }
+
+    @Test
+    public void cache_recordsHitRate() {
+        ResultCache cache = new ResultCache(10);
+        for (int i = 0; i < 4; i++)
+            cache.evaluate("6*7");
+
+        assertEquals(3, this.statistics.cacheHits());
+        assertEquals(1, this.statistics.cacheMisses());
+        assertEquals(0.75, this.statistics.cacheHitRate(), 0);
+    }
+
+    @Test
+    public void histogram_boundsPercentilesByPowersOfTwo() {
+        for (long value : new long[]{0, 1, 5, 6, 7, 100, 1000, 1000, 1000, 1_000_000})
+            this.statistics.recordPhase(EngineMetrics.Phase.PARSE, value);
+
+        EngineStatistics.Histogram histogram = this.statistics.latency(EngineMetrics.Phase.PARSE);
+        assertEquals(10, histogram.count());
+        assertEquals(3, histogram.bucket(3));         // 5, 6 and 7 are in 4..7
+        assertEquals(0, histogram.percentile(0));
+        assertEquals(127, histogram.percentile(60));  // 100 is in 64..127
+        assertEquals(1023, histogram.percentile(90));
+        assertEquals((1 << 20) - 1, histogram.percentile(100));
+        assertEquals((1L << 20) - 1, this.statistics.snapshot().get("parse.nanos.max"));
+    }
+
+    @Test
+    public void counters_addUpAcrossThreads() throws InterruptedException {
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            threads.add(new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10_000; i++)
+                        statistics.recordSize(3);
+                }
+            }));
+        }
+        for (Thread thread : threads)
+            thread.start();
+        for (Thread thread : threads)
+            thread.join();
+
+        assertEquals(80_000, this.statistics.expressionSize().count());
+        assertEquals(240_000, this.statistics.expressionSize().sum());
+    }
+
+    @Test
+    public void setMetrics_stopsRecordingWithNone() {
+        EquationCalculator.setMetrics(EngineMetrics.NONE);
+        new EquationCalculator("1+1").evaluate();
+        assertEquals(0, this.statistics.latency(EngineMetrics.Phase.TOKENIZE).count());
+        assertSame(EngineMetrics.NONE, EquationCalculator.getMetrics());
+    }
+}
@@ -0,0 +1,178 @@
+package com.cosc3p97.calculator;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the expression engine behind EquationCalculator.
+ */
+public class EquationCalculatorTest {
+
+    @Test
+    public void equals_evaluatesOrderOfOperations() {
+        assertEquals("14", new EquationCalculator("2+3*4").equals());
+        assertEquals("20", new EquationCalculator("(2+3)*4").equals());
+        assertEquals("1.5", new EquationCalculator("3/2").equals());
+        assertEquals("64", new EquationCalculator("2^3*8").equals());
+    }
+
+    @Test
+    public void equals_appliesSamePrecedenceLeftToRight() {
+        assertEquals("7", new EquationCalculator("8-2+1").equals());
+        assertEquals("6", new EquationCalculator("8/4*3").equals());
+        assertEquals("64", new EquationCalculator("2^3^2").equals());
+    }
+
+    @Test
+    public void equals_handlesNegation() {
+        assertEquals("-4", new EquationCalculator("-2^2").equals());
+        assertEquals("-6", new EquationCalculator("-2*3").equals());
+        assertEquals("5", new EquationCalculator("2--3").equals());
+    }
+
+    @Test
+    public void equals_handlesNestedParentheses() {
+        assertEquals("21", new EquationCalculator("((1+2)*(3+4))").equals());
+        assertEquals("2", new EquationCalculator("(((2)))").equals());
+
+        StringBuilder deep = new StringBuilder();
+        for (int i = 0; i < 10000; i++)
+            deep.append('(');
+        deep.append('1');
+        for (int i = 0; i < 10000; i++)
+            deep.append(")+1");
+        assertEquals("10001", new EquationCalculator(deep).equals());
+    }
+
+    @Test
+    public void compile_isReusableAndMatchesWrapper() {
+        CompiledExpression compiled = EquationCalculator.compile("1.5*(2+2)^2");
+
+        assertEquals("24.0", compiled.evaluate());
+        assertEquals(compiled.evaluate(), compiled.evaluate());
+        assertEquals(new EquationCalculator("1.5*(2+2)^2").equals(), compiled.evaluate());
+    }
+
+    @Test
+    public void evaluate_returnsExactDecimal() {
+        assertEquals(new BigDecimal("0.30"), new EquationCalculator("0.10+0.20").evaluate());
+        assertEquals(new BigDecimal("2.25"), EquationCalculator.compile("1.5^2").evaluateDecimal());
+    }
+
+    @Test
+    public void evaluateDecimal_fixedPointMatchesBigDecimalIncludingScale() {
+        BigDecimal a = new BigDecimal("1.50");
+        BigDecimal b = new BigDecimal("2.0");
+        assertEquals(a.multiply(b).add(b), EquationCalculator.compile("1.50*2.0+2.0").evaluateDecimal());
+        assertEquals(a.subtract(new BigDecimal("7")), EquationCalculator.compile("1.50-7").evaluateDecimal());
+        assertEquals(new BigDecimal("1.1").pow(30), EquationCalculator.compile("1.1^30").evaluateDecimal());
+        assertEquals(BigDecimal.ONE, EquationCalculator.compile("2.5^0").evaluateDecimal());
+    }
+
+    @Test
+    public void evaluateDecimal_promotesOnOverflow() {
+        assertEquals(new BigDecimal(2).pow(64), EquationCalculator.compile("2^62*4").evaluateDecimal());
+        assertEquals(new BigDecimal("999999999999.99").multiply(new BigDecimal("999999999999.99")),
+                EquationCalculator.compile("999999999999.99*999999999999.99").evaluateDecimal());
+        assertEquals(new BigDecimal("9223372036854775807").add(BigDecimal.ONE),
+                EquationCalculator.compile("9223372036854775807+1").evaluateDecimal());
+        assertEquals(new BigDecimal("0.5").add(new BigDecimal("0.25")),
+                EquationCalculator.compile("1/2+0.25").evaluateDecimal());
+    }
+
+    @Test
+    public void evaluateDecimal_boundsFixedPointPowersLikeBigDecimal() {
+        EvaluationLimits limits = EvaluationLimits.NONE.withMaxDigits(1000);
+        assertEquals(new BigDecimal("0.1").pow(1000), EquationCalculator.compile("0.1^1000", limits).evaluateDecimal());
+        // The first base fits in a long, the second only in a BigDecimal; both have scale 5000
+        for (String power : new String[]{"0.1^5000", "0.10000000000000000001^250"}) {
+            try {
+                EquationCalculator.compile(power, limits).evaluateDecimal();
+                fail("Expected " + power + " to exceed the digit limit");
+            } catch (EvaluationLimitException e) {
+                assertEquals(EvaluationLimitException.Limit.DIGITS, e.getLimit());
+            }
+        }
+    }
+
+    @Test
+    public void evaluateDouble_matchesExactModeWithinDoublePrecision() {
+        String[] expressions = {"2+3*4", "(1.5+2.25)*4-1", "-2^2", "7/8", "2^10/4^2"};
+        for (String expression : expressions) {
+            CompiledExpression compiled = EquationCalculator.compile(expression);
+            assertEquals(expression, compiled.evaluateDecimal().doubleValue(), compiled.evaluateDouble(), 1e-12);
+        }
+        assertEquals(Double.POSITIVE_INFINITY, new EquationCalculator("1/0").evaluateDouble(), 0);
+    }
+
+    @Test
+    public void pow_matchesBigDecimalIncludingScale() {
+        String[] bases = {"0", "1", "-2", "1.5", "-0.25", "12345678901234567890.5"};
+        int[] exponents = {0, 1, 2, 7, 64, 333};
+        for (String base : bases)
+            for (int exponent : exponents)
+                assertEquals(base + "^" + exponent, new BigDecimal(base).pow(exponent),
+                        CompiledExpression.pow(new BigDecimal(base), exponent));
+    }
+
+    @Test
+    public void evaluateDecimal_stopsWhenInterrupted() {
+        Thread.currentThread().interrupt();
+        try {
+            EquationCalculator.compile("9^99999999").evaluateDecimal();
+            fail("Expected the evaluation to be cancelled");
+        } catch (CancellationException expected) {
+            assertTrue(Thread.currentThread().isInterrupted()); // The status is left for the caller
+        } finally {
+            Thread.interrupted();
+        }
+    }
+
+    @Test
+    public void evaluateDecimal_cancelsPromptlyMidPower() throws InterruptedException {
+        final AtomicReference<RuntimeException> outcome = new AtomicReference<>();
+        Thread worker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    EquationCalculator.compile("9^999999999").evaluateDecimal();
+                } catch (RuntimeException e) {
+                    outcome.set(e);
+                }
+            }
+        });
+        worker.start();
+        Thread.sleep(100);
+        worker.interrupt();
+        worker.join(10000);
+
+        assertFalse("evaluation ignored the interrupt", worker.isAlive());
+        assertTrue(outcome.get() instanceof CancellationException);
+    }
+
+    @Test
+    public void compile_acceptsAnyCharSequenceAndIgnoresWhitespace() {
+        StringBuilder expression = new StringBuilder(" 12.5 * ( 2 + 2 ) ");
+        assertEquals("50.0", EquationCalculator.compile(expression).evaluate());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void compile_rejectsUnknownCharacters() {
+        EquationCalculator.compile("2+#");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void compile_rejectsUnbalancedParentheses() {
+        EquationCalculator.compile("(1+2");
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void compile_rejectsMissingOperand() {
+        EquationCalculator.compile("1+");
+    }
+}
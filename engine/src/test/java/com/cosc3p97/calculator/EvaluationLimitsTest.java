@@ -0,0 +1,109 @@
+package com.cosc3p97.calculator;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for EvaluationLimits.
+ */
+public class EvaluationLimitsTest {
+
+    /**
+     * Evaluates an expression within limits and returns the limit it hit.
+     */
+    private static EvaluationLimitException.Limit limitHit(String expression, EvaluationLimits limits) {
+        try {
+            new EquationCalculator(expression, null, limits).evaluate();
+        } catch (EvaluationLimitException e) {
+            return e.getLimit();
+        }
+        fail("Expected " + expression + " to exceed a limit");
+        return null;
+    }
+
+    @Test
+    public void limits_allowExpressionsWithinThem() {
+        EvaluationLimits limits = EvaluationLimits.NONE.withMaxTokens(9).withMaxDepth(2)
+                .withMaxDigits(10).withTimeout(1, TimeUnit.SECONDS);
+        assertEquals(new BigDecimal("4.5"), new EquationCalculator("((1+2))*1.5", null, limits).evaluate());
+    }
+
+    @Test
+    public void lexing_stopsAtTooManyTokens() {
+        EvaluationLimits limits = EvaluationLimits.NONE.withMaxTokens(5);
+        assertEquals(EvaluationLimitException.Limit.TOKENS, limitHit("1+1+1+1", limits));
+        try {
+            EquationCalculator.compile("1+1+1+1", limits);
+            fail();
+        } catch (EvaluationLimitException e) {
+            assertEquals(5, e.getMaximum());
+            assertEquals("Expression exceeds the limit of 5 tokens", e.getMessage());
+        }
+    }
+
+    @Test
+    public void lexing_stopsAtDeepNesting() {
+        EvaluationLimits limits = EvaluationLimits.NONE.withMaxDepth(1);
+        assertEquals(new BigDecimal("3"), new EquationCalculator("(1)+(1)+(1)", null, limits).evaluate());
+        assertEquals(EvaluationLimitException.Limit.DEPTH, limitHit("((1))", limits));
+    }
+
+    @Test
+    public void digits_limitNumbersAndIntermediateResults() {
+        EvaluationLimits limits = EvaluationLimits.NONE.withMaxDigits(9);
+        assertEquals(EvaluationLimitException.Limit.DIGITS, limitHit("1234567890", limits));
+        assertEquals(EvaluationLimitException.Limit.DIGITS, limitHit("99999*99999", limits));
+        assertEquals(EvaluationLimitException.Limit.DIGITS, limitHit("1/1024", limits)); // Scale 10
+        assertEquals(EvaluationLimitException.Limit.DIGITS,
+                limitHit("12345678901234567890/12345678901234567890", EvaluationLimits.NONE.withMaxDigits(19)));
+    }
+
+    @Test(timeout = 5000)
+    public void digits_rejectHugePowersBeforeComputingThem() {
+        EvaluationLimits limits = EvaluationLimits.NONE.withMaxDigits(1000);
+        assertEquals(EvaluationLimitException.Limit.DIGITS, limitHit("9^999999999", limits));
+        assertEquals(EvaluationLimitException.Limit.DIGITS, limitHit("0.5^999999999", limits));
+        assertEquals(BigDecimal.ONE, new EquationCalculator("1^999999999", null, limits).evaluate());
+    }
+
+    @Test(timeout = 5000)
+    public void digits_limitTheScaleOfFixedPointResults() {
+        EvaluationLimits limits = EvaluationLimits.NONE.withMaxDigits(1000).withTimeout(2, TimeUnit.SECONDS);
+        assertEquals(EvaluationLimitException.Limit.DIGITS, limitHit("0.1^5000", limits));
+        assertEquals(EvaluationLimitException.Limit.DIGITS, limitHit("0.1^99999999+1", limits));
+        assertEquals(EvaluationLimitException.Limit.DIGITS,
+                limitHit("0.00000000001*0.00000000001", EvaluationLimits.NONE.withMaxDigits(20))); // Scale 22
+        assertEquals(new BigDecimal("1E-20"),
+                new EquationCalculator("0.0000000001*0.0000000001", null, EvaluationLimits.NONE.withMaxDigits(20)).evaluate());
+    }
+
+    @Test(timeout = 10000)
+    public void timeout_stopsLongEvaluations() {
+        EvaluationLimits limits = EvaluationLimits.NONE.withTimeout(50, TimeUnit.MILLISECONDS);
+        assertEquals(EvaluationLimitException.Limit.TIME, limitHit("7^999999999", limits));
+    }
+
+    @Test
+    public void withLimits_sharesTheProgram() {
+        CompiledExpression compiled = EquationCalculator.compile("123*456");
+        CompiledExpression limited = compiled.withLimits(EvaluationLimits.NONE.withMaxDigits(4));
+
+        assertSame(EvaluationLimits.NONE, compiled.limits());
+        assertEquals(new BigDecimal("56088"), compiled.evaluateDecimal());
+        try {
+            limited.evaluateDecimal();
+            fail();
+        } catch (EvaluationLimitException e) {
+            assertEquals(EvaluationLimitException.Limit.DIGITS, e.getLimit());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void with_rejectsNonPositiveLimits() {
+        EvaluationLimits.NONE.withMaxTokens(0);
+    }
+}
@@ -0,0 +1,125 @@
+package com.cosc3p97.calculator;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Differential tests that evaluate random valid expressions with every
+ * evaluation path of the engine and compare them with ReferenceEvaluator.
+ * Values must be equal scale included, and an expression the reference
+ * rejects must throw ArithmeticException everywhere. The seeds are fixed,
+ * so a failure always reproduces; its message holds the expression.
+ */
+public class ExpressionFuzzTest {
+
+    private static final int EXPRESSIONS = 3000;
+    private static final String[] OPERATORS = {"+", "-", "*", "/", "^"};
+    private static final String[] NUMBERS = {"0", "1", "2", "3", "7", "10", "0.5", "1.25", "2.5", "0.04", "12.75", "1024"};
+
+    /**
+     * Generates a random expression: terms joined by operators, where a term
+     * is a number or a parenthesized expression, optionally signed. The
+     * right side of ^ is a single digit, optionally negative, so powers stay
+     * small.
+     */
+    private static void expression(Random random, StringBuilder out, int depth) {
+        int terms = 1 + random.nextInt(4);
+        for (int t = 0; t < terms; t++) {
+            if (t > 0) {
+                String operator = OPERATORS[random.nextInt(OPERATORS.length)];
+                out.append(random.nextInt(4) == 0 ? " " + operator + " " : operator);
+                if (operator.equals("^")) {
+                    out.append(random.nextInt(5) == 0 ? "-" : "").append(random.nextInt(4));
+                    continue;
+                }
+            }
+            int signs = random.nextInt(6) == 0 ? 1 + random.nextInt(2) : 0;
+            for (int s = 0; s < signs; s++)
+                out.append(random.nextBoolean() ? '-' : '+');
+            if (depth > 0 && random.nextInt(3) == 0) {
+                out.append('(');
+                expression(random, out, depth - 1);
+                out.append(')');
+            } else {
+                out.append(NUMBERS[random.nextInt(NUMBERS.length)]);
+            }
+        }
+    }
+
+    /**
+     * @return The value of an evaluation, or the type of exception it threw.
+     */
+    private static Object outcome(Evaluation evaluation) {
+        try {
+            return evaluation.evaluate();
+        } catch (ArithmeticException e) {
+            return ArithmeticException.class;
+        }
+    }
+
+    /**
+     * One way of evaluating an expression.
+     */
+    private interface Evaluation {
+        Object evaluate();
+    }
+
+    @Test
+    public void randomExpressions_matchTheReference() {
+        Random random = new Random(3097);
+        int exact = 0;
+        for (int i = 0; i < EXPRESSIONS; i++) {
+            StringBuilder text = new StringBuilder();
+            expression(random, text, 4);
+            final String expression = text.toString();
+
+            Object expected = outcome(() -> ReferenceEvaluator.evaluate(expression));
+            final CompiledExpression compiled = EquationCalculator.compile(expression);
+            assertEquals(expression, expected, outcome(compiled::evaluateDecimal));
+            assertEquals("optimized " + expression, expected, outcome(() -> compiled.optimize().evaluateDecimal()));
+            assertEquals("printed " + expression, expected,
+                    outcome(() -> EquationCalculator.compile(compiled.toString()).evaluateDecimal()));
+            assertEquals("bytecode " + expression, expected, outcome(() -> compiled.toBytecode().evaluateDecimal()));
+
+            IncrementalEvaluator preview = new IncrementalEvaluator();
+            preview.setText(expression);
+            BigDecimal previewed = preview.preview();
+            if (expected instanceof BigDecimal) {
+                exact++;
+                assertNotNull(expression, previewed);
+                assertEquals("preview " + expression, expected, previewed);
+            } else {
+                assertNull(expression, previewed);
+            }
+        }
+        assertTrue("Too few expressions had a value: " + exact, exact > EXPRESSIONS / 3);
+    }
+
+    @Test
+    public void randomExpressions_haveOneDoubleValueOnEveryBackend() {
+        Random random = new Random(7);
+        for (int i = 0; i < EXPRESSIONS; i++) {
+            StringBuilder text = new StringBuilder();
+            expression(random, text, 4);
+            String expression = text.toString();
+
+            CompiledExpression compiled = EquationCalculator.compile(expression);
+            double expected = compiled.evaluateDouble();
+            assertEquals(expression, expected, compiled.toClosure().evaluate(), 0);
+            double[] out = new double[3];
+            compiled.evaluateColumns(new double[0][], out);
+            assertEquals(expression, expected, out[2], 0);
+            assertEquals(expression, expected, EquationCalculator.compileBytecode(expression).evaluateDouble(), 0);
+
+            Object reference = outcome(() -> ReferenceEvaluator.evaluate(expression));
+            if (reference instanceof BigDecimal && !Double.isInfinite(expected)) {
+                double value = ((BigDecimal) reference).doubleValue();
+                assertEquals(expression, value, expected, Math.max(Math.abs(value) * 1e-9, 1e-6));
+            }
+        }
+    }
+}
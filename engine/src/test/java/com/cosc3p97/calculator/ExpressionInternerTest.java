@@ -0,0 +1,65 @@
+package com.cosc3p97.calculator;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for ExpressionInterner and the sharing of repeated
+ * subexpressions.
+ */
+public class ExpressionInternerTest {
+
+    @Test
+    public void compile_evaluatesRepeatedSubexpressionsOnce() {
+        // a, b, a+b, (a+b)*(a+b) and the subtraction
+        CompiledExpression compiled = EquationCalculator.compile("(a+b)*(a+b)-(a+b)");
+        assertEquals(5, compiled.size());
+        assertEquals(new BigDecimal("6"), compiled.evaluateDecimal(new BigDecimal("1"), new BigDecimal("2")));
+        assertEquals(6, compiled.evaluateDouble(1, 2), 0);
+
+        // Folding can make subexpressions identical: a, 2, a*2 and the sum
+        assertEquals(4, EquationCalculator.compile("a*2+a*(1+1)").optimize().size());
+    }
+
+    @Test
+    public void compile_keepsLiteralsWithDifferentScalesApart() {
+        CompiledExpression compiled = EquationCalculator.compile("x*1.0+x*1");
+        assertEquals(6, compiled.size());
+        assertEquals(new BigDecimal("5.00"), compiled.evaluateDecimal(new BigDecimal("2.5")));
+    }
+
+    @Test
+    public void intern_sharesSubexpressionsAcrossExpressions() {
+        ExpressionInterner interner = new ExpressionInterner(100);
+        CompiledExpression first = EquationCalculator.compile("(a+b)*c", interner);
+        CompiledExpression second = EquationCalculator.compile("(a + b)/d", interner);
+
+        assertSame(first.root().left, second.root().left);
+        assertEquals(3, interner.hitCount());  // a, b and a+b
+        assertEquals(7, interner.missCount()); // Those three, c, *, d and /
+        assertEquals(new BigDecimal("1.5"), second.evaluateDecimal(
+                new BigDecimal("1"), new BigDecimal("2"), new BigDecimal("2")));
+    }
+
+    @Test
+    public void intern_staysWithinItsSize() {
+        ExpressionInterner interner = new ExpressionInterner(20);
+        for (int i = 0; i < 1000; i++) {
+            String expression = "(x+" + i + ")*(x+" + i + ")";
+            BigDecimal expected = new EquationCalculator(expression.replace("x", "3")).evaluate();
+            assertEquals(expected, EquationCalculator.compile(expression, interner).evaluateDecimal(new BigDecimal("3")));
+        }
+        assertTrue(interner.size() <= 20);
+
+        interner.clear();
+        assertEquals(0, interner.size());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructor_rejectsNonPositiveSize() {
+        new ExpressionInterner(0);
+    }
+}
@@ -0,0 +1,108 @@
+package com.cosc3p97.calculator;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for ExpressionOptimizer.
+ */
+public class ExpressionOptimizerTest {
+
+    private static String optimized(String expression) {
+        return EquationCalculator.compile(expression).optimize().toString();
+    }
+
+    @Test
+    public void optimize_foldsConstantSubexpressions() {
+        assertEquals("3072*x", optimized("(2^10*3)*x"));
+        assertEquals("x+6", optimized("x+((4*5-2)/3)"));
+        assertEquals("-5*y", optimized("-(2+3)*y"));
+        assertEquals("4.5", optimized("1.5*3"));
+    }
+
+    @Test
+    public void optimize_removesIdentities() {
+        assertEquals("x", optimized("((x*1)+0)/1^1"));
+        assertEquals("x-y", optimized("0+x-y*1"));
+        assertEquals("x", optimized("--x"));
+        assertEquals("x^2", optimized("x^(3-2)^2"));
+    }
+
+    @Test
+    public void optimize_keepsOperationsThatAreNotExactIdentities() {
+        assertEquals("x*1.0", optimized("x*1.0"));  // Changes the scale
+        assertEquals("x/0.5+0", optimized("x/0.5+0")); // The quotient can have a negative scale
+        assertEquals("1/0+x", optimized("1/0+x"));  // Left to fail when evaluated
+        assertEquals("x*2^0.5", optimized("x*2^0.5")); // No exact result to fold
+    }
+
+    @Test
+    public void optimize_foldsNothingUnderARoundingPrecision() {
+        PrecisionPolicy cents = PrecisionPolicy.fixedScale(2, RoundingMode.HALF_UP);
+        CompiledExpression compiled = EquationCalculator.compile("0.004*1000+x*1");
+        BigDecimal x = BigDecimal.ONE;
+        BigDecimal expected = new BigDecimal("1.00"); // 0.004 rounds to 0.00 before it is multiplied
+        assertEquals(expected, compiled.withPrecision(cents).evaluateDecimal(x));
+
+        CompiledExpression roundedFirst = compiled.withPrecision(cents).optimize();
+        assertEquals("0.004*1000+x", roundedFirst.toString());
+        assertEquals(expected, roundedFirst.evaluateDecimal(x));
+
+        // Folded exactly, then given a precision: simplified again without folding
+        CompiledExpression foldedFirst = compiled.optimize();
+        assertEquals("4.000+x", foldedFirst.toString());
+        assertEquals(new BigDecimal("5.000"), foldedFirst.evaluateDecimal(x));
+        assertEquals(expected, foldedFirst.withPrecision(cents).evaluateDecimal(x));
+        assertEquals("4.000+x", foldedFirst.withPrecision(cents).withPrecision(PrecisionPolicy.EXACT).toString());
+    }
+
+    @Test
+    public void toString_writesOnlyNeededParentheses() {
+        assertEquals("(a+b)*c-(d-e)", EquationCalculator.compile("((a+b)*c)-(d-e)").toString());
+        assertEquals("(-a)^2-a^2*(-b)", EquationCalculator.compile("(-a)^2-a^2*-b").toString());
+        assertEquals("-a^2/(b/c)", EquationCalculator.compile("-a^2/(b/c)").toString());
+    }
+
+    @Test
+    public void optimize_keepsVariablesAndResults() {
+        String[] expressions = {
+                "(2^10*3)*a*1+(4*5-2)/3*b+0+c^1",
+                "0.1+0.2+a-(b*1)/1+--c",
+                "a*(1.25-0.25)+b/4-c^2*(3-3)",
+                "-(1-2)*(a+0)-(b-0)^1+c/(2*0.5)"
+        };
+        Random random = new Random(7);
+
+        for (String expression : expressions) {
+            CompiledExpression compiled = EquationCalculator.compile(expression);
+            CompiledExpression optimized = compiled.optimize();
+            assertEquals(compiled.variables(), optimized.variables());
+
+            CompiledExpression reparsed = EquationCalculator.compile(optimized.toString());
+            for (int row = 0; row < 100; row++) {
+                BigDecimal[] values = new BigDecimal[3];
+                double[] doubles = new double[3];
+                for (int v = 0; v < 3; v++) {
+                    values[v] = BigDecimal.valueOf(random.nextInt(2000) - 1000, random.nextInt(3));
+                    doubles[v] = values[v].doubleValue();
+                }
+
+                BigDecimal expected = compiled.evaluateDecimal(values);
+                assertEquals(expression, expected, optimized.evaluateDecimal(values));
+                assertEquals(expression, expected, reparsed.evaluateDecimal(values));
+                assertEquals(expression, compiled.evaluateDouble(doubles), optimized.evaluateDouble(doubles), 0);
+            }
+        }
+    }
+
+    @Test
+    public void optimize_returnsSameExpressionWhenNothingChanges() {
+        CompiledExpression compiled = EquationCalculator.compile("a*b+c");
+        assertSame(compiled, compiled.optimize());
+    }
+}
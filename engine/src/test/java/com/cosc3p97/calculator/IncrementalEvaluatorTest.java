@@ -0,0 +1,176 @@
+package com.cosc3p97.calculator;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for IncrementalEvaluator.
+ */
+public class IncrementalEvaluatorTest {
+
+    /**
+     * Types text one character at a time at the end.
+     */
+    private static void type(IncrementalEvaluator evaluator, String text) {
+        for (int i = 0; i < text.length(); i++)
+            evaluator.replace(evaluator.toString().length(), 0, text.substring(i, i + 1));
+    }
+
+    @Test
+    public void preview_followsTypingKeystrokeByKeystroke() {
+        IncrementalEvaluator evaluator = new IncrementalEvaluator();
+        assertNull(evaluator.preview());
+
+        type(evaluator, "12");
+        assertEquals(new BigDecimal("12"), evaluator.preview());
+        type(evaluator, "+3");
+        assertEquals(new BigDecimal("15"), evaluator.preview());
+        type(evaluator, "*");
+        assertNull(evaluator.preview()); // Ends with an operator
+        type(evaluator, "2^2");
+        assertEquals(new BigDecimal("24"), evaluator.preview());
+    }
+
+    @Test
+    public void preview_closesOpenParentheses() {
+        IncrementalEvaluator evaluator = new IncrementalEvaluator();
+        type(evaluator, "2*(3+4");
+        assertEquals(new BigDecimal("14"), evaluator.preview());
+        type(evaluator, ")-1");
+        assertEquals(new BigDecimal("13"), evaluator.preview());
+    }
+
+    @Test
+    public void preview_isNullForInvalidOrUncomputableText() {
+        IncrementalEvaluator evaluator = new IncrementalEvaluator();
+        evaluator.setText("1+2)");
+        assertNull(evaluator.preview());
+        evaluator.setText("1/0");
+        assertNull(evaluator.preview());
+        evaluator.setText("2+x");
+        assertNull(evaluator.preview());
+        evaluator.setText("2^99999");
+        assertNull(evaluator.preview()); // Too large to preview
+        evaluator.setText("2+#");
+        assertNull(evaluator.preview());
+
+        evaluator.replace(2, 1, "5"); // Fixing the text brings the preview back
+        assertEquals(new BigDecimal("7"), evaluator.preview());
+    }
+
+    @Test
+    public void replace_handlesEditsInTheMiddle() {
+        IncrementalEvaluator evaluator = new IncrementalEvaluator();
+        evaluator.setText("10+20*30");
+        evaluator.replace(3, 2, "2");    // 10+2*30
+        assertEquals(new BigDecimal("70"), evaluator.preview());
+        evaluator.replace(2, 0, " 5 ");  // 10 5 +2*30
+        assertNull(evaluator.preview());
+        evaluator.replace(2, 2, "");     // 10 +2*30, merging the numbers
+        assertEquals("10 +2*30", evaluator.toString());
+        assertEquals(new BigDecimal("70"), evaluator.preview());
+    }
+
+    @Test
+    public void replace_costIsIndependentOfExpressionLength() {
+        StringBuilder sum = new StringBuilder("1");
+        for (int i = 0; i < 10000; i++)
+            sum.append("+1");
+        IncrementalEvaluator evaluator = new IncrementalEvaluator();
+        evaluator.setText(sum);
+
+        type(evaluator, "+2");
+        assertEquals(1, evaluator.reparsedTokens());
+        type(evaluator, "5");
+        assertEquals(1, evaluator.reparsedTokens()); // Only the number being typed
+        assertEquals(new BigDecimal("10026"), evaluator.preview());
+    }
+
+    @Test(timeout = 10000)
+    public void limits_boundEveryPreview() {
+        PrecisionPolicy decimal64 = PrecisionPolicy.of(MathContext.DECIMAL64);
+        IncrementalEvaluator evaluator = new IncrementalEvaluator(decimal64,
+                EvaluationLimits.NONE.withMaxDigits(20).withTimeout(200, TimeUnit.MILLISECONDS));
+        evaluator.setText("123456789012345678901+1");
+        assertNull(evaluator.preview()); // Too many digits
+        evaluator.setText("sin(10^20)");
+        assertNull(evaluator.preview()); // Reducing the angle needs too many digits
+
+        evaluator = new IncrementalEvaluator(decimal64, EvaluationLimits.NONE.withTimeout(200, TimeUnit.MILLISECONDS));
+        evaluator.setText("sin(10^20000)");
+        assertNull(evaluator.preview()); // Out of time
+        evaluator.setText("sin(10^2)");
+        assertEquals(decimal64.function(MathFunctions.SIN, BigDecimal.valueOf(100)), evaluator.preview());
+    }
+
+    @Test
+    public void replace_canBeInterruptedAndResumed() {
+        PrecisionPolicy decimal64 = PrecisionPolicy.of(MathContext.DECIMAL64);
+        IncrementalEvaluator evaluator = new IncrementalEvaluator(decimal64);
+        evaluator.setText("2*sin(2");
+
+        Thread.currentThread().interrupt();
+        try {
+            evaluator.replace(7, 0, ")");
+            fail("Expected the edit to be interrupted");
+        } catch (CancellationException expected) {
+            assertTrue(Thread.interrupted());
+        }
+        assertEquals("2*sin(2)", evaluator.toString()); // The text of the edit is kept
+
+        evaluator.replace(8, 0, "+1"); // Parses the interrupted token again
+        IncrementalEvaluator uninterrupted = new IncrementalEvaluator(decimal64);
+        uninterrupted.setText("2*sin(2)+1");
+        assertNotNull(evaluator.preview());
+        assertEquals(uninterrupted.preview(), evaluator.preview());
+    }
+
+    @Test
+    public void preview_matchesFullEvaluationAfterRandomEdits() {
+        Random random = new Random(42);
+        String alphabet = "0123456789.+-*/() ";
+        IncrementalEvaluator evaluator = new IncrementalEvaluator();
+        StringBuilder reference = new StringBuilder();
+
+        for (int edit = 0; edit < 20000; edit++) {
+            int start = random.nextInt(reference.length() + 1);
+            int before = Math.min(random.nextInt(3), reference.length() - start);
+            StringBuilder inserted = new StringBuilder();
+            for (int i = random.nextInt(4); i > 0; i--)
+                inserted.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            if (reference.length() > 24)
+                inserted.setLength(0); // Keep expressions short enough to read in a failure
+
+            reference.replace(start, start + before, inserted.toString());
+            evaluator.replace(start, before, inserted);
+            assertEquals(reference.toString(), evaluator.toString());
+
+            BigDecimal expected;
+            try {
+                expected = new EquationCalculator(reference).evaluate();
+            } catch (RuntimeException e) {
+                expected = null;
+            }
+            if (expected != null || !hasOpenParenthesis(reference))
+                assertEquals(reference.toString(), expected, evaluator.preview());
+        }
+    }
+
+    private static boolean hasOpenParenthesis(CharSequence text) {
+        int depth = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '(')
+                depth++;
+            else if (text.charAt(i) == ')' && depth > 0)
+                depth--;
+        }
+        return depth > 0;
+    }
+}
@@ -0,0 +1,101 @@
+package com.cosc3p97.calculator;
+
+import org.junit.AfterClass;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for parallel exact evaluation.
+ */
+public class ParallelEvaluationTest {
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+    @AfterClass
+    public static void shutDown() {
+        POOL.shutdown();
+    }
+
+    private static ParallelEvaluation plan(String expression, BigDecimal... variables) {
+        return EquationCalculator.compile(expression).parallel(variables);
+    }
+
+    @Test
+    public void evaluateParallel_matchesSequentialResults() {
+        String[] expressions = {
+                "7^2000*3^1500",
+                "(7^3000+11^2500)*(13^2000-17^1800)/2^100",
+                "-(3^5000*5^4000)+(2^9000-7^3000)*(-1)",
+                "(7^2000*3^1500)*(7^2000*3^1500)+1.5"
+        };
+        for (String expression : expressions) {
+            CompiledExpression compiled = EquationCalculator.compile(expression);
+            assertEquals(expression, compiled.evaluateDecimal(), compiled.evaluateParallel(POOL));
+        }
+    }
+
+    @Test
+    public void evaluateParallel_splitsOnlyExpensiveOperations() {
+        assertEquals(0, plan("1+2*3").taskCount());
+        assertFalse(plan("7^20").isWorthForking());
+        assertFalse(plan("x*y", new BigDecimal("12345"), new BigDecimal("678")).isWorthForking());
+
+        // Two powers of thousands of digits and the product joining them
+        ParallelEvaluation huge = plan("7^4000*3^3000");
+        assertTrue(huge.isWorthForking());
+        assertEquals(3, huge.taskCount());
+
+        // Variables count with the digits of their values
+        BigDecimal big = new BigDecimal("7").pow(2000);
+        assertTrue(plan("a*b+a*a", big, big).isWorthForking());
+    }
+
+    @Test
+    public void evaluateParallel_usesVariablesAndSmallExpressions() {
+        CompiledExpression compiled = EquationCalculator.compile("a^2+b");
+        assertEquals(new BigDecimal("11"), compiled.evaluateParallel(POOL, new BigDecimal("3"), new BigDecimal("2")));
+        assertEquals(new BigDecimal("7"), new EquationCalculator("1+2*3").evaluateParallel());
+    }
+
+    @Test
+    public void evaluateParallel_throwsTheFailureOfATask() {
+        String[] expressions = {"7^4000*3^3000+5^3000/0", "7^4000*3^3000+5^3000/3", "(5^3000/0)*(7^4000*3^3000)"};
+        for (String expression : expressions) {
+            CompiledExpression compiled = EquationCalculator.compile(expression);
+            String expected = null;
+            try {
+                compiled.evaluateDecimal();
+                fail(expression);
+            } catch (ArithmeticException e) {
+                expected = e.getMessage();
+            }
+            assertNotNull(expected);
+
+            // Whichever thread fails, the caller sees the same exception, message included
+            for (int run = 0; run < 10; run++) {
+                try {
+                    compiled.evaluateParallel(POOL);
+                    fail(expression);
+                } catch (ArithmeticException e) {
+                    assertEquals(expression, expected, e.getMessage());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void evaluateParallel_checksLimits() {
+        CompiledExpression compiled = EquationCalculator.compile("7^4000*3^4000") // 5290 digits
+                .withLimits(EvaluationLimits.NONE.withMaxDigits(5000));
+        try {
+            compiled.evaluateParallel(POOL);
+            fail();
+        } catch (EvaluationLimitException e) {
+            assertEquals(EvaluationLimitException.Limit.DIGITS, e.getLimit());
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.cosc3p97.calculator;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for PrecisionPolicy.
+ */
+public class PrecisionPolicyTest {
+
+    private static final PrecisionPolicy DECIMAL64 = PrecisionPolicy.of(MathContext.DECIMAL64);
+
+    /**
+     * Evaluates an expression with the given precision.
+     */
+    private static BigDecimal evaluate(String expression, PrecisionPolicy precision) {
+        return new EquationCalculator(expression, null, EvaluationLimits.NONE, precision).evaluate();
+    }
+
+    @Test
+    public void exact_stillRejectsInexactResults() {
+        assertEquals(new BigDecimal("0.25"), evaluate("1/4", PrecisionPolicy.EXACT));
+        try {
+            evaluate("1/3", PrecisionPolicy.EXACT);
+            fail("Expected 1/3 to have no exact result");
+        } catch (ArithmeticException expected) {
+        }
+        assertSame(PrecisionPolicy.EXACT, PrecisionPolicy.of(MathContext.UNLIMITED));
+    }
+
+    @Test
+    public void significantDigits_roundEveryOperation() {
+        assertEquals(new BigDecimal("0.3333333333333333"), evaluate("1/3", DECIMAL64));
+        assertEquals(new BigDecimal("0.6666666666666666"), evaluate("1/3*2", DECIMAL64));
+        assertEquals(new BigDecimal("0.667"), evaluate("2/3", PrecisionPolicy.significantDigits(3, RoundingMode.HALF_UP)));
+        assertEquals(new BigDecimal("1.24"), evaluate("1.235", PrecisionPolicy.significantDigits(3, RoundingMode.HALF_UP)));
+    }
+
+    @Test
+    public void fixedScale_keepsDecimalPlaces() {
+        PrecisionPolicy cents = PrecisionPolicy.fixedScale(2, RoundingMode.HALF_UP);
+        assertEquals(new BigDecimal("0.67"), evaluate("2/3", cents));
+        assertEquals(new BigDecimal("3.00"), evaluate("1+2", cents));
+        assertEquals(new BigDecimal("1.02"), evaluate("1.005*1.01", cents)); // 1.01*1.01 after rounding the literal
+        assertEquals(new BigDecimal("0.13"), evaluate("2^-3", cents));
+        // Intermediate powers of a small base must not round to zero on the way
+        assertEquals(new BigDecimal("10000000000.00"), evaluate("0.1^-10", cents));
+        assertEquals(new BigDecimal("169350.88"), evaluate("0.3^-10", cents));
+        assertEquals(new BigDecimal("3325.26"), evaluate("1.5^20", cents));
+        assertEquals(new BigDecimal("0.00"), evaluate("0.1^10", cents));
+    }
+
+    @Test
+    public void powers_matchBigDecimalPowWithinOneDigit() {
+        BigDecimal base = new BigDecimal("1.0000001");
+        for (int exponent : new int[]{3, 1000, 123456789, -1000, -987654321}) {
+            BigDecimal expected = base.pow(exponent, MathContext.DECIMAL64);
+            BigDecimal actual = evaluate("1.0000001^" + exponent, DECIMAL64);
+            BigDecimal ulp = expected.ulp();
+            assertTrue(exponent + ": " + actual + " vs " + expected,
+                    actual.subtract(expected).abs().compareTo(ulp) <= 0);
+        }
+        assertEquals(new BigDecimal("0.5"), evaluate("2^-1", DECIMAL64));
+        assertEquals(BigDecimal.ONE, evaluate("0^0", DECIMAL64));
+    }
+
+    @Test
+    public void hugePowers_stayBounded() {
+        // 7^999999999 has about 845 million digits exactly; rounded, it is instant
+        EvaluationLimits limits = EvaluationLimits.NONE.withTimeout(5, TimeUnit.SECONDS);
+        BigDecimal result = new EquationCalculator("7^999999999", null, limits, DECIMAL64).evaluate();
+        assertEquals(16, result.precision());
+        assertEquals(BigDecimal.valueOf(7).pow(999999999, MathContext.DECIMAL64).round(new MathContext(14)),
+                result.round(new MathContext(14)));
+
+        try {
+            evaluate("0^-1", DECIMAL64);
+            fail("Expected 0^-1 to fail");
+        } catch (ArithmeticException expected) {
+        }
+    }
+
+    @Test
+    public void cacheAndPreview_followThePrecision() {
+        ResultCache cache = new ResultCache(16);
+        assertEquals(new BigDecimal("0.3333333333333333"), cache.evaluate("1/3", EvaluationLimits.NONE, DECIMAL64));
+        assertEquals(new BigDecimal("0.333"),
+                cache.evaluate("1/3", EvaluationLimits.NONE, PrecisionPolicy.fixedScale(3, RoundingMode.DOWN)));
+        assertEquals(2, cache.size());
+
+        IncrementalEvaluator preview = new IncrementalEvaluator(DECIMAL64);
+        preview.setText("(1/3");
+        assertEquals(new BigDecimal("0.3333333333333333"), preview.preview());
+        preview.setText("2^-2");
+        assertEquals(new BigDecimal("0.25"), preview.preview());
+        assertNull(new IncrementalEvaluator().preview());
+    }
+}
@@ -0,0 +1,155 @@
+package com.cosc3p97.calculator;
+
+import java.math.BigDecimal;
+
+/**
+ * A deliberately simple recursive-descent evaluator for plain numeric
+ * expressions, used as an independent oracle for the engine. It shares no
+ * code with the engine's lexer, parser or evaluators, only its rules:
+ * <ul>
+ * <li>+ and - bind loosest, then * and /, then a sign, then ^;</li>
+ * <li>every binary operator, ^ included, groups left to right;</li>
+ * <li>a sign after ^ applies to the whole chain of powers after it, so
+ * 2^-3^2 is 2^(-(3^2));</li>
+ * <li>exact arithmetic: an inexact quotient, division by zero and a
+ * negative or fractional exponent throw ArithmeticException.</li>
+ * </ul>
+ * Nesting costs stack frames, so very deep expressions should be evaluated
+ * with {@link #evaluateOnLargeStack(String)}.
+ */
+final class ReferenceEvaluator {
+
+    private static final long LARGE_STACK = 1L << 29; // Bytes of stack for very deep expressions
+
+    private final String text;
+    private int position;
+
+    private ReferenceEvaluator(String text) {
+        this.text = text;
+    }
+
+    /**
+     * @param expression A numeric expression.
+     * @return The exact value of the expression.
+     * @throws ArithmeticException      If the value is not exact or undefined.
+     * @throws IllegalArgumentException If the expression is not valid.
+     */
+    static BigDecimal evaluate(String expression) {
+        ReferenceEvaluator reference = new ReferenceEvaluator(expression);
+        BigDecimal value = reference.sum();
+        reference.skipSpaces();
+        if (reference.position != expression.length())
+            throw new IllegalArgumentException("Unexpected character at " + reference.position);
+        return value;
+    }
+
+    /**
+     * Evaluates an expression on a thread with a large stack, for
+     * expressions nested thousands of levels deep.
+     *
+     * @param expression A numeric expression.
+     * @return The exact value of the expression.
+     */
+    static BigDecimal evaluateOnLargeStack(final String expression) {
+        final BigDecimal[] result = new BigDecimal[1];
+        final RuntimeException[] failure = new RuntimeException[1];
+        Thread thread = new Thread(null, () -> {
+            try {
+                result[0] = evaluate(expression);
+            } catch (RuntimeException e) {
+                failure[0] = e;
+            }
+        }, "reference", LARGE_STACK);
+        thread.start();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        if (failure[0] != null)
+            throw failure[0];
+        return result[0];
+    }
+
+    private BigDecimal sum() {
+        BigDecimal value = this.product();
+        while (true) {
+            if (this.accept('+'))
+                value = value.add(this.product());
+            else if (this.accept('-'))
+                value = value.subtract(this.product());
+            else
+                return value;
+        }
+    }
+
+    private BigDecimal product() {
+        BigDecimal value = this.signed();
+        while (true) {
+            if (this.accept('*'))
+                value = value.multiply(this.signed());
+            else if (this.accept('/'))
+                value = value.divide(this.signed());
+            else
+                return value;
+        }
+    }
+
+    private BigDecimal signed() {
+        if (this.accept('-'))
+            return this.signed().negate();
+        if (this.accept('+'))
+            return this.signed();
+        return this.power();
+    }
+
+    private BigDecimal power() {
+        BigDecimal value = this.primary();
+        while (this.accept('^')) {
+            BigDecimal exponent = this.peekSign() ? this.signed() : this.primary();
+            if (exponent.signum() < 0)
+                throw new ArithmeticException("Negative exponent");
+            value = value.pow(exponent.intValueExact());
+        }
+        return value;
+    }
+
+    private BigDecimal primary() {
+        if (this.accept('(')) {
+            BigDecimal value = this.sum();
+            if (!this.accept(')'))
+                throw new IllegalArgumentException("Missing ) at " + this.position);
+            return value;
+        }
+
+        this.skipSpaces();
+        int start = this.position;
+        while (this.position < this.text.length()
+                && (Character.isDigit(this.text.charAt(this.position)) || this.text.charAt(this.position) == '.'))
+            this.position++;
+        if (start == this.position)
+            throw new IllegalArgumentException("Missing number at " + start);
+        return new BigDecimal(this.text.substring(start, this.position));
+    }
+
+    private boolean peekSign() {
+        this.skipSpaces();
+        return this.position < this.text.length()
+                && (this.text.charAt(this.position) == '-' || this.text.charAt(this.position) == '+');
+    }
+
+    private boolean accept(char expected) {
+        this.skipSpaces();
+        if (this.position < this.text.length() && this.text.charAt(this.position) == expected) {
+            this.position++;
+            return true;
+        }
+        return false;
+    }
+
+    private void skipSpaces() {
+        while (this.position < this.text.length() && this.text.charAt(this.position) == ' ')
+            this.position++;
+    }
+}
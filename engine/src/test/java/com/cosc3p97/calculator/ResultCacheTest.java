@@ -0,0 +1,69 @@
+package com.cosc3p97.calculator;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for ResultCache.
+ */
+public class ResultCacheTest {
+
+    @Test
+    public void evaluate_countsHitsAndMissesOnNormalizedKeys() {
+        ResultCache cache = new ResultCache(8);
+
+        assertEquals(new BigDecimal("3"), cache.evaluate("1+2"));
+        assertEquals(new BigDecimal("3"), cache.evaluate(" 1 + 2 "));
+        assertEquals(1, cache.missCount());
+        assertEquals(1, cache.hitCount());
+        assertEquals(1, cache.size());
+
+        // Whitespace between numbers separates them, so it is kept in the key
+        assertEquals(new BigDecimal("12"), cache.evaluate("12"));
+        for (String separated : new String[]{"1 2", "2 ^ 1 0"}) {
+            try {
+                cache.evaluate(separated);
+                fail("Expected " + separated + " to be rejected");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+        assertEquals("2^1 0", ResultCache.normalize(" 2 ^ 1\t0 "));
+    }
+
+    @Test
+    public void evaluate_evictsLeastRecentlyUsed() {
+        ResultCache cache = new ResultCache(2);
+
+        cache.evaluate("1+1");
+        cache.evaluate("2+2");
+        cache.evaluate("1+1"); // 2+2 is now the least recently used
+        cache.evaluate("3+3");
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.evictionCount());
+        cache.evaluate("1+1");
+        assertEquals(2, cache.hitCount());
+    }
+
+    @Test
+    public void calculator_sharesCacheAndDoesNotCacheErrors() {
+        ResultCache cache = new ResultCache(8);
+
+        assertEquals("14", new EquationCalculator("2+3*4", cache).equals());
+        assertEquals("14", new EquationCalculator("2 + 3 * 4", cache).equals());
+        assertEquals(1, cache.hitCount());
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                new EquationCalculator("1/0", cache).equals();
+                fail("Division by zero should fail");
+            } catch (ArithmeticException expected) {
+                // Expected every time, since failures are not cached
+            }
+        }
+        assertEquals(1, cache.size());
+    }
+}
@@ -0,0 +1,180 @@
+package com.cosc3p97.calculator;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for the scientific functions and constants.
+ */
+public class ScientificFunctionsTest {
+
+    private static final MathContext DIGITS_50 = new MathContext(50);
+    private static final PrecisionPolicy DECIMAL64 = PrecisionPolicy.of(MathContext.DECIMAL64);
+
+    /**
+     * Evaluates an expression with the given precision.
+     */
+    private static BigDecimal evaluate(String expression, PrecisionPolicy precision) {
+        return new EquationCalculator(expression, null, EvaluationLimits.NONE, precision).evaluate();
+    }
+
+    /**
+     * Evaluates an expression with the given precision, within limits.
+     */
+    private static BigDecimal evaluate(String expression, PrecisionPolicy precision, EvaluationLimits limits) {
+        return new EquationCalculator(expression, null, limits, precision).evaluate();
+    }
+
+    /**
+     * Evaluates an expression within limits and returns the limit it hit.
+     */
+    private static EvaluationLimitException.Limit limitHit(String expression, EvaluationLimits limits,
+                                                           PrecisionPolicy precision) {
+        try {
+            evaluate(expression, precision, limits);
+        } catch (EvaluationLimitException e) {
+            return e.getLimit();
+        }
+        fail("Expected " + expression + " to exceed a limit");
+        return null;
+    }
+
+    /**
+     * Asserts that a value is within one unit in the last place of a reference value.
+     */
+    private static void assertClose(String expected, BigDecimal actual) {
+        BigDecimal reference = new BigDecimal(expected);
+        assertTrue(actual + " vs " + expected,
+                actual.subtract(reference).abs().compareTo(reference.ulp()) <= 0);
+    }
+
+    @Test
+    public void constantsAndFunctions_matchReferenceDigits() {
+        assertClose("3.1415926535897932384626433832795028841971693993751", BigDecimalMath.pi(DIGITS_50));
+        assertClose("2.7182818284590452353602874713526624977572470937000", BigDecimalMath.e(DIGITS_50));
+        assertClose("0.69314718055994530941723212145817656807550013436026", BigDecimalMath.ln2(DIGITS_50));
+        assertClose("2.3025850929940456840179914546843642076011014886288", BigDecimalMath.ln10(DIGITS_50));
+        assertClose("1.4142135623730950488016887242096980785696718753769",
+                BigDecimalMath.sqrt(BigDecimal.valueOf(2), DIGITS_50));
+        assertClose("0.84147098480789650665250232163029899962256306079837",
+                BigDecimalMath.sin(BigDecimal.ONE, DIGITS_50));
+        assertClose("0.54030230586813971740093660744297660373231042061792",
+                BigDecimalMath.cos(BigDecimal.ONE, DIGITS_50));
+    }
+
+    @Test
+    public void identities_holdWithinOneDigit() {
+        MathContext context = new MathContext(40);
+        for (String text : new String[]{"0.001", "0.5", "1", "2", "10", "12345.678", "1e-30", "1e30"}) {
+            BigDecimal x = new BigDecimal(text);
+            BigDecimal roundTrip = BigDecimalMath.exp(BigDecimalMath.ln(x, context), context);
+            assertEquals(text, 0, roundTrip.round(new MathContext(38)).compareTo(x.round(new MathContext(38))));
+
+            BigDecimal sin = BigDecimalMath.sin(x, context);
+            BigDecimal cos = BigDecimalMath.cos(x, context);
+            BigDecimal one = sin.multiply(sin).add(cos.multiply(cos)).round(new MathContext(38));
+            assertEquals(text, 0, one.compareTo(BigDecimal.ONE));
+        }
+    }
+
+    @Test
+    public void expressions_useFunctionsAndConstants() {
+        assertClose("3.141592653589793", evaluate("pi", DECIMAL64));
+        assertClose("1.414213562373095", evaluate("sqrt(2)", DECIMAL64));
+        assertClose("2.000000000000000", evaluate("sin(pi/6)*4", DECIMAL64));
+        assertClose("7.389056098930650", evaluate("exp(1)^2", DECIMAL64));
+        assertEquals(new BigDecimal("3.14"), evaluate("pi", PrecisionPolicy.fixedScale(2, RoundingMode.HALF_UP)));
+        assertEquals(new BigDecimal("22026.47"),
+                evaluate("exp(10)", PrecisionPolicy.fixedScale(2, RoundingMode.HALF_UP)));
+        assertEquals(Math.sin(2) + Math.log(3), EquationCalculator.compile("sin(2)+ln(3)").evaluateDouble(), 0);
+        assertEquals(Math.cos(0.5) * Math.E, EquationCalculator.compile("cos(x)*e").toClosure().evaluate(0.5), 0);
+
+        try {
+            evaluate("ln(0)", DECIMAL64);
+            fail("Expected ln(0) to fail");
+        } catch (ArithmeticException expected) {
+        }
+    }
+
+    @Test
+    public void exact_acceptsOnlyExactResults() {
+        assertEquals(new BigDecimal("1.5"), evaluate("sqrt(2.25)", PrecisionPolicy.EXACT));
+        assertEquals(BigDecimal.ONE, evaluate("cos(0)+ln(1)", PrecisionPolicy.EXACT));
+        for (String inexact : new String[]{"pi", "sqrt(2)", "sin(1)"}) {
+            try {
+                evaluate(inexact, PrecisionPolicy.EXACT);
+                fail("Expected " + inexact + " to have no exact result");
+            } catch (ArithmeticException expected) {
+            }
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void limits_stopFunctionsOfHugeArguments() {
+        EvaluationLimits digits = EvaluationLimits.NONE.withMaxDigits(1000);
+        EvaluationLimits time = EvaluationLimits.NONE.withTimeout(200, TimeUnit.MILLISECONDS);
+        PrecisionPolicy fixed = PrecisionPolicy.fixedScale(2, RoundingMode.HALF_UP);
+        assertEquals(EvaluationLimitException.Limit.DIGITS, limitHit("sin(10^990)", digits, DECIMAL64));
+        assertEquals(EvaluationLimitException.Limit.DIGITS, limitHit("exp(10^8)", digits, fixed));
+        assertEquals(EvaluationLimitException.Limit.TIME, limitHit("sin(10^20000)", time, DECIMAL64));
+        assertEquals(EvaluationLimitException.Limit.TIME, limitHit("cos(10^20000)+1", time, fixed));
+        assertClose(BigDecimalMath.sin(BigDecimal.TEN.pow(900), DIGITS_50).round(MathContext.DECIMAL64).toPlainString(),
+                evaluate("sin(10^900)", DECIMAL64, digits));
+
+        // Under exact arithmetic nothing is computed to find that the result is inexact
+        for (String inexact : new String[]{"sin(10^20000)", "exp(10^8)", "ln(10^20000+1)"}) {
+            try {
+                evaluate(inexact, PrecisionPolicy.EXACT, time);
+                fail("Expected " + inexact + " to have no exact result");
+            } catch (ArithmeticException expected) {
+                assertTrue(expected.getMessage(), expected.getMessage().endsWith("has no exact result; use a PrecisionPolicy"));
+            }
+        }
+    }
+
+    @Test
+    public void parser_requiresParenthesesAndPrintsNames() {
+        for (String invalid : new String[]{"sqrt 2", "sqrt", "2sin(1)", "sin()"}) {
+            try {
+                EquationCalculator.compile(invalid);
+                fail("Expected " + invalid + " to be rejected");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+
+        CompiledExpression compiled = EquationCalculator.compile("-sqrt(x+1)*pi^2");
+        assertEquals("-sqrt(x+1)*pi^2", compiled.toString());
+        assertEquals(1, compiled.variables().size());
+        assertEquals("sin(2)*x", EquationCalculator.compile("sin(1+1)*x").optimize().toString());
+    }
+
+    @Test
+    public void constants_areCachedPerPrecision() {
+        MathContext context = new MathContext(123);
+        assertEquals(BigDecimalMath.pi(context), BigDecimalMath.pi(context)); // The second is read from the cache
+        assertEquals(BigDecimalMath.pi(new MathContext(200)).round(context), BigDecimalMath.pi(context));
+    }
+
+    @Test
+    public void preview_evaluatesFunctions() {
+        IncrementalEvaluator preview = new IncrementalEvaluator(DECIMAL64);
+        preview.setText("sqrt(16");
+        assertEquals(new BigDecimal("4"), preview.preview());
+        preview.setText("2*pi");
+        assertClose("6.283185307179586", preview.preview());
+        preview.setText("sqrt");
+        assertNull(preview.preview());
+        preview.replace(4, 0, "(9)");
+        assertEquals(new BigDecimal("3"), preview.preview());
+
+        IncrementalEvaluator exact = new IncrementalEvaluator();
+        exact.setText("1+pi");
+        assertNull(exact.preview());
+    }
+}
@@ -0,0 +1,79 @@
+package com.cosc3p97.calculator;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for StreamingEvaluator.
+ */
+public class StreamingEvaluatorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path write(String content) throws IOException {
+        Path input = this.folder.newFile().toPath();
+        Files.write(input, content.getBytes(StandardCharsets.US_ASCII));
+        return input;
+    }
+
+    @Test
+    public void evaluate_writesOneTextLinePerInputLine() throws IOException {
+        Path input = this.write("1+2\r\n2*(3+4)\n1/0\n\n2^10");
+        Path output = this.folder.newFile().toPath();
+
+        long lines = new StreamingEvaluator(StreamingEvaluator.Format.TEXT).evaluate(input, output);
+
+        assertEquals(5, lines);
+        List<String> results = Files.readAllLines(output, StandardCharsets.US_ASCII);
+        assertEquals(Arrays.asList("3", "14"), results.subList(0, 2));
+        assertTrue(results.get(2).startsWith("Error"));
+        assertTrue(results.get(3).startsWith("Error"));
+        assertEquals("1024", results.get(4));
+    }
+
+    @Test
+    public void evaluateParallel_matchesSequentialAcrossSmallWindows() throws Exception {
+        StringBuilder content = new StringBuilder();
+        List<BigDecimal> expected = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            String expression = i + ".5*" + (i % 13) + "-" + (i % 5) + "^3";
+            content.append(expression).append('\n');
+            expected.add(EquationCalculator.compile(expression).evaluateDecimal());
+        }
+        Path input = this.write(content.toString());
+        Path output = this.folder.newFile().toPath();
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            // A 256-byte window forces lines to be re-mapped across window boundaries
+            StreamingEvaluator evaluator =
+                    new StreamingEvaluator(StreamingEvaluator.Format.BINARY, executor, 4, 256);
+            assertEquals(expected.size(), evaluator.evaluateParallel(input, output));
+        } finally {
+            executor.shutdown();
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(output)))) {
+            for (BigDecimal value : expected)
+                assertEquals(value, StreamingEvaluator.readBinaryResult(in));
+            assertEquals(-1, in.read());
+        }
+    }
+}
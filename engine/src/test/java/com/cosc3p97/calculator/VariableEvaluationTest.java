@@ -0,0 +1,92 @@
+package com.cosc3p97.calculator;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for expressions with named variables and columnar evaluation.
+ */
+public class VariableEvaluationTest {
+
+    @Test
+    public void variables_listsDistinctNamesInOrderOfAppearance() {
+        CompiledExpression compiled = EquationCalculator.compile("rate * x + x_2 - rate / 2");
+        assertEquals(Arrays.asList("rate", "x", "x_2"), compiled.variables());
+        assertTrue(EquationCalculator.compile("1+2").variables().isEmpty());
+    }
+
+    @Test
+    public void evaluate_bindsVariablesInBothModes() {
+        CompiledExpression compiled = EquationCalculator.compile("-a^2 + b * (a - 1.5)");
+
+        assertEquals(new BigDecimal("-13.5"), compiled.evaluateDecimal(new BigDecimal("3"), new BigDecimal("-3")));
+        assertEquals(-13.5, compiled.evaluateDouble(3, -3), 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void evaluate_rejectsMissingVariableValues() {
+        EquationCalculator.compile("x+1").evaluateDecimal();
+    }
+
+    @Test
+    public void evaluateColumns_matchesRowByRowEvaluation() {
+        CompiledExpression compiled = EquationCalculator.compile("(x - y) * (x + y) / 2 - -x + 0.5^y");
+        int rows = 1000; // Several blocks, with a partial last block
+        double[] x = new double[rows];
+        double[] y = new double[rows];
+        for (int r = 0; r < rows; r++) {
+            x[r] = r * 0.75 - 100;
+            y[r] = r % 7;
+        }
+
+        double[] out = new double[rows];
+        compiled.evaluateColumns(new double[][]{x, y}, out);
+        for (int r = 0; r < rows; r++)
+            assertEquals(compiled.evaluateDouble(x[r], y[r]), out[r], 0);
+    }
+
+    @Test
+    public void evaluateColumns_resolvesColumnsByName() {
+        CompiledExpression compiled = EquationCalculator.compile("price * quantity");
+        Map<String, double[]> columns = new HashMap<>();
+        columns.put("quantity", new double[]{2, 3, 4});
+        columns.put("price", new double[]{1.5, 2.5, 10});
+
+        double[] out = new double[3];
+        compiled.evaluateColumns(columns, out);
+        assertArrayEquals(new double[]{3, 7.5, 40}, out, 0);
+    }
+
+    @Test
+    public void evaluateColumns_handlesExpressionsWithoutOperators() {
+        double[] out = new double[3];
+        EquationCalculator.compile("x").evaluateColumns(new double[][]{{1, 2, 3}}, out);
+        assertArrayEquals(new double[]{1, 2, 3}, out, 0);
+
+        EquationCalculator.compile("2.5").evaluateColumns(new double[0][], out);
+        assertArrayEquals(new double[]{2.5, 2.5, 2.5}, out, 0);
+    }
+
+    @Test
+    public void evaluateColumns_decimalIsExactAndReusesNothingBetweenRows() {
+        CompiledExpression compiled = EquationCalculator.compile("a * 100000000000 * 100000000000 + b");
+        BigDecimal[] a = {new BigDecimal("1"), new BigDecimal("0.5")};
+        BigDecimal[] b = {new BigDecimal("0.1"), new BigDecimal("2")};
+
+        BigDecimal[] out = new BigDecimal[2];
+        compiled.evaluateColumns(new BigDecimal[][]{a, b}, out);
+        assertEquals(new BigDecimal("10000000000000000000000.1"), out[0]);
+        assertEquals(new BigDecimal("5000000000000000000002.0"), out[1]);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void evaluateColumns_rejectsShortColumns() {
+        EquationCalculator.compile("x*2").evaluateColumns(new double[][]{{1, 2}}, new double[3]);
+    }
+}
@@ -0,0 +1,462 @@
+package com.cosc3p97.calculator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A headless server that evaluates expressions for other processes on the
+ * same machine, so they can share one warmed-up engine and one
+ * {@link ResultCache} instead of each embedding their own. It listens on
+ * the loopback address only and needs nothing but the JDK.
+ * <p>
+ * The protocol is UTF-8 text, one request per line, and every request gets
+ * response lines in the order the requests were sent:
+ * <ul>
+ * <li>{@code EVAL <expression>} answers {@code OK <result>}, formatted as
+ * the calculator shows it, or {@code ERR <message>};</li>
+ * <li>{@code BATCH <n>} makes each of the next {@code n} lines an
+ * expression, answered one line each like {@code EVAL};</li>
+ * <li>{@code STATS} answers {@code STATS} followed by space-separated
+ * {@code name=value} pairs from {@link #snapshot()};</li>
+ * <li>{@code QUIT} answers {@code BYE} and closes the connection.</li>
+ * </ul>
+ * Clients may pipeline: send any number of requests without waiting for
+ * their responses. One selector thread does all socket work without
+ * blocking, and expressions are evaluated in parallel by a pool of
+ * workers, so a slow expression only holds back the responses queued
+ * behind it on its own connection. Untrusted input is bounded by the
+ * server's {@link EvaluationLimits}, and a line longer than 1 MiB is
+ * answered with {@code ERR} and skipped.
+ * <p>
+ * The server installs an {@link EngineStatistics} as the engine's metrics
+ * sink while it runs, which affects the whole process.
+ */
+public final class EvaluationServer implements Closeable {
+
+    static final int DEFAULT_PORT = 9797;           // Port used when none is given
+    private static final int CACHE_ENTRIES = 10000; // Results kept by the shared cache
+
+    /**
+     * Limits for expressions from clients: long enough for any formula a
+     * person writes, short enough that no request can stall a worker.
+     */
+    public static final EvaluationLimits DEFAULT_LIMITS = EvaluationLimits.NONE
+            .withMaxTokens(100000)
+            .withMaxDepth(10000)
+            .withMaxDigits(100000)
+            .withTimeout(5, TimeUnit.SECONDS);
+
+    private final int port;                // Port to listen on, or 0 for any free port
+    private final EvaluationLimits limits; // Limits every expression is evaluated within
+    private final ExecutorService workers; // Threads that evaluate expressions
+    private final ResultCache cache = new ResultCache(CACHE_ENTRIES);   // Results shared by every client
+    private final EngineStatistics statistics = new EngineStatistics(); // Engine metrics while running
+
+    private final ConcurrentLinkedQueue<ServerConnection> answered = new ConcurrentLinkedQueue<>(); // Have answers to write
+    private final StripedCounters latencies = new StripedCounters(EngineStatistics.Histogram.CELLS); // Nanoseconds per request
+    private final AtomicLong requests = new AtomicLong();              // Expressions answered
+    private final AtomicLong failures = new AtomicLong();              // Expressions answered with ERR
+    private final AtomicLong connections = new AtomicLong();           // Connections accepted
+    private final AtomicInteger openConnections = new AtomicInteger(); // Connections not yet closed
+
+    private Selector selector;             // Selector of the listening socket and every connection
+    private ServerSocketChannel listener;  // Listening socket
+    private Thread thread;                 // Selector thread
+    private EngineMetrics previousMetrics; // Sink to restore when the server closes
+    private long startTime;                // System.nanoTime() when the server started
+    private volatile boolean closed;       // Whether close() was called
+
+    /**
+     * Constructor that creates a server with {@link #DEFAULT_LIMITS} and
+     * one worker per processor.
+     *
+     * @param port The port to listen on, or 0 for any free port.
+     */
+    public EvaluationServer(int port) {
+        this(port, Runtime.getRuntime().availableProcessors(), DEFAULT_LIMITS);
+    }
+
+    /**
+     * Constructor that creates a server. It does not listen until it is started.
+     *
+     * @param port    The port to listen on, or 0 for any free port.
+     * @param workers The number of threads evaluating expressions.
+     * @param limits  The limits every expression is evaluated within.
+     */
+    public EvaluationServer(int port, int workers, EvaluationLimits limits) {
+        if (port < 0 || port > 0xFFFF)
+            throw new IllegalArgumentException("port out of range: " + port);
+        if (workers <= 0)
+            throw new IllegalArgumentException("workers must be positive: " + workers);
+        if (limits == null)
+            throw new IllegalArgumentException("limits must not be null; use EvaluationLimits.NONE");
+
+        this.port = port;
+        this.limits = limits;
+        final AtomicInteger count = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workers, task -> {
+            Thread worker = new Thread(task, "evaluation-worker-" + count.incrementAndGet());
+            worker.setDaemon(true);
+            return worker;
+        });
+    }
+
+    /**
+     * Starts listening on the loopback address and serving connections on
+     * a new thread.
+     *
+     * @return This server.
+     * @throws IOException If the port cannot be opened.
+     */
+    public synchronized EvaluationServer start() throws IOException {
+        if (this.thread != null)
+            throw new IllegalStateException("The server was already started");
+
+        this.selector = Selector.open();
+        try {
+            this.listener = ServerSocketChannel.open();
+            this.listener.bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), this.port));
+            this.listener.configureBlocking(false);
+            this.listener.register(this.selector, SelectionKey.OP_ACCEPT);
+        } catch (IOException e) {
+            if (this.listener != null)
+                this.listener.close();
+            this.selector.close();
+            throw e;
+        }
+
+        this.previousMetrics = EquationCalculator.getMetrics();
+        EquationCalculator.setMetrics(this.statistics);
+        this.startTime = System.nanoTime();
+        this.thread = new Thread(this::run, "evaluation-server");
+        this.thread.start();
+        return this;
+    }
+
+    /**
+     * @return The address the server listens on.
+     * @throws IOException If the server is not listening.
+     */
+    public InetSocketAddress address() throws IOException {
+        if (this.listener == null)
+            throw new IllegalStateException("The server is not started");
+        return (InetSocketAddress) this.listener.getLocalAddress();
+    }
+
+    /**
+     * Stops listening, closes every connection without answering the
+     * requests still being evaluated, and restores the previous metrics sink.
+     */
+    @Override
+    public synchronized void close() {
+        if (this.closed)
+            return;
+        this.closed = true;
+
+        this.workers.shutdownNow();
+        if (this.thread == null)
+            return;
+
+        this.selector.wakeup();
+        try {
+            this.thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (EquationCalculator.getMetrics() == this.statistics)
+            EquationCalculator.setMetrics(this.previousMetrics);
+    }
+
+    /**
+     * Waits for the server to be closed.
+     *
+     * @param timeout The longest to wait.
+     * @param unit    The unit of the timeout.
+     * @return Whether the server was closed in time.
+     * @throws InterruptedException If the wait is interrupted.
+     */
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        Thread thread;
+        synchronized (this) {
+            thread = this.thread;
+        }
+        if (thread == null)
+            return this.closed;
+        thread.join(Math.max(1, unit.toMillis(timeout)));
+        return !thread.isAlive();
+    }
+
+    /**
+     * The selector loop: accepts connections, reads requests, writes answers.
+     */
+    private void run() {
+        try {
+            while (!this.closed) {
+                this.selector.select();
+
+                ServerConnection connection;
+                while ((connection = this.answered.poll()) != null) {
+                    connection.clearAnswered();
+                    this.service(connection, false);
+                }
+
+                Iterator<SelectionKey> keys = this.selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!key.isValid())
+                        continue;
+                    if (key.isAcceptable())
+                        this.accept();
+                    else
+                        this.service((ServerConnection) key.attachment(), key.isReadable());
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Evaluation server stopped: " + e);
+        } finally {
+            for (SelectionKey key : this.selector.keys()) {
+                if (key.attachment() instanceof ServerConnection)
+                    this.close((ServerConnection) key.attachment());
+            }
+            try {
+                this.listener.close();
+                this.selector.close();
+            } catch (IOException ignored) {
+                // Closing anyway
+            }
+        }
+    }
+
+    /**
+     * Accepts a waiting connection, if there is one.
+     *
+     * @throws IOException If the listening socket fails.
+     */
+    private void accept() throws IOException {
+        SocketChannel channel = this.listener.accept();
+        if (channel == null)
+            return;
+
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true); // Answers are small and a client may wait for each
+        SelectionKey key = channel.register(this.selector, SelectionKey.OP_READ);
+        key.attach(new ServerConnection(this, channel, key));
+        this.connections.incrementAndGet();
+        this.openConnections.incrementAndGet();
+    }
+
+    /**
+     * Serves a connection, closing it if its socket fails.
+     *
+     * @param connection The connection.
+     * @param read       Whether the socket has bytes to read.
+     */
+    private void service(ServerConnection connection, boolean read) {
+        if (!connection.isOpen())
+            return; // Answers for a connection that was already closed
+        try {
+            if (read)
+                connection.read();
+            else
+                connection.service();
+        } catch (IOException e) {
+            this.close(connection); // The client went away
+        }
+    }
+
+    /**
+     * Closes a connection. Called on the selector thread.
+     *
+     * @param connection The connection.
+     */
+    void close(ServerConnection connection) {
+        if (connection.isOpen()) {
+            connection.close();
+            this.openConnections.decrementAndGet();
+        }
+    }
+
+    /**
+     * Evaluates an expression on a worker and answers its request. Called
+     * on the selector thread.
+     *
+     * @param connection The connection the request came from.
+     * @param response   The request's place in the response order.
+     * @param expression The expression.
+     */
+    void evaluate(final ServerConnection connection, final ServerConnection.Response response, final String expression) {
+        try {
+            this.workers.execute(() -> {
+                String text = "ERR Evaluation failed";
+                try {
+                    text = "OK " + CompiledExpression.format(this.cache.evaluate(expression, this.limits));
+                } catch (RuntimeException e) {
+                    text = "ERR " + message(e);
+                } finally {
+                    if (text.startsWith("ERR"))
+                        this.failures.incrementAndGet();
+                    this.requests.incrementAndGet();
+                    EngineStatistics.Histogram.record(this.latencies, System.nanoTime() - response.start);
+                    response.text = text;
+                    if (connection.answered()) {
+                        this.answered.add(connection);
+                        this.selector.wakeup();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            response.text = "ERR The server is closing"; // Never written: the selector loop is ending too
+        }
+    }
+
+    /**
+     * @return The message of an exception on one line, or its type if it has none.
+     */
+    private static String message(RuntimeException e) {
+        String message = e.getMessage();
+        if (message == null || message.isEmpty())
+            return e.getClass().getSimpleName();
+        return message.replace('\r', ' ').replace('\n', ' ');
+    }
+
+    /**
+     * @return The latencies of requests so far, from reading the request
+     * to its answer being ready to write, in nanoseconds.
+     */
+    public EngineStatistics.Histogram latency() {
+        return new EngineStatistics.Histogram(this.latencies);
+    }
+
+    /**
+     * @return The number of expressions answered so far, with a result or an error.
+     */
+    public long requestCount() {
+        return this.requests.get();
+    }
+
+    /**
+     * @return The statistics of the engine while the server runs.
+     */
+    public EngineStatistics statistics() {
+        return this.statistics;
+    }
+
+    /**
+     * Flattens the server's own counters and the engine's statistics into
+     * named values. Server values come first: {@code "connections.open"},
+     * {@code "connections.total"}, {@code "requests"}, {@code "errors"},
+     * {@code "uptime.millis"}, {@code "throughput.perSecond"} over the
+     * whole uptime and the request latency as {@code "request.nanos.p99"}
+     * and so on, followed by every value of {@link EngineStatistics#snapshot()}.
+     *
+     * @return The current values, in a fixed order.
+     */
+    public Map<String, Number> snapshot() {
+        long uptime = Math.max(1, System.nanoTime() - this.startTime);
+        long requests = this.requests.get();
+
+        Map<String, Number> values = new LinkedHashMap<>();
+        values.put("connections.open", this.openConnections.get());
+        values.put("connections.total", this.connections.get());
+        values.put("requests", requests);
+        values.put("errors", this.failures.get());
+        values.put("uptime.millis", TimeUnit.NANOSECONDS.toMillis(uptime));
+        values.put("throughput.perSecond", requests * 1e9 / uptime);
+        this.latency().export(values, "request.", "nanos");
+        values.put("cache.size", this.cache.size());
+        values.putAll(this.statistics.snapshot());
+        return values;
+    }
+
+    /**
+     * @return Named values as space-separated {@code name=value} pairs.
+     */
+    static String format(Map<String, Number> values) {
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, Number> value : values.entrySet()) {
+            if (text.length() > 0)
+                text.append(' ');
+            text.append(value.getKey()).append('=').append(value.getValue());
+        }
+        return text.toString();
+    }
+
+    /**
+     * Runs a server until the process is stopped. Options:
+     * {@code --port <port>} (default {@value #DEFAULT_PORT}),
+     * {@code --workers <threads>}, {@code --timeout <milliseconds>} per
+     * expression and {@code --report <seconds>} to print the throughput
+     * and latency at that interval.
+     *
+     * @param args The command line options.
+     * @throws IOException          If the port cannot be opened.
+     * @throws InterruptedException If the main thread is interrupted.
+     */
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = DEFAULT_PORT;
+        int workers = Runtime.getRuntime().availableProcessors();
+        EvaluationLimits limits = DEFAULT_LIMITS;
+        int report = 0;
+        try {
+            for (int i = 0; i < args.length; i += 2) {
+                String value = i + 1 < args.length ? args[i + 1] : "";
+                switch (args[i]) {
+                    case "--port":
+                        port = Integer.parseInt(value);
+                        break;
+                    case "--workers":
+                        workers = Integer.parseInt(value);
+                        break;
+                    case "--timeout":
+                        limits = limits.withTimeout(Long.parseLong(value), TimeUnit.MILLISECONDS);
+                        break;
+                    case "--report":
+                        report = Integer.parseInt(value);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unknown option: " + args[i]);
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: EvaluationServer [--port <port>] [--workers <threads>]"
+                    + " [--timeout <milliseconds>] [--report <seconds>]");
+            System.exit(2);
+        }
+
+        final EvaluationServer server = new EvaluationServer(port, workers, limits).start();
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+        System.out.println("Evaluating on " + server.address().getHostString() + ":" + server.address().getPort());
+
+        long lastRequests = 0;
+        long lastTime = System.nanoTime();
+        while (!server.awaitTermination(report > 0 ? report : Long.MAX_VALUE, TimeUnit.SECONDS)) {
+            long requests = server.requestCount();
+            long now = System.nanoTime();
+            EngineStatistics.Histogram latency = server.latency();
+            System.out.printf("%d requests/s, %d total, latency p50<=%dus p99<=%dus, cache hit rate %.2f%n",
+                    (requests - lastRequests) * 1000000000L / Math.max(1, now - lastTime), requests,
+                    latency.percentile(50) / 1000, latency.percentile(99) / 1000,
+                    server.statistics().cacheHitRate());
+            lastRequests = requests;
+            lastTime = now;
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package com.cosc3p97.calculator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * One client connection of an {@link EvaluationServer}. Requests are read
+ * a line at a time and every expression is handed to a worker as soon as
+ * its line arrives, so a client can send many requests without waiting and
+ * they are evaluated in parallel. Responses are written strictly in the
+ * order of the requests: each request holds a place in a queue, and only
+ * the answered places at the head of the queue are written.
+ * <p>
+ * All methods except {@link #answered()} run on the server's selector
+ * thread. Answers wait while {@link #MAX_OUTPUT} bytes are unwritten, and
+ * a connection stops reading while {@link #MAX_PENDING} requests wait, so a
+ * client that sends faster than it reads cannot grow the server's memory
+ * without bound.
+ */
+final class ServerConnection {
+
+    static final int MAX_LINE = 1 << 20;     // Longest request line in bytes
+    static final int MAX_PENDING = 1024;     // Unanswered requests before reading pauses
+    static final int MAX_OUTPUT = 1 << 16;   // Unwritten response bytes before answers wait
+    private static final int BUFFER = 4096;  // Starting size of the input and output buffers
+
+    /**
+     * A request's place in the response order, filled in by a worker.
+     */
+    static final class Response {
+
+        final long start;         // System.nanoTime() when the request was read
+        final boolean statistics; // Whether it is a STATS request, answered when its turn comes
+        volatile String text;     // The response line, or null until it is answered
+
+        Response(long start, boolean statistics) {
+            this.start = start;
+            this.statistics = statistics;
+        }
+    }
+
+    private final EvaluationServer server; // Server that evaluates the requests
+    private final SocketChannel channel;   // Socket to the client
+    private final SelectionKey key;        // Registration with the server's selector
+
+    private ByteBuffer input = ByteBuffer.allocate(BUFFER);  // Bytes read but not yet parsed, from index 0
+    private ByteBuffer output = ByteBuffer.allocate(BUFFER); // Response bytes not yet written, from index 0
+    private int scanned;                                     // Input bytes already searched for a line break
+
+    private final ArrayDeque<Response> pending = new ArrayDeque<>(); // Requests in arrival order, not yet written
+    private final AtomicBoolean queued = new AtomicBoolean();       // Whether it waits in the server's ready queue
+
+    private int batch;          // Expression lines still to come for a BATCH request
+    private boolean skipping;   // Whether the rest of a line that is too long is being dropped
+    private boolean endOfInput; // Whether the client closed its side
+    private boolean quit;       // Whether the client asked to close
+
+    /**
+     * Constructor that registers a new connection with a selector.
+     *
+     * @param server  The server the connection belongs to.
+     * @param channel The accepted, non-blocking socket.
+     * @param key     The selection key of the socket.
+     */
+    ServerConnection(EvaluationServer server, SocketChannel channel, SelectionKey key) {
+        this.server = server;
+        this.channel = channel;
+        this.key = key;
+    }
+
+    /**
+     * Reads what the client has sent and serves it.
+     *
+     * @throws IOException If the socket fails.
+     */
+    void read() throws IOException {
+        if (this.channel.read(this.input) < 0)
+            this.endOfInput = true;
+        this.service();
+    }
+
+    /**
+     * Marks the connection as having answers to write. Called by workers.
+     *
+     * @return Whether the connection was not already marked.
+     */
+    boolean answered() {
+        return this.queued.compareAndSet(false, true);
+    }
+
+    /**
+     * Clears the mark set by {@link #answered()}, before serving the
+     * connection, so an answer that arrives while it is served marks it again.
+     */
+    void clearAnswered() {
+        this.queued.set(false);
+    }
+
+    /**
+     * Parses the requests that have arrived, writes the answered ones in
+     * order and decides what to wait for next. Repeats while answering
+     * makes room for requests that had to wait.
+     *
+     * @throws IOException If the socket fails.
+     */
+    void service() throws IOException {
+        while (true) {
+            this.parse();
+            boolean collected = this.collect();
+            this.write();
+            if (!collected || this.output.position() > 0)
+                break; // Nothing new to write, or the socket cannot take more for now
+        }
+
+        if ((this.quit || this.endOfInput) && this.pending.isEmpty() && this.output.position() == 0) {
+            this.server.close(this);
+            return;
+        }
+
+        int operations = this.output.position() > 0 ? SelectionKey.OP_WRITE : 0;
+        if (!this.quit && !this.endOfInput && this.pending.size() < MAX_PENDING)
+            operations |= SelectionKey.OP_READ;
+        this.key.interestOps(operations);
+    }
+
+    /**
+     * @return Whether the socket is still open.
+     */
+    boolean isOpen() {
+        return this.channel.isOpen();
+    }
+
+    /**
+     * Closes the socket. Requests still being evaluated are not answered.
+     */
+    void close() {
+        this.key.cancel();
+        try {
+            this.channel.close();
+        } catch (IOException ignored) {
+            // Nothing more can be sent to the client either way
+        }
+    }
+
+    /**
+     * Handles every complete line in the input while there is room for
+     * more unanswered requests, then moves what is left to the front. A
+     * final line without a line break counts once the client has closed
+     * its side. A line longer than {@link #MAX_LINE} is answered with an
+     * error and dropped as it arrives.
+     */
+    private void parse() {
+        byte[] bytes = this.input.array();
+        int end = this.input.position();
+        int start = 0;
+
+        while (!this.quit && this.pending.size() < MAX_PENDING) {
+            int lineEnd = -1;
+            for (int i = this.scanned; i < end; i++) {
+                if (bytes[i] == '\n') {
+                    lineEnd = i;
+                    break;
+                }
+            }
+            if (lineEnd < 0) {
+                this.scanned = end;
+                if (this.skipping)
+                    start = end;
+                if (!this.endOfInput || start == end)
+                    break;
+                lineEnd = end; // The last line of the input
+            }
+
+            if (this.skipping) {
+                this.skipping = false; // The end of the line that was too long
+            } else {
+                int length = lineEnd > start && bytes[lineEnd - 1] == '\r' ? lineEnd - 1 - start : lineEnd - start;
+                this.request(new String(bytes, start, length, StandardCharsets.UTF_8));
+            }
+            start = Math.min(lineEnd + 1, end);
+            this.scanned = start;
+        }
+
+        if (this.quit) {
+            this.input.clear(); // Nothing after QUIT is read
+            this.scanned = 0;
+            return;
+        }
+        if (start > 0) {
+            System.arraycopy(bytes, start, bytes, 0, end - start);
+            this.input.position(end - start);
+            this.scanned -= start;
+        }
+
+        if (!this.input.hasRemaining() && this.scanned == this.input.position()) {
+            // The buffer holds part of one line: make room for the rest of it, up to the limit
+            if (this.input.capacity() >= MAX_LINE) {
+                this.respond("ERR Line too long");
+                this.skipping = true;
+                this.input.clear();
+                this.scanned = 0;
+            } else {
+                this.input = grow(this.input, this.input.capacity() * 2);
+            }
+        }
+    }
+
+    /**
+     * Handles one request line. Blank lines are ignored.
+     *
+     * @param line The line, without its line break.
+     */
+    private void request(String line) {
+        if (this.batch > 0) {
+            this.batch--;
+            this.evaluate(line);
+            return;
+        }
+        if (line.trim().isEmpty())
+            return;
+
+        int space = line.indexOf(' ');
+        String command = space < 0 ? line : line.substring(0, space);
+        String argument = space < 0 ? "" : line.substring(space + 1);
+        switch (command.toUpperCase(Locale.ROOT)) {
+            case "EVAL":
+                this.evaluate(argument);
+                break;
+            case "BATCH":
+                try {
+                    this.batch = Integer.parseInt(argument.trim());
+                    if (this.batch < 0)
+                        throw new NumberFormatException();
+                } catch (NumberFormatException e) {
+                    this.batch = 0;
+                    this.respond("ERR Invalid batch size: " + argument);
+                }
+                break;
+            case "STATS":
+                this.pending.add(new Response(System.nanoTime(), true)); // Counts every request before it
+                break;
+            case "QUIT":
+                this.respond("BYE");
+                this.quit = true;
+                break;
+            default:
+                this.respond("ERR Unknown command: " + command);
+        }
+    }
+
+    /**
+     * Takes a place in the response order and hands an expression to a worker.
+     */
+    private void evaluate(String expression) {
+        Response response = new Response(System.nanoTime(), false);
+        this.pending.add(response);
+        this.server.evaluate(this, response, expression);
+    }
+
+    /**
+     * Takes a place in the response order with an answer known right away.
+     */
+    private void respond(String text) {
+        Response response = new Response(System.nanoTime(), false);
+        response.text = text;
+        this.pending.add(response);
+    }
+
+    /**
+     * Moves the answered responses at the head of the queue to the output,
+     * until the output holds {@link #MAX_OUTPUT} bytes.
+     *
+     * @return Whether any response was moved.
+     */
+    private boolean collect() {
+        boolean collected = false;
+        Response head;
+        while (this.output.position() < MAX_OUTPUT && (head = this.pending.peek()) != null) {
+            if (head.statistics)
+                head.text = "STATS " + EvaluationServer.format(this.server.snapshot());
+            else if (head.text == null)
+                break;
+            byte[] line = head.text.getBytes(StandardCharsets.UTF_8);
+            if (this.output.remaining() < line.length + 1)
+                this.output = grow(this.output, Math.max(this.output.capacity() * 2, this.output.position() + line.length + 1));
+            this.output.put(line).put((byte) '\n');
+            this.pending.poll();
+            collected = true;
+        }
+        return collected;
+    }
+
+    /**
+     * Writes as much of the output as the socket takes without blocking.
+     *
+     * @throws IOException If the socket fails.
+     */
+    private void write() throws IOException {
+        if (this.output.position() == 0)
+            return;
+
+        this.output.flip();
+        this.channel.write(this.output);
+        this.output.compact();
+    }
+
+    /**
+     * @return A larger buffer with the same content, in the same position.
+     */
+    private static ByteBuffer grow(ByteBuffer buffer, int capacity) {
+        ByteBuffer grown = ByteBuffer.allocate(capacity);
+        buffer.flip();
+        grown.put(buffer);
+        return grown;
+    }
+}
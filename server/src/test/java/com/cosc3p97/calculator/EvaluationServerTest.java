@@ -0,0 +1,199 @@
+package com.cosc3p97.calculator;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Local unit tests for EvaluationServer, talking to it over real loopback sockets.
+ */
+public class EvaluationServerTest {
+
+    private EvaluationServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        this.server = new EvaluationServer(0, 2, EvaluationServer.DEFAULT_LIMITS).start();
+    }
+
+    @After
+    public void tearDown() {
+        this.server.close();
+    }
+
+    /**
+     * @return A new connection to the server, timing out rather than hanging a failing test.
+     */
+    private Socket connect() throws IOException {
+        Socket socket = new Socket(this.server.address().getAddress(), this.server.address().getPort());
+        socket.setSoTimeout(30000);
+        return socket;
+    }
+
+    /**
+     * Sends requests from another thread, so a client that writes a lot
+     * before reading cannot deadlock with the server, and reads a number
+     * of response lines.
+     */
+    private static List<String> exchange(Socket socket, final String requests, int lines) throws Exception {
+        final OutputStream out = socket.getOutputStream();
+        ExecutorService writer = Executors.newSingleThreadExecutor();
+        try {
+            Future<?> written = writer.submit(() -> {
+                out.write(requests.getBytes(StandardCharsets.UTF_8));
+                out.flush();
+                return null;
+            });
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            List<String> responses = new ArrayList<>();
+            for (int i = 0; i < lines; i++)
+                responses.add(in.readLine());
+            written.get();
+            return responses;
+        } finally {
+            writer.shutdown();
+        }
+    }
+
+    /**
+     * @return The response the server should give for an expression.
+     */
+    private static String expected(String expression) {
+        return "OK " + CompiledExpression.format(EquationCalculator.compile(expression).evaluateDecimal());
+    }
+
+    @Test
+    public void pipelinedRequests_areAnsweredInOrder() throws Exception {
+        // More requests than a connection keeps unanswered, with slow ones among fast ones
+        int count = ServerConnection.MAX_PENDING * 3;
+        StringBuilder requests = new StringBuilder();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            String expression = i % 500 == 0 ? "7^" + (5000 + i) + "-" + i : i + "*3.5+" + (i % 7);
+            requests.append("EVAL ").append(expression).append(i % 2 == 0 ? "\n" : "\r\n");
+            expected.add(expected(expression));
+        }
+
+        try (Socket socket = this.connect()) {
+            assertEquals(expected, exchange(socket, requests.toString(), count));
+        }
+        assertEquals(count, this.server.requestCount());
+    }
+
+    @Test
+    public void batches_answerEveryLine() throws Exception {
+        try (Socket socket = this.connect()) {
+            List<String> responses = exchange(socket,
+                    "BATCH 4\n1+1\n2 * 3\n1/0\n9^999999\nEVAL 12.5*(3+4)-8/2\nBATCH two\nBATCH 0\nEVAL 1/4\n", 7);
+            assertEquals("OK 2", responses.get(0));
+            assertEquals("OK 6", responses.get(1));
+            assertTrue(responses.get(2), responses.get(2).startsWith("ERR "));
+            assertTrue(responses.get(3), responses.get(3).startsWith("ERR ")); // Beyond the server's digit limit
+            assertEquals("OK 83.5", responses.get(4));
+            assertEquals("ERR Invalid batch size: two", responses.get(5));
+            assertEquals("OK 0.25", responses.get(6));
+        }
+    }
+
+    @Test
+    public void commands_areAnsweredInOrderWithEvaluations() throws Exception {
+        try (Socket socket = this.connect()) {
+            List<String> responses = exchange(socket, "EVAL 2^10\n\nFOO 1\nstats\nQUIT\nEVAL 1+1\n", 4);
+            assertEquals(Arrays.asList("OK 1024", "ERR Unknown command: FOO"), responses.subList(0, 2));
+            assertTrue(responses.get(2), responses.get(2).startsWith("STATS connections.open=1 connections.total=1 requests=1 errors=0 "));
+            assertTrue(responses.get(2), responses.get(2).contains(" request.count=1 "));
+            assertTrue(responses.get(2), responses.get(2).contains(" evaluate.count="));
+            assertEquals("BYE", responses.get(3));
+            assertEquals(-1, socket.getInputStream().read()); // Nothing after QUIT is answered
+        }
+    }
+
+    @Test
+    public void hostileRequests_failWithinTheTimeout() throws Exception {
+        // More than there are workers, so a request that stalled one would stall them all
+        int count = 4;
+        StringBuilder requests = new StringBuilder();
+        for (int i = 0; i < count; i++)
+            requests.append("EVAL 0.1^99999999+1\n");
+        requests.append("EVAL 1+1\n");
+
+        long start = System.nanoTime();
+        try (Socket socket = this.connect()) {
+            List<String> responses = exchange(socket, requests.toString(), count + 1);
+            for (String response : responses.subList(0, count))
+                assertTrue(response, response.startsWith("ERR "));
+            assertEquals("OK 2", responses.get(count));
+        }
+        assertTrue(System.nanoTime() - start < EvaluationServer.DEFAULT_LIMITS.getTimeout(TimeUnit.NANOSECONDS));
+    }
+
+    @Test
+    public void halfClosedClient_getsEveryAnswer() throws Exception {
+        try (Socket socket = this.connect()) {
+            OutputStream out = socket.getOutputStream();
+            out.write("EVAL 2^64\nEVAL 0.1+0.2".getBytes(StandardCharsets.UTF_8)); // The last line has no line break
+            socket.shutdownOutput();
+
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            assertEquals("OK 18446744073709551616", in.readLine());
+            assertEquals("OK 0.3", in.readLine());
+            assertNull(in.readLine());
+        }
+    }
+
+    @Test
+    public void tooLongLines_areSkipped() throws Exception {
+        char[] line = new char[ServerConnection.MAX_LINE + 1];
+        Arrays.fill(line, '1');
+        try (Socket socket = this.connect()) {
+            assertEquals(Arrays.asList("OK 2", "ERR Line too long", "OK 4"),
+                    exchange(socket, "EVAL 1+1\nEVAL " + new String(line) + "\nEVAL 2+2\n", 3));
+        }
+    }
+
+    @Test
+    public void connections_areServedConcurrently() throws Exception {
+        int clients = 8;
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int c = 0; c < clients; c++) {
+                final int client = c;
+                results.add(pool.submit(() -> {
+                    StringBuilder requests = new StringBuilder("BATCH 200\n");
+                    List<String> expected = new ArrayList<>();
+                    for (int i = 0; i < 200; i++) {
+                        String expression = client + "+" + i + "/8";
+                        requests.append(expression).append('\n');
+                        expected.add(expected(expression));
+                    }
+                    try (Socket socket = this.connect()) {
+                        return expected.equals(exchange(socket, requests.toString(), 200));
+                    }
+                }));
+            }
+            for (Future<Boolean> result : results)
+                assertTrue(result.get());
+        } finally {
+            pool.shutdown();
+        }
+        assertEquals(clients * 200, this.server.requestCount());
+        assertEquals(clients, this.server.snapshot().get("connections.total").longValue());
+    }
+}